@@ -15,6 +15,7 @@ public class NettyCommand {
     public static final short PUSH_EXCHANGE_ORDER_CANCELED = 20027;
     public static final short PUSH_EXCHANGE_ORDER_TRADE = 20028;
     public static final short PUSH_EXCHANGE_DEPTH = 20029;
+    public static final short PUSH_EXCHANGE_PLATE_DELTA = 20030;
 
     public static final short SUBSCRIBE_CHAT = 20031;
     public static final short UNSUBSCRIBE_CHAT = 20032;
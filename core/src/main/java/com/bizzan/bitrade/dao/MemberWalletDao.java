@@ -10,6 +10,7 @@ import com.bizzan.bitrade.entity.Coin;
 import com.bizzan.bitrade.entity.MemberWallet;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -77,6 +78,16 @@ public interface MemberWalletDao extends BaseDao<MemberWallet> {
 
     List<MemberWallet> findAllByMemberId(Long memberId);
 
+    /**
+     * 一次查询会员多个币种的钱包
+     *
+     * @param memberId
+     * @param units 币种单位
+     * @return
+     */
+    @Query("select wallet from MemberWallet wallet join fetch wallet.coin coin where wallet.memberId = :memberId and coin.unit in :units")
+    List<MemberWallet> findAllByMemberIdAndCoinUnits(@Param("memberId") Long memberId, @Param("units") Collection<String> units);
+
     List<MemberWallet> findAllByCoin(Coin coin);
 
     @Query(value="select sum(a.balance)+sum(a.frozen_balance) as allBalance from member_wallet a where a.coin_id = :coinName",nativeQuery = true)
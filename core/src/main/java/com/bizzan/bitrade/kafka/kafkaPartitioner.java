@@ -4,7 +4,14 @@ import java.util.Map;
 
 import org.apache.kafka.clients.producer.Partitioner;
 import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.utils.Utils;
 
+/**
+ * 确定性的分区器
+ *
+ * 带key的消息按key的 murmur2 哈希分区，与 Kafka 默认分区器的结果一致，撮合相关消息以交易对为key，
+ * 同一交易对的消息总在同一分区；不带key的消息固定发到0分区，保持发送顺序
+ */
 public class kafkaPartitioner implements Partitioner {
 
 	@Override
@@ -14,20 +21,15 @@ public class kafkaPartitioner implements Partitioner {
 
 	@Override
 	public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
-        // 交易相关的随机分配，其他分配到0分区
-		if(topic.startsWith("exchange")) {
-            return random();
-        }else {
-        	return 0;
-        }
+		if (keyBytes == null) {
+			return 0;
+		}
+		int partitions = cluster.partitionsForTopic(topic).size();
+		return Utils.toPositive(Utils.murmur2(keyBytes)) % partitions;
 	}
 
 	@Override
 	public void close() {
 		
 	}
-	
-	private static int random() {
-		return (int)(Math.random()*9)+1;
-	}
 }
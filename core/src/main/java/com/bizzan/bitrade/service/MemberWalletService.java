@@ -29,8 +29,11 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 @Slf4j
@@ -238,6 +241,21 @@ public class MemberWalletService extends BaseService {
         return memberWalletDao.findAllByMemberId(memberId);
     }
 
+    /**
+     * 一次查询会员多个币种的钱包，结果按币种单位索引，不存在的钱包不在结果中
+     *
+     * @param memberId
+     * @param units
+     * @return
+     */
+    public Map<String, MemberWallet> findByCoinUnitsAndMemberId(Long memberId, String... units) {
+        Map<String, MemberWallet> wallets = new HashMap<>();
+        for (MemberWallet wallet : memberWalletDao.findAllByMemberIdAndCoinUnits(memberId, Arrays.asList(units))) {
+            wallets.put(wallet.getCoin().getUnit(), wallet);
+        }
+        return wallets;
+    }
+
     /**
      * 冻结钱包
      *
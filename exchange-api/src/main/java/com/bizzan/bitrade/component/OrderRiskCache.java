@@ -0,0 +1,91 @@
+package com.bizzan.bitrade.component;
+
+import com.bizzan.bitrade.entity.Coin;
+import com.bizzan.bitrade.entity.ExchangeCoin;
+import com.bizzan.bitrade.entity.Member;
+import com.bizzan.bitrade.service.CoinService;
+import com.bizzan.bitrade.service.ExchangeCoinService;
+import com.bizzan.bitrade.service.MemberService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 下单校验用到的参考数据缓存
+ *
+ * 交易对、币种配置和会员的交易状态在下单时只读，按 exchange.risk.cache-ttl 缓存，
+ * 后台修改配置或禁止会员交易最多延迟一个缓存周期生效；查不到的数据不缓存
+ */
+@Component
+public class OrderRiskCache {
+    @Autowired
+    private ExchangeCoinService exchangeCoinService;
+    @Autowired
+    private CoinService coinService;
+    @Autowired
+    private MemberService memberService;
+
+    //缓存有效期，毫秒，小于等于0时不缓存
+    @Value("${exchange.risk.cache-ttl:5000}")
+    private long ttl;
+
+    private final ConcurrentHashMap<String, Entry<ExchangeCoin>> exchangeCoins = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry<Coin>> coins = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Entry<Member>> members = new ConcurrentHashMap<>();
+
+    public ExchangeCoin getExchangeCoin(String symbol) {
+        return symbol == null ? null : get(exchangeCoins, symbol, exchangeCoinService::findBySymbol);
+    }
+
+    public Coin getCoin(String unit) {
+        return unit == null ? null : get(coins, unit, coinService::findByUnit);
+    }
+
+    public Member getMember(Long memberId) {
+        return get(members, memberId, memberService::findOne);
+    }
+
+    private <K, V> V get(ConcurrentHashMap<K, Entry<V>> cache, K key, Function<K, V> loader) {
+        if (ttl <= 0) {
+            return loader.apply(key);
+        }
+        long now = System.currentTimeMillis();
+        Entry<V> entry = cache.get(key);
+        if (entry != null && entry.expireTime > now) {
+            return entry.value;
+        }
+        V value = loader.apply(key);
+        if (value == null) {
+            cache.remove(key);
+        } else {
+            cache.put(key, new Entry<>(value, now + ttl));
+        }
+        return value;
+    }
+
+    /**
+     * 清理过期的缓存，避免不再下单的会员长期占用内存
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        exchangeCoins.values().removeIf(entry -> entry.expireTime <= now);
+        coins.values().removeIf(entry -> entry.expireTime <= now);
+        members.values().removeIf(entry -> entry.expireTime <= now);
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expireTime;
+
+        Entry(V value, long expireTime) {
+            this.value = value;
+            this.expireTime = expireTime;
+        }
+    }
+}
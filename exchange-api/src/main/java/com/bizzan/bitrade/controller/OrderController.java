@@ -1,6 +1,8 @@
 package com.bizzan.bitrade.controller;
 
 import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.codec.ExchangeWireCodec;
+import com.bizzan.bitrade.component.OrderRiskCache;
 import com.bizzan.bitrade.constant.BooleanEnum;
 import com.bizzan.bitrade.constant.MemberLevelEnum;
 import com.bizzan.bitrade.constant.SysConstant;
@@ -27,6 +29,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -47,6 +50,11 @@ public class OrderController {
     @Autowired
     private KafkaTemplate<String, String> kafkaTemplate;
     @Autowired
+    private KafkaTemplate<String, byte[]> binaryKafkaTemplate;
+    //下单、撤单消息是否使用二进制格式，需先升级撮合引擎
+    @Value("${exchange.wire.binary:false}")
+    private boolean wireBinary;
+    @Autowired
     private ExchangeOrderDetailService exchangeOrderDetailService;
     @Value("${exchange.max-cancel-times:-1}")
     private int maxCancelTimes;
@@ -58,6 +66,8 @@ public class OrderController {
     private RestTemplate restTemplate;
     @Autowired
     private RedisTemplate redisTemplate;
+    @Autowired
+    private OrderRiskCache orderRiskCache;
     private SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
     /**
@@ -80,7 +90,8 @@ public class OrderController {
         if(direction == null || type == null){
             return MessageResult.error(500,msService.getMessage("ILLEGAL_ARGUMENT"));
         }
-        Member member=memberService.findOne(authMember.getId());
+        // 会员、交易对、币种配置从缓存读取，见 OrderRiskCache
+        Member member=orderRiskCache.getMember(authMember.getId());
         /*
         if(member.getMemberLevel()== MemberLevelEnum.GENERAL){
             return MessageResult.error(500,"请先进行实名认证");
@@ -101,7 +112,7 @@ public class OrderController {
             return MessageResult.error(500, msService.getMessage("NUMBER_OF_ILLEGAL"));
         }
         //根据交易对名称【symbol (如 BTC/USDT)】获取交易对儿信息
-        ExchangeCoin exchangeCoin = exchangeCoinService.findBySymbol(symbol);
+        ExchangeCoin exchangeCoin = orderRiskCache.getExchangeCoin(symbol);
         if (exchangeCoin == null) {
             return MessageResult.error(500, msService.getMessage("NONSUPPORT_COIN"));
         }
@@ -117,9 +128,9 @@ public class OrderController {
         Coin coin;
         //根据交易方向查询币种信息
         if (direction == ExchangeOrderDirection.SELL) {
-            coin = coinService.findByUnit(exCoin);
+            coin = orderRiskCache.getCoin(exCoin);
         } else {
-            coin = coinService.findByUnit(baseCoin);
+            coin = orderRiskCache.getCoin(baseCoin);
         }
         if (coin == null) {
             return MessageResult.error(500, msService.getMessage("NONSUPPORT_COIN"));
@@ -151,8 +162,10 @@ public class OrderController {
         if (amount.compareTo(BigDecimal.ZERO) <= 0) {
             return MessageResult.error(500, msService.getMessage("NUMBER_OF_ILLEGAL"));
         }
-        MemberWallet baseCoinWallet = walletService.findByCoinUnitAndMemberId(baseCoin, member.getId());
-        MemberWallet exCoinWallet = walletService.findByCoinUnitAndMemberId(exCoin, member.getId());
+        // 两个钱包一次查出，下单时直接用于冻结
+        Map<String, MemberWallet> wallets = walletService.findByCoinUnitsAndMemberId(member.getId(), baseCoin, exCoin);
+        MemberWallet baseCoinWallet = wallets.get(baseCoin);
+        MemberWallet exCoinWallet = wallets.get(exCoin);
         if (baseCoinWallet == null || exCoinWallet == null) {
             return MessageResult.error(500, msService.getMessage("NONSUPPORT_COIN"));
         }
@@ -280,13 +293,13 @@ public class OrderController {
         //限价买入单时amount为用户设置的总成交额
         order.setAmount(amount);
 
-        MessageResult mr = orderService.addOrder(member.getId(), order);
+        MessageResult mr = orderService.addOrder(member.getId(), order, direction == ExchangeOrderDirection.BUY ? baseCoinWallet : exCoinWallet);
         if (mr.getCode() != 0) {
             return MessageResult.error(500, "提交订单失败:" + mr.getMessage());
         }
         log.info(">>>>>>>>>>订单提交完成>>>>>>>>>>");
-        // 发送消息至Exchange系统
-        kafkaTemplate.send("exchange-order", JSON.toJSONString(order));
+        // 发送消息至Exchange系统，以交易对为key，由持有该交易对的撮合节点按序处理
+        sendOrder("exchange-order", order);
         MessageResult result = MessageResult.success("success");
         result.setData(order.getOrderId());
         return result;
@@ -527,8 +540,8 @@ public class OrderController {
             return MessageResult.error(500, "提交订单失败:" + mr.getMessage());
         }
         log.info(">>>>>>>>>>订单提交完成>>>>>>>>>>");
-        // 发送消息至Exchange系统
-        kafkaTemplate.send("exchange-order", JSON.toJSONString(order));
+        // 发送消息至Exchange系统，以交易对为key，由持有该交易对的撮合节点按序处理
+        sendOrder("exchange-order", order);
         MessageResult result = MessageResult.success("success");
         result.setData(order.getOrderId());
         return result;
@@ -704,8 +717,8 @@ public class OrderController {
 			}
         }
         if(isExchangeOrderExist(order)){
-            // 发送消息至Exchange系统
-            kafkaTemplate.send("exchange-order-cancel",JSON.toJSONString(order));
+            // 发送消息至Exchange系统，以交易对为key，由持有该交易对的撮合节点按序处理
+            sendOrder("exchange-order-cancel", order);
         }
         else{
             //强制取消
@@ -761,8 +774,8 @@ public class OrderController {
             if (maxCancelTimes > 0 && orderService.findTodayOrderCancelTimes(member.getId(), order.getSymbol()) >= maxCancelTimes) {
                 return MessageResult.error(500, "你今天已经取消了 " + maxCancelTimes + " 次");
             }
-            // 发送消息至Exchange系统
-            kafkaTemplate.send("exchange-order-cancel",JSON.toJSONString(order));
+            // 发送消息至Exchange系统，以交易对为key，由持有该交易对的撮合节点按序处理
+            sendOrder("exchange-order-cancel", order);
         }
         else{
             //强制取消
@@ -789,6 +802,19 @@ public class OrderController {
         }
     }
 
+    /**
+     * 发送订单至撮合引擎，以交易对为key，由持有该交易对的撮合节点按序处理
+     * @param topic
+     * @param order
+     */
+    private void sendOrder(String topic, ExchangeOrder order) {
+        if (wireBinary) {
+            binaryKafkaTemplate.send(topic, order.getSymbol(), ExchangeWireCodec.encodeOrder(order));
+        } else {
+            kafkaTemplate.send(topic, order.getSymbol(), JSON.toJSONString(order));
+        }
+    }
+
     /**
      * 获取下单时间限制
      * @return
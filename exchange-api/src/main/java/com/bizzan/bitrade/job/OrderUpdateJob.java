@@ -2,6 +2,7 @@ package com.bizzan.bitrade.job;
 
 
 import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.codec.ExchangeWireCodec;
 import com.bizzan.bitrade.entity.ExchangeCoin;
 import com.bizzan.bitrade.entity.ExchangeOrder;
 import com.bizzan.bitrade.service.ExchangeCoinService;
@@ -10,6 +11,7 @@ import com.bizzan.bitrade.service.ExchangeOrderService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
@@ -24,6 +26,10 @@ public class OrderUpdateJob {
     private ExchangeCoinService coinService;
     @Autowired
     private KafkaTemplate<String, String> kafkaTemplate;
+    @Autowired
+    private KafkaTemplate<String, byte[]> binaryKafkaTemplate;
+    @Value("${exchange.wire.binary:false}")
+    private boolean wireBinary;
     private Logger logger = LoggerFactory.getLogger(OrderUpdateJob.class);
 
     // 5分钟检查一次超时订单
@@ -35,8 +41,12 @@ public class OrderUpdateJob {
             if(coin.getMaxTradingTime() > 0){
                 List<ExchangeOrder> orders =  orderService.findOvertimeOrder(coin.getSymbol(), coin.getMaxTradingTime());
                 orders.forEach(order -> {
-                    // 发送消息至Exchange系统
-                    kafkaTemplate.send("exchange-order-cancel", JSON.toJSONString(order));
+                    // 发送消息至Exchange系统，以交易对为key，由持有该交易对的撮合节点按序处理
+                    if (wireBinary) {
+                        binaryKafkaTemplate.send("exchange-order-cancel", order.getSymbol(), ExchangeWireCodec.encodeOrder(order));
+                    } else {
+                        kafkaTemplate.send("exchange-order-cancel", order.getSymbol(), JSON.toJSONString(order));
+                    }
                     logger.info("orderId:"+order.getOrderId()+",time:"+order.getTime());
                 });
             }
@@ -0,0 +1,336 @@
+package com.bizzan.bitrade.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.entity.ExchangeOrderDirection;
+import com.bizzan.bitrade.entity.ExchangeOrderStatus;
+import com.bizzan.bitrade.entity.ExchangeOrderType;
+import com.bizzan.bitrade.entity.ExchangeTrade;
+import com.bizzan.bitrade.entity.TradePlateDelta;
+import com.bizzan.bitrade.entity.TradePlateItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 撮合相关 Kafka 消息的二进制编码，exchange-api、撮合引擎与行情端共用
+ *
+ * 消息以 MAGIC、版本、类型三个字节开头，之后按字段顺序写入，可为空的字段先写一个标记字节。
+ * JSON 消息的首字节是 '{' 或 '['，解码时据此区分，切换期间两种格式可以混用
+ */
+public final class ExchangeWireCodec {
+    public static final byte MAGIC = (byte) 0xE7;
+    public static final byte VERSION = 1;
+
+    private static final byte ORDER = 1;
+    private static final byte ORDERS = 2;
+    private static final byte TRADES = 3;
+    private static final byte PLATE_DELTA = 4;
+
+    private ExchangeWireCodec() {
+    }
+
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length >= 3 && data[0] == MAGIC;
+    }
+
+    public static byte[] encodeOrder(ExchangeOrder order) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(160);
+            DataOutputStream out = header(bytes, ORDER);
+            writeMessageOrder(out, order);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] encodeOrders(List<ExchangeOrder> orders) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + orders.size() * 160);
+            DataOutputStream out = header(bytes, ORDERS);
+            out.writeInt(orders.size());
+            for (ExchangeOrder order : orders) {
+                writeMessageOrder(out, order);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] encodeTrades(List<ExchangeTrade> trades) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + trades.size() * 128);
+            DataOutputStream out = header(bytes, TRADES);
+            out.writeInt(trades.size());
+            for (ExchangeTrade trade : trades) {
+                writeString(out, trade.getSymbol());
+                writeDecimal(out, trade.getPrice());
+                writeDecimal(out, trade.getAmount());
+                writeDecimal(out, trade.getBuyTurnover());
+                writeDecimal(out, trade.getSellTurnover());
+                writeEnum(out, trade.getDirection());
+                writeString(out, trade.getBuyOrderId());
+                writeString(out, trade.getSellOrderId());
+                writeLong(out, trade.getTime());
+                writeLong(out, trade.getSequence());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] encodePlateDelta(TradePlateDelta delta) {
+        try {
+            int items = (delta.getBids() == null ? 0 : delta.getBids().size()) + (delta.getAsks() == null ? 0 : delta.getAsks().size());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + items * 24);
+            DataOutputStream out = header(bytes, PLATE_DELTA);
+            writeString(out, delta.getSymbol());
+            out.writeLong(delta.getSequence());
+            out.writeBoolean(delta.isSnapshot());
+            writeItems(out, delta.getBids());
+            writeItems(out, delta.getAsks());
+            writeLong(out, delta.getTime());
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static ExchangeOrder decodeOrder(byte[] data) {
+        if (!isBinary(data)) {
+            return JSON.parseObject(data, ExchangeOrder.class);
+        }
+        try {
+            return readMessageOrder(body(data, ORDER));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid order message", e);
+        }
+    }
+
+    public static List<ExchangeOrder> decodeOrders(byte[] data) {
+        if (!isBinary(data)) {
+            return JSON.parseArray(new String(data, StandardCharsets.UTF_8), ExchangeOrder.class);
+        }
+        try {
+            DataInputStream in = body(data, ORDERS);
+            int size = in.readInt();
+            List<ExchangeOrder> orders = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                orders.add(readMessageOrder(in));
+            }
+            return orders;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid orders message", e);
+        }
+    }
+
+    public static List<ExchangeTrade> decodeTrades(byte[] data) {
+        if (!isBinary(data)) {
+            return JSON.parseArray(new String(data, StandardCharsets.UTF_8), ExchangeTrade.class);
+        }
+        try {
+            DataInputStream in = body(data, TRADES);
+            int size = in.readInt();
+            List<ExchangeTrade> trades = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ExchangeTrade trade = new ExchangeTrade();
+                trade.setSymbol(readString(in));
+                trade.setPrice(readDecimal(in));
+                trade.setAmount(readDecimal(in));
+                trade.setBuyTurnover(readDecimal(in));
+                trade.setSellTurnover(readDecimal(in));
+                trade.setDirection(readEnum(in, ExchangeOrderDirection.values()));
+                trade.setBuyOrderId(readString(in));
+                trade.setSellOrderId(readString(in));
+                trade.setTime(readLong(in));
+                trade.setSequence(readLong(in));
+                trades.add(trade);
+            }
+            return trades;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid trades message", e);
+        }
+    }
+
+    public static TradePlateDelta decodePlateDelta(byte[] data) {
+        if (!isBinary(data)) {
+            return JSON.parseObject(data, TradePlateDelta.class);
+        }
+        try {
+            DataInputStream in = body(data, PLATE_DELTA);
+            TradePlateDelta delta = new TradePlateDelta();
+            delta.setSymbol(readString(in));
+            delta.setSequence(in.readLong());
+            delta.setSnapshot(in.readBoolean());
+            delta.setBids(readItems(in));
+            delta.setAsks(readItems(in));
+            delta.setTime(readLong(in));
+            return delta;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid plate message", e);
+        }
+    }
+
+    /**
+     * 委托单的字段编码，撮合日志与盘口快照也使用这一格式；只随消息传递的序号不在其中
+     */
+    public static void writeOrder(DataOutput out, ExchangeOrder order) throws IOException {
+        writeString(out, order.getOrderId());
+        writeLong(out, order.getMemberId());
+        writeEnum(out, order.getType());
+        writeDecimal(out, order.getAmount());
+        writeString(out, order.getSymbol());
+        writeDecimal(out, order.getTradedAmount());
+        writeDecimal(out, order.getTurnover());
+        writeString(out, order.getCoinSymbol());
+        writeString(out, order.getBaseSymbol());
+        writeEnum(out, order.getStatus());
+        writeEnum(out, order.getDirection());
+        writeDecimal(out, order.getPrice());
+        writeLong(out, order.getTime());
+        writeLong(out, order.getCompletedTime());
+        writeLong(out, order.getCanceledTime());
+        writeString(out, order.getUseDiscount());
+    }
+
+    public static ExchangeOrder readOrder(DataInput in) throws IOException {
+        ExchangeOrder order = new ExchangeOrder();
+        order.setOrderId(readString(in));
+        order.setMemberId(readLong(in));
+        order.setType(readEnum(in, ExchangeOrderType.values()));
+        order.setAmount(readDecimal(in));
+        order.setSymbol(readString(in));
+        order.setTradedAmount(readDecimal(in));
+        order.setTurnover(readDecimal(in));
+        order.setCoinSymbol(readString(in));
+        order.setBaseSymbol(readString(in));
+        order.setStatus(readEnum(in, ExchangeOrderStatus.values()));
+        order.setDirection(readEnum(in, ExchangeOrderDirection.values()));
+        order.setPrice(readDecimal(in));
+        order.setTime(readLong(in));
+        order.setCompletedTime(readLong(in));
+        order.setCanceledTime(readLong(in));
+        order.setUseDiscount(readString(in));
+        return order;
+    }
+
+    private static void writeMessageOrder(DataOutput out, ExchangeOrder order) throws IOException {
+        writeOrder(out, order);
+        writeLong(out, order.getSequence());
+    }
+
+    private static ExchangeOrder readMessageOrder(DataInput in) throws IOException {
+        ExchangeOrder order = readOrder(in);
+        order.setSequence(readLong(in));
+        return order;
+    }
+
+    private static DataOutputStream header(ByteArrayOutputStream bytes, byte type) throws IOException {
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(type);
+        return out;
+    }
+
+    private static DataInputStream body(byte[] data, byte type) {
+        if (data[1] != VERSION || data[2] != type) {
+            throw new IllegalArgumentException("unsupported message,version=" + data[1] + ",type=" + data[2]);
+        }
+        return new DataInputStream(new ByteArrayInputStream(data, 3, data.length - 3));
+    }
+
+    private static void writeItems(DataOutput out, List<TradePlateItem> items) throws IOException {
+        if (items == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(items.size());
+        for (TradePlateItem item : items) {
+            writeDecimal(out, item.getPrice());
+            writeDecimal(out, item.getAmount());
+        }
+    }
+
+    private static List<TradePlateItem> readItems(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<TradePlateItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            TradePlateItem item = new TradePlateItem();
+            item.setPrice(readDecimal(in));
+            item.setAmount(readDecimal(in));
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeLong(DataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeEnum(DataOutput out, Enum<?> value) throws IOException {
+        out.writeByte(value == null ? -1 : value.ordinal());
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInput in, E[] values) throws IOException {
+        int ordinal = in.readByte();
+        return ordinal < 0 ? null : values[ordinal];
+    }
+
+    /**
+     * BigDecimal 按 scale + 非标度值写入，精度原样保留
+     */
+    private static void writeDecimal(DataOutput out, BigDecimal value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            byte[] unscaled = value.unscaledValue().toByteArray();
+            out.writeInt(value.scale());
+            out.writeByte(unscaled.length);
+            out.write(unscaled);
+        }
+    }
+
+    private static BigDecimal readDecimal(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int scale = in.readInt();
+        byte[] unscaled = new byte[in.readUnsignedByte()];
+        in.readFully(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+}
@@ -52,6 +52,9 @@ public class ExchangeOrder implements Serializable {
     //一个订单可能会被拆成多单支付
     @Transient
     private List<ExchangeOrderDetail> detail;
+    //撮合引擎发出完成、撤单消息时的交易对内递增序号，只随消息传递
+    @Transient
+    private Long sequence;
     @Override
     public String toString() {
         return JSON.toJSONString(this);
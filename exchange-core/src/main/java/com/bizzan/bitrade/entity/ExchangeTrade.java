@@ -19,6 +19,8 @@ public class ExchangeTrade implements Serializable{
     private String buyOrderId;
     private String sellOrderId;
     private Long time;
+    //交易对内的成交序号，由撮合引擎连续递增
+    private Long sequence;
     @Override
     public String toString() {
         return  JSON.toJSONString(this);
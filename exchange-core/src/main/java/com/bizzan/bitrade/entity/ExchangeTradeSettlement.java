@@ -0,0 +1,28 @@
+package com.bizzan.bitrade.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+import java.util.Date;
+
+/**
+ * 已结算的成交
+ *
+ * 一笔成交由买卖双方订单唯一确定，与钱包变动在同一事务中写入；
+ * 成交消息重复投递或重放时，已写入的成交直接跳过，不会重复入账
+ */
+@Entity
+@Data
+@Table(uniqueConstraints = {@UniqueConstraint(columnNames = {"buyOrderId", "sellOrderId"})})
+public class ExchangeTradeSettlement {
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id
+    private Long id;
+    private String buyOrderId;
+    private String sellOrderId;
+    private String symbol;
+    //交易对内的成交序号，撮合引擎无日志重启时会重新计数，仅用于排查
+    private Long sequence;
+    private Date createTime;
+}
@@ -0,0 +1,43 @@
+package com.bizzan.bitrade.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 待写入钱包的资金变动
+ *
+ * 成交结算开启延迟写入时，钱包变动先追加到本表，与资金记录在同一事务中提交，
+ * 再由 WalletLedgerService 合并后批量写入 member_wallet；写入成功后删除，重启后未写入的记录继续处理。
+ * 写入失败的记录标记为失败，按 nextRetryTime 重试
+ */
+@Entity
+@Data
+@Table(indexes = {@Index(columnList = "walletId"), @Index(columnList = "status,nextRetryTime")})
+public class MemberWalletDelta {
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id
+    private Long id;
+    private Long walletId;
+    private Long memberId;
+    //币种名称，对应 member_wallet.coin_id
+    private String coinId;
+    //增加的可用余额
+    @Column(columnDefinition = "decimal(26,16) comment '增加的可用余额'")
+    private BigDecimal balance;
+    //减少的冻结余额
+    @Column(columnDefinition = "decimal(26,16) comment '减少的冻结余额'")
+    private BigDecimal frozenBalance;
+    private Date createTime;
+    //0待写入，1写入失败等待重试
+    @Column(columnDefinition = "int default 0 comment '0待写入，1写入失败等待重试'")
+    private Integer status;
+    //已失败次数
+    @Column(columnDefinition = "int default 0 comment '已失败次数'")
+    private Integer retryCount;
+    //下次重试时间
+    private Date nextRetryTime;
+}
@@ -0,0 +1,31 @@
+package com.bizzan.bitrade.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 待发放的币币交易推广佣金
+ *
+ * 成交结算只记录卖方会员及其支付的手续费，与结算同一事务提交；
+ * 由 PromotionRewardService 定时按推荐人、币种合并后发放，发放后删除
+ */
+@Entity
+@Data
+public class PromotionRewardEvent {
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id
+    private Long id;
+    //支付手续费的会员
+    private Long memberId;
+    //手续费币种单位
+    private String symbol;
+    @Column(columnDefinition = "decimal(26,16) comment '手续费'")
+    private BigDecimal fee;
+    //二级推荐人是否返佣
+    private Boolean secondReferrerAward;
+    private Date createTime;
+}
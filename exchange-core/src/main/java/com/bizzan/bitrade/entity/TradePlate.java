@@ -2,19 +2,27 @@ package com.bizzan.bitrade.entity;
 
 
 import com.alibaba.fastjson.JSONObject;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * 盘口信息 每一个币对，在某一个方向上是一个盘口
+ *
+ * 档位按展示顺序保存在数组中（买盘价格从高到低，卖盘价格从低到高），按价格二分查找定位；
+ * 最大、最小委托量随档位变化维护，只有当前极值被削弱时才在下次读取时重新计算。
+ * 非线程安全，由撮合线程或调用方的锁保证串行访问
  */
 @Data
 @Slf4j
 public class TradePlate {
-    private LinkedList<TradePlateItem> items;
+    private ArrayList<TradePlateItem> items;
     //最大深度
     //性能要求以及超过100的深度，展示并没有意义
     private int maxDepth = 100;
@@ -22,8 +30,19 @@ public class TradePlate {
     private ExchangeOrderDirection direction;
     //币对符号
     private String symbol;
-    public TradePlate(){
+    //委托量最大、最小的档位数量，amountDirty为true时需要重新计算
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private BigDecimal maxAmount;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private BigDecimal minAmount;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private boolean amountDirty = false;
 
+    public TradePlate(){
+        items = new ArrayList<>();
     }
 
     /**
@@ -34,66 +53,81 @@ public class TradePlate {
     public TradePlate(String symbol,ExchangeOrderDirection direction) {
         this.direction = direction;
         this.symbol = symbol;
-        items = new LinkedList<>();
+        items = new ArrayList<>();
     }
 
-    public boolean add(ExchangeOrder exchangeOrder) {
-        //log.info("add TradePlate order={}",exchangeOrder);
-        synchronized (items) {
-            int index = 0;
-            if (exchangeOrder.getType() == ExchangeOrderType.MARKET_PRICE) {
-                return false;
-            }
-            if (exchangeOrder.getDirection() != direction) {
-                return false;
-            }
-            //寻找盘口合适的位置
-            if (items.size() > 0) {
-                for (index = 0; index < items.size(); index++) {
-                    TradePlateItem item = items.get(index);
-                    if (exchangeOrder.getDirection() == ExchangeOrderDirection.BUY && item.getPrice().compareTo(exchangeOrder.getPrice()) > 0
-                            || exchangeOrder.getDirection() == ExchangeOrderDirection.SELL && item.getPrice().compareTo(exchangeOrder.getPrice()) < 0) {
-                        // 买单：新价格 < 当前档位 → 继续找更低价格
-                        // 卖单：新价格 > 当前档位 → 继续找更高价格
-                        continue;
-                    } else if (item.getPrice().compareTo(exchangeOrder.getPrice()) == 0) {
-                        //交易项目价格相同，将当前订单未售出数量写入交易项
-                        BigDecimal deltaAmount = exchangeOrder.getAmount().subtract(exchangeOrder.getTradedAmount());
-                        item.setAmount(item.getAmount().add(deltaAmount));
-                        return true;
-                    } else {
-                        //找到插入位置
-                        break;
-                    }
-                }
+    /**
+     * 按展示顺序二分查找价位
+     * @param price
+     * @return 找到时返回下标，否则返回 -(插入位置) - 1
+     */
+    private int indexOf(BigDecimal price) {
+        int low = 0;
+        int high = items.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = items.get(mid).getPrice().compareTo(price);
+            //买盘价格从高到低，卖盘价格从低到高
+            if (direction == ExchangeOrderDirection.BUY) {
+                compare = -compare;
             }
-            if(index < maxDepth) {
-                //未超过交易深度
-                TradePlateItem newItem = new TradePlateItem();
-                newItem.setAmount(exchangeOrder.getAmount().subtract(exchangeOrder.getTradedAmount()));
-                newItem.setPrice(exchangeOrder.getPrice());
-                items.add(index, newItem);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
             }
         }
+        return -(low + 1);
+    }
+
+    public boolean add(ExchangeOrder exchangeOrder) {
+        //log.info("add TradePlate order={}",exchangeOrder);
+        if (exchangeOrder.getType() == ExchangeOrderType.MARKET_PRICE) {
+            return false;
+        }
+        if (exchangeOrder.getDirection() != direction) {
+            return false;
+        }
+        BigDecimal deltaAmount = exchangeOrder.getAmount().subtract(exchangeOrder.getTradedAmount());
+        int index = indexOf(exchangeOrder.getPrice());
+        if (index >= 0) {
+            //交易项目价格相同，将当前订单未售出数量写入交易项
+            TradePlateItem item = items.get(index);
+            BigDecimal oldAmount = item.getAmount();
+            item.setAmount(oldAmount.add(deltaAmount));
+            onAmountChanged(oldAmount, item.getAmount());
+            return true;
+        }
+        index = -index - 1;
+        if(index < maxDepth) {
+            //未超过交易深度
+            TradePlateItem newItem = new TradePlateItem();
+            newItem.setAmount(deltaAmount);
+            newItem.setPrice(exchangeOrder.getPrice());
+            items.add(index, newItem);
+            onAmountChanged(null, deltaAmount);
+        }
         return true;
     }
 
     public void remove(ExchangeOrder order,BigDecimal amount) {
-        synchronized (items) {
-            //log.info("items>>init_size={},orderPrice={}",items.size(),order.getPrice());
-            for (int index = 0; index < items.size(); index++) {
-                TradePlateItem item = items.get(index);
-                if (item.getPrice().compareTo(order.getPrice()) == 0) {
-                    //从盘口移除数量
-                    item.setAmount(item.getAmount().subtract(amount));
-                    if (item.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
-                        items.remove(index);
-                    }
-                    //log.info("items>>final_size={},itemAmount={},itemPrice={}",items.size(),item.getAmount(),item.getPrice());
-                    return;
-                }
-            }
+        //log.info("items>>init_size={},orderPrice={}",items.size(),order.getPrice());
+        int index = indexOf(order.getPrice());
+        if (index < 0) {
             log.info("items>>return_size={}",items.size());
+            return;
+        }
+        TradePlateItem item = items.get(index);
+        BigDecimal oldAmount = item.getAmount();
+        //从盘口移除数量
+        item.setAmount(oldAmount.subtract(amount));
+        if (item.getAmount().compareTo(BigDecimal.ZERO) <= 0) {
+            items.remove(index);
+            onAmountChanged(oldAmount, null);
+        } else {
+            onAmountChanged(oldAmount, item.getAmount());
         }
     }
 
@@ -101,8 +135,93 @@ public class TradePlate {
         remove(order,order.getAmount().subtract(order.getTradedAmount()));
     }
 
-    public void setItems(LinkedList<TradePlateItem> items){
-        this.items = items;
+    /**
+     * 查询价位上的数量
+     * @param price
+     * @return 盘口中没有该价位时返回0
+     */
+    public BigDecimal findAmount(BigDecimal price) {
+        int index = indexOf(price);
+        return index >= 0 ? items.get(index).getAmount() : BigDecimal.ZERO;
+    }
+
+    /**
+     * 按增量消息设置价位数量，数量为0时删除该价位
+     * @param price
+     * @param amount
+     */
+    public void update(BigDecimal price, BigDecimal amount) {
+        int index = indexOf(price);
+        if (index >= 0) {
+            TradePlateItem item = items.get(index);
+            BigDecimal oldAmount = item.getAmount();
+            if (amount.compareTo(BigDecimal.ZERO) <= 0) {
+                items.remove(index);
+                onAmountChanged(oldAmount, null);
+            } else {
+                item.setAmount(amount);
+                onAmountChanged(oldAmount, amount);
+            }
+            return;
+        }
+        index = -index - 1;
+        if (amount.compareTo(BigDecimal.ZERO) > 0 && index < maxDepth) {
+            TradePlateItem newItem = new TradePlateItem();
+            newItem.setPrice(price);
+            newItem.setAmount(amount);
+            items.add(index, newItem);
+            onAmountChanged(null, amount);
+        }
+    }
+
+    /**
+     * 维护最大、最小委托量
+     * @param oldAmount 变化前的数量，新增档位时为null
+     * @param newAmount 变化后的数量，删除档位时为null
+     */
+    private void onAmountChanged(BigDecimal oldAmount, BigDecimal newAmount) {
+        if (amountDirty) {
+            return;
+        }
+        if (oldAmount != null) {
+            //当前极值被削弱，下次读取时重新计算
+            if (maxAmount != null && oldAmount.compareTo(maxAmount) == 0 && (newAmount == null || newAmount.compareTo(oldAmount) < 0)
+                    || minAmount != null && oldAmount.compareTo(minAmount) == 0 && (newAmount == null || newAmount.compareTo(oldAmount) > 0)) {
+                amountDirty = true;
+                return;
+            }
+        }
+        if (newAmount != null) {
+            if (maxAmount == null || newAmount.compareTo(maxAmount) > 0) {
+                maxAmount = newAmount;
+            }
+            if (minAmount == null || newAmount.compareTo(minAmount) < 0) {
+                minAmount = newAmount;
+            }
+        }
+    }
+
+    private void refreshAmount() {
+        maxAmount = null;
+        minAmount = null;
+        for (TradePlateItem item : items) {
+            if (maxAmount == null || item.getAmount().compareTo(maxAmount) > 0) {
+                maxAmount = item.getAmount();
+            }
+            if (minAmount == null || item.getAmount().compareTo(minAmount) < 0) {
+                minAmount = item.getAmount();
+            }
+        }
+        amountDirty = false;
+    }
+
+    public List<TradePlateItem> getItems(){
+        return items;
+    }
+
+    public void setItems(List<TradePlateItem> items){
+        this.items = new ArrayList<>(items);
+        this.amountDirty = true;
     }
 
     public BigDecimal getHighestPrice(){
@@ -110,10 +229,10 @@ public class TradePlate {
             return BigDecimal.ZERO;
         }
         if(direction == ExchangeOrderDirection.BUY){
-            return items.getFirst().getPrice();
+            return items.get(0).getPrice();
         }
         else{
-            return items.getLast().getPrice();
+            return items.get(items.size() - 1).getPrice();
         }
     }
 
@@ -127,10 +246,10 @@ public class TradePlate {
             return BigDecimal.ZERO;
         }
         if(direction == ExchangeOrderDirection.BUY){
-            return items.getLast().getPrice();
+            return items.get(items.size() - 1).getPrice();
         }
         else{
-            return items.getFirst().getPrice();
+            return items.get(0).getPrice();
         }
     }
 
@@ -142,13 +261,10 @@ public class TradePlate {
         if(items.size() == 0) {
             return BigDecimal.ZERO;
         }
-        BigDecimal amount = BigDecimal.ZERO;
-        for(TradePlateItem item:items){
-            if(item.getAmount().compareTo(amount)>0){
-                amount = item.getAmount();
-            }
+        if(amountDirty) {
+            refreshAmount();
         }
-        return amount;
+        return maxAmount;
     }
 
     /**
@@ -159,27 +275,21 @@ public class TradePlate {
         if(items.size() == 0) {
             return BigDecimal.ZERO;
         }
-        BigDecimal amount = items.getFirst().getAmount();
-        for(TradePlateItem item:items){
-            if(item.getAmount().compareTo(amount) < 0){
-                amount = item.getAmount();
-            }
+        if(amountDirty) {
+            refreshAmount();
         }
-        return amount;
+        return minAmount;
     }
 
     public JSONObject toJSON(){
-        JSONObject json = new JSONObject();
-        json.put("direction",direction);
-        json.put("maxAmount",getMaxAmount());
-        json.put("minAmount",getMinAmount());
-        json.put("highestPrice",getHighestPrice());
-        json.put("lowestPrice",getLowestPrice());
-        json.put("symbol",getSymbol());
-        json.put("items",items);
-        return json;
+        return toJSON(items.size());
     }
 
+    /**
+     * 输出前limit档，档位列表是数组视图，不复制
+     * @param limit
+     * @return
+     */
     public JSONObject toJSON(int limit){
         JSONObject json = new JSONObject();
         json.put("direction",direction);
@@ -0,0 +1,22 @@
+package com.bizzan.bitrade.entity;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 盘口增量消息，每个交易对一个递增序号
+ *
+ * 增量消息只包含发生变化的价位，数量为0表示该价位已删除；
+ * 快照消息包含完整的买卖盘，序号不连续时等待下一个快照重新同步
+ */
+@Data
+public class TradePlateDelta {
+    private String symbol;
+    private long sequence;
+    //是否为完整快照
+    private boolean snapshot;
+    private List<TradePlateItem> bids;
+    private List<TradePlateItem> asks;
+    private Long time;
+}
@@ -8,7 +8,6 @@ import com.bizzan.bitrade.constant.RewardRecordType;
 import com.bizzan.bitrade.constant.TransactionType;
 import com.bizzan.bitrade.dao.ExchangeOrderDetailRepository;
 import com.bizzan.bitrade.dao.ExchangeOrderRepository;
-import com.bizzan.bitrade.dao.OrderDetailAggregationRepository;
 import com.bizzan.bitrade.entity.*;
 import com.bizzan.bitrade.pagination.Criteria;
 import com.bizzan.bitrade.pagination.PageResult;
@@ -37,17 +36,28 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 @Slf4j
 @Service
 public class ExchangeOrderService extends BaseService {
+    //成交已结算过，重复投递的消息
+    public static final int DUPLICATE_TRADE = 4009;
 
     @Autowired
     private ExchangeOrderRepository exchangeOrderRepository;
@@ -58,8 +68,6 @@ public class ExchangeOrderService extends BaseService {
     @Autowired
     private ExchangeCoinService exchangeCoinService;
     @Autowired
-    private OrderDetailAggregationRepository orderDetailAggregationRepository;
-    @Autowired
     private MemberService memberService;
     @Autowired
     private MemberTransactionService transactionService;
@@ -69,6 +77,14 @@ public class ExchangeOrderService extends BaseService {
     private RewardRecordService rewardRecordService;
     @Autowired
     private ExchangeOrderDetailService exchangeOrderDetailService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private WalletLedgerService walletLedgerService;
+    @Autowired
+    private PromotionRewardService promotionRewardService;
+    @Autowired
+    private MongoBulkWriter mongoBulkWriter;
     @Value("${channel.enable:false}")
     private Boolean channelEnable;
     @Value("${channel.exchange-rate:0.00}")
@@ -90,13 +106,28 @@ public class ExchangeOrderService extends BaseService {
      */
     @Transactional
     public MessageResult addOrder(Long memberId, ExchangeOrder order) {
+        String unit = order.getDirection() == ExchangeOrderDirection.BUY ? order.getBaseSymbol() : order.getCoinSymbol();
+        return addOrder(memberId, order, memberWalletService.findByCoinUnitAndMemberId(unit, memberId));
+    }
+
+    /**
+     * 添加委托订单，冻结下单方向付出币种的钱包
+     *
+     * 调用方已查出钱包时直接传入，不再重复查询；冻结由带余额条件的更新完成，钱包中的余额只用于提前拒绝
+     *
+     * @param memberId
+     * @param order
+     * @param wallet 买入时为基币钱包，卖出时为交易币钱包
+     * @return
+     */
+    @Transactional
+    public MessageResult addOrder(Long memberId, ExchangeOrder order, MemberWallet wallet) {
         order.setTime(Calendar.getInstance().getTimeInMillis());
         order.setStatus(ExchangeOrderStatus.TRADING);
         order.setTradedAmount(BigDecimal.ZERO);
         order.setOrderId(GeneratorUtil.getOrderId("E"));
         log.info("add order:{}", order);
         if (order.getDirection() == ExchangeOrderDirection.BUY) {
-            MemberWallet wallet = memberWalletService.findByCoinUnitAndMemberId(order.getBaseSymbol(), memberId);
             if(wallet.getIsLock().equals(BooleanEnum.IS_TRUE)){
                 return MessageResult.error("钱包已锁定");
             }
@@ -116,7 +147,6 @@ public class ExchangeOrderService extends BaseService {
                 }
             }
         } else if (order.getDirection() == ExchangeOrderDirection.SELL) {
-            MemberWallet wallet = memberWalletService.findByCoinUnitAndMemberId(order.getCoinSymbol(), memberId);
             if(wallet.getIsLock().equals(BooleanEnum.IS_TRUE)){
                 return MessageResult.error("钱包已锁定");
             }
@@ -279,6 +309,10 @@ public class ExchangeOrderService extends BaseService {
         if (trade == null || trade.getBuyOrderId() == null || trade.getSellOrderId() == null) {
             return MessageResult.error(500, "trade is null");
         }
+        if (filterSettled(Collections.singletonList(trade)).isEmpty()) {
+            log.info("trade already settled,buyOrderId={},sellOrderId={}", trade.getBuyOrderId(), trade.getSellOrderId());
+            return MessageResult.error(DUPLICATE_TRADE, "trade already settled");
+        }
 
         // 一笔成交 必然有一个买方订 单和一个卖方订单
         ExchangeOrder buyOrder = exchangeOrderRepository.findByOrderId(trade.getBuyOrderId());
@@ -293,6 +327,8 @@ public class ExchangeOrderService extends BaseService {
             log.error("invalid trade symbol {}", buyOrder.getSymbol());
             return MessageResult.error(500, "invalid trade symbol {}" + buyOrder.getSymbol());
         }
+        // 与钱包变动同一事务提交，并发重复结算时唯一索引冲突回滚
+        markSettled(Collections.singletonList(trade), new Date());
         // 根据memberId锁表，防止死锁 
         DB.query("select id from member_wallet where member_id = ? for update;",buyOrder.getMemberId());
         if(!buyOrder.getMemberId().equals(sellOrder.getMemberId())) {
@@ -305,6 +341,282 @@ public class ExchangeOrderService extends BaseService {
         return MessageResult.success("process success");
     }
 
+    /**
+     * 批量处理一条 exchange-trade 消息中的全部成交
+     *
+     * 订单一次查出，同一会员同一币种的资金变动先合并，按会员ID顺序一次锁定涉及的钱包，每个钱包只更新一次；
+     * 开启延迟写入（WalletLedgerService）时不锁定钱包，变动追加到待写入表，冻结余额的检查只是尽力而为。
+     * 成交明细、资金记录批量写入。任一钱包冻结余额不足或不存在时整批回滚，由调用方逐笔处理。
+     * 已结算过的成交跳过，本次结算的成交记入 exchange_trade_settlement
+     *
+     * @param trades
+     * @param secondReferrerAward 二级推荐人是否返回佣金 true 返回佣金
+     * @return data 为本次新结算（未重复）的成交
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public MessageResult processExchangeTrades(List<ExchangeTrade> trades, boolean secondReferrerAward) {
+        if (trades == null || trades.isEmpty()) {
+            return MessageResult.error(500, "trades is empty");
+        }
+        trades = filterSettled(trades);
+        if (trades.isEmpty()) {
+            log.info("trades already settled");
+            return MessageResult.getSuccessInstance("trades already settled", trades);
+        }
+        Set<String> orderIds = new HashSet<>();
+        for (ExchangeTrade trade : trades) {
+            if (trade != null && trade.getBuyOrderId() != null && trade.getSellOrderId() != null) {
+                orderIds.add(trade.getBuyOrderId());
+                orderIds.add(trade.getSellOrderId());
+            }
+        }
+        Map<String, ExchangeOrder> orders = new HashMap<>();
+        for (ExchangeOrder order : exchangeOrderRepository.findAll(orderIds)) {
+            orders.put(order.getOrderId(), order);
+        }
+        ExchangeCoin coin = null;
+        long time = Calendar.getInstance().getTimeInMillis();
+        List<SettlementSide> sides = new ArrayList<>();
+        List<ExchangeTrade> settled = new ArrayList<>(trades.size());
+        for (ExchangeTrade trade : trades) {
+            ExchangeOrder buyOrder = trade == null ? null : orders.get(trade.getBuyOrderId());
+            ExchangeOrder sellOrder = trade == null ? null : orders.get(trade.getSellOrderId());
+            if (buyOrder == null || sellOrder == null) {
+                log.error("order not found,trade = {}", trade);
+                continue;
+            }
+            if (coin == null) {
+                //同一条消息中的成交属于同一交易对
+                coin = exchangeCoinService.findBySymbol(buyOrder.getSymbol());
+                if (coin == null) {
+                    log.error("invalid trade symbol {}", buyOrder.getSymbol());
+                    return MessageResult.error(500, "invalid trade symbol " + buyOrder.getSymbol());
+                }
+            }
+            sides.add(new SettlementSide(buyOrder, trade, coin));
+            sides.add(new SettlementSide(sellOrder, trade, coin));
+            settled.add(trade);
+        }
+        if (sides.isEmpty()) {
+            return MessageResult.error(500, "order not found");
+        }
+        // 并发重复结算时唯一索引冲突，整批回滚后由调用方逐笔处理
+        markSettled(settled, new Date(time));
+
+        //合并资金变动：会员ID -> 币种 -> [增加可用, 减少冻结]
+        TreeMap<Long, Map<String, BigDecimal[]>> deltas = new TreeMap<>();
+        for (SettlementSide side : sides) {
+            Map<String, BigDecimal[]> coins = deltas.computeIfAbsent(side.order.getMemberId(), key -> new HashMap<>());
+            BigDecimal[] income = coins.computeIfAbsent(side.incomeSymbol, key -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+            income[0] = income[0].add(side.incomeAmount);
+            BigDecimal[] outcome = coins.computeIfAbsent(side.outcomeSymbol, key -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+            outcome[1] = outcome[1].add(side.outcomeAmount);
+        }
+        // 钱包的 coin_id 是币种名称，按币种单位匹配；按会员ID顺序一次锁定全部钱包，防止死锁
+        boolean writeBehind = walletLedgerService.isEnabled();
+        String placeholders = StringUtils.repeat("?", ",", deltas.size());
+        List<Map<String, Object>> wallets = jdbcTemplate.queryForList(
+                "select w.id, w.member_id, w.coin_id, c.unit, w.frozen_balance from member_wallet w join coin c on c.name = w.coin_id"
+                        + " where w.member_id in (" + placeholders + ") order by w.member_id, w.id" + (writeBehind ? "" : " for update"),
+                deltas.keySet().toArray());
+        List<Object[]> walletUpdates = new ArrayList<>();
+        List<MemberWalletDelta> walletDeltas = new ArrayList<>();
+        for (Map<String, Object> wallet : wallets) {
+            Long memberId = ((Number) wallet.get("member_id")).longValue();
+            Map<String, BigDecimal[]> coins = deltas.get(memberId);
+            BigDecimal[] delta = coins == null ? null : coins.remove(wallet.get("unit"));
+            if (delta == null) {
+                continue;
+            }
+            // 延迟写入时查询不加锁，读到的冻结余额不含尚未写入的变动，也可能被其他服务同时修改，
+            // 这里通过的成交在 WalletLedgerService 写入时仍可能因冻结余额不足失败，由其标记失败后重试并告警
+            BigDecimal frozen = (BigDecimal) wallet.get("frozen_balance");
+            if (frozen.compareTo(delta[1]) < 0) {
+                throw new IllegalStateException("frozen balance not enough,wallet=" + wallet.get("id") + ",amount=" + delta[1]);
+            }
+            Long walletId = ((Number) wallet.get("id")).longValue();
+            walletUpdates.add(new Object[]{delta[0], delta[1], walletId, delta[1]});
+            MemberWalletDelta walletDelta = new MemberWalletDelta();
+            walletDelta.setWalletId(walletId);
+            walletDelta.setMemberId(memberId);
+            walletDelta.setCoinId((String) wallet.get("coin_id"));
+            walletDelta.setBalance(delta[0]);
+            walletDelta.setFrozenBalance(delta[1]);
+            walletDelta.setCreateTime(new Date(time));
+            walletDeltas.add(walletDelta);
+        }
+        for (Map.Entry<Long, Map<String, BigDecimal[]>> entry : deltas.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                throw new IllegalStateException("wallet not found,memberId=" + entry.getKey() + ",coins=" + entry.getValue().keySet());
+            }
+        }
+        if (writeBehind) {
+            walletLedgerService.record(walletDeltas);
+        } else {
+            int[] updated = jdbcTemplate.batchUpdate(
+                    "update member_wallet set balance = balance + ?, frozen_balance = frozen_balance - ? where id = ? and frozen_balance >= ?",
+                    walletUpdates);
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] == 0) {
+                    throw new IllegalStateException("update wallet failed,wallet=" + walletUpdates.get(i)[2]);
+                }
+            }
+        }
+
+        //资金记录
+        List<Object[]> transactions = new ArrayList<>();
+        Timestamp createTime = new Timestamp(time);
+        for (SettlementSide side : sides) {
+            transactions.add(new Object[]{side.order.getMemberId(), side.incomeAmount, createTime, TransactionType.EXCHANGE.ordinal(),
+                    side.incomeSymbol, "", side.fee, 0, side.fee.toString(), "0"});
+            transactions.add(new Object[]{side.order.getMemberId(), side.outcomeAmount.negate(), createTime, TransactionType.EXCHANGE.ordinal(),
+                    side.outcomeSymbol, "", BigDecimal.ZERO, 0, "0", "0"});
+        }
+        jdbcTemplate.batchUpdate(
+                "insert into member_transaction (member_id, amount, create_time, type, symbol, address, fee, flag, real_fee, discount_fee) values (?,?,?,?,?,?,?,?,?,?)",
+                transactions);
+
+        //成交明细及手续费聚合，mongodb 不参与事务，放在钱包更新之后写入
+        Map<Long, Member> members = new HashMap<>();
+        List<ExchangeOrderDetail> details = new ArrayList<>();
+        List<OrderDetailAggregation> aggregations = new ArrayList<>();
+        for (SettlementSide side : sides) {
+            ExchangeOrder order = side.order;
+            ExchangeOrderDetail orderDetail = new ExchangeOrderDetail();
+            orderDetail.setOrderId(order.getOrderId());
+            orderDetail.setTime(time);
+            orderDetail.setPrice(side.trade.getPrice());
+            orderDetail.setAmount(side.trade.getAmount());
+            orderDetail.setTurnover(side.turnover);
+            orderDetail.setFee(side.fee);
+            details.add(orderDetail);
+
+            OrderDetailAggregation aggregation = new OrderDetailAggregation();
+            aggregation.setType(OrderTypeEnum.EXCHANGE);
+            aggregation.setAmount(order.getAmount().doubleValue());
+            aggregation.setFee(side.fee.doubleValue());
+            aggregation.setTime(time);
+            aggregation.setDirection(order.getDirection());
+            aggregation.setOrderId(order.getOrderId());
+            aggregation.setUnit(order.getDirection() == ExchangeOrderDirection.BUY ? order.getBaseSymbol() : order.getCoinSymbol());
+            Member member = members.computeIfAbsent(order.getMemberId(), memberService::findOne);
+            if (member != null) {
+                aggregation.setMemberId(member.getId());
+                aggregation.setUsername(member.getUsername());
+                aggregation.setRealName(member.getRealName());
+            }
+            aggregations.add(aggregation);
+        }
+        exchangeOrderDetailRepository.insert(details);
+        mongoBulkWriter.insert(aggregations);
+
+        // 只对基础币手续费进行返佣
+        List<PromotionRewardEvent> rewardEvents = new ArrayList<>();
+        for (SettlementSide side : sides) {
+            Member member = members.get(side.order.getMemberId());
+            if (side.order.getDirection() != ExchangeOrderDirection.SELL || member == null) {
+                continue;
+            }
+            if (promotionRewardService.isEnabled()) {
+                if (side.fee.compareTo(BigDecimal.ZERO) > 0) {
+                    rewardEvents.add(rewardEvent(member.getId(), side.incomeSymbol, side.fee, secondReferrerAward, time));
+                }
+                continue;
+            }
+            try {
+                promoteReward(side.fee, member, side.incomeSymbol, secondReferrerAward);
+            } catch (Exception e) {
+                log.error("发放币币交易推广手续费佣金出错", e);
+            }
+        }
+        promotionRewardService.record(rewardEvents);
+        // 订单不存在的成交未结算，不返回
+        return MessageResult.getSuccessInstance("process success", settled);
+    }
+
+    /**
+     * 去掉已结算过的成交，一笔成交由买卖双方订单唯一确定
+     *
+     * @param trades
+     * @return 未结算的成交
+     */
+    private List<ExchangeTrade> filterSettled(List<ExchangeTrade> trades) {
+        Set<String> buyOrderIds = new HashSet<>();
+        for (ExchangeTrade trade : trades) {
+            if (trade != null && trade.getBuyOrderId() != null) {
+                buyOrderIds.add(trade.getBuyOrderId());
+            }
+        }
+        Set<String> keys = new HashSet<>();
+        if (!buyOrderIds.isEmpty()) {
+            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                    "select buy_order_id, sell_order_id from exchange_trade_settlement where buy_order_id in ("
+                            + StringUtils.repeat("?", ",", buyOrderIds.size()) + ")",
+                    buyOrderIds.toArray());
+            for (Map<String, Object> row : rows) {
+                keys.add(row.get("buy_order_id") + "/" + row.get("sell_order_id"));
+            }
+        }
+        List<ExchangeTrade> result = new ArrayList<>(trades.size());
+        for (ExchangeTrade trade : trades) {
+            // 同一条消息中重复的成交也只保留一次
+            if (trade == null || keys.add(trade.getBuyOrderId() + "/" + trade.getSellOrderId())) {
+                result.add(trade);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 记录已结算的成交，须在结算事务中执行
+     *
+     * @param trades
+     * @param time
+     */
+    private void markSettled(List<ExchangeTrade> trades, Date time) {
+        List<Object[]> rows = new ArrayList<>(trades.size());
+        for (ExchangeTrade trade : trades) {
+            rows.add(new Object[]{trade.getBuyOrderId(), trade.getSellOrderId(), trade.getSymbol(), trade.getSequence(),
+                    new Timestamp(time.getTime())});
+        }
+        jdbcTemplate.batchUpdate(
+                "insert into exchange_trade_settlement (buy_order_id, sell_order_id, symbol, sequence, create_time) values (?,?,?,?,?)",
+                rows);
+    }
+
+    /**
+     * 一笔成交中一方订单的结算金额，计算方式与 processOrder 相同
+     */
+    private static class SettlementSide {
+        final ExchangeOrder order;
+        final ExchangeTrade trade;
+        final BigDecimal turnover;
+        final BigDecimal fee;
+        //买入的时候获得交易币，卖出的时候获得基币
+        final String incomeSymbol;
+        final BigDecimal incomeAmount;
+        //买入的时候付出成交额，卖出的时候付出成交量
+        final String outcomeSymbol;
+        final BigDecimal outcomeAmount;
+
+        SettlementSide(ExchangeOrder order, ExchangeTrade trade, ExchangeCoin coin) {
+            this.order = order;
+            this.trade = trade;
+            boolean buy = order.getDirection() == ExchangeOrderDirection.BUY;
+            turnover = buy ? trade.getBuyTurnover() : trade.getSellTurnover();
+            // ID为1的机器人、ID为10001的超级管理员不收取手续费
+            if (order.getMemberId() == 1 || order.getMemberId() == 10001) {
+                fee = BigDecimal.ZERO;
+            } else {
+                fee = (buy ? trade.getAmount() : turnover).multiply(coin.getFee());
+            }
+            incomeSymbol = buy ? order.getCoinSymbol() : order.getBaseSymbol();
+            incomeAmount = (buy ? trade.getAmount() : turnover).subtract(fee);
+            outcomeSymbol = buy ? order.getBaseSymbol() : order.getCoinSymbol();
+            outcomeAmount = buy ? turnover : trade.getAmount();
+        }
+    }
+
     /**
      * 对发生交易的委托处理相应的钱包
      *
@@ -367,7 +679,7 @@ public class ExchangeOrderService extends BaseService {
                 aggregation.setUsername(member.getUsername());
                 aggregation.setRealName(member.getRealName());
             }
-            orderDetailAggregationRepository.save(aggregation);
+            mongoBulkWriter.insert(aggregation);
 
             //增加回报的可用的币,处理账户增加的币种，买入的时候获得交易币，卖出的时候获得基币
             if (order.getDirection() == ExchangeOrderDirection.BUY) {
@@ -415,7 +727,12 @@ public class ExchangeOrderService extends BaseService {
             transactionService.save(transaction2);
             try {
             	// 只对基础币手续费进行返佣
-            	if (order.getDirection() == ExchangeOrderDirection.SELL) {
+            	if (order.getDirection() == ExchangeOrderDirection.SELL && promotionRewardService.isEnabled()) {
+            		if (fee.compareTo(BigDecimal.ZERO) > 0) {
+            			promotionRewardService.record(Collections.singletonList(
+            					rewardEvent(order.getMemberId(), incomeSymbol, fee, secondReferrerAward, orderDetail.getTime())));
+            		}
+            	} else if (order.getDirection() == ExchangeOrderDirection.SELL) {
             		promoteReward(fee, member, incomeSymbol, secondReferrerAward);
             	}
             } catch (Exception e) {
@@ -454,6 +771,19 @@ public class ExchangeOrderService extends BaseService {
 //        }
 //    }
 
+    /**
+     * 待发放的推广佣金，由 PromotionRewardService 合并发放
+     */
+    private PromotionRewardEvent rewardEvent(Long memberId, String symbol, BigDecimal fee, boolean secondReferrerAward, long time) {
+        PromotionRewardEvent event = new PromotionRewardEvent();
+        event.setMemberId(memberId);
+        event.setSymbol(symbol);
+        event.setFee(fee);
+        event.setSecondReferrerAward(secondReferrerAward);
+        event.setCreateTime(new Date(time));
+        return event;
+    }
+
     /**
      * 交易手续费返佣金
      *
@@ -501,7 +831,7 @@ public class ExchangeOrderService extends BaseService {
                     BigDecimal reward1 = BigDecimalUtils.mulRound(fee, BigDecimalUtils.getRate(jsonObject.getBigDecimal("two")), 8);
                     if (reward1.compareTo(BigDecimal.ZERO) > 0) {
                         //memberWallet1.setBalance(BigDecimalUtils.add(memberWallet1.getBalance(), reward));
-                        memberWalletService.increaseBalance(memberWallet1.getId(), reward);
+                        memberWalletService.increaseBalance(memberWallet1.getId(), reward1);
                         MemberTransaction memberTransaction = new MemberTransaction();
                         memberTransaction.setAmount(reward1);
                         memberTransaction.setFee(BigDecimal.ZERO);
@@ -596,6 +926,29 @@ public class ExchangeOrderService extends BaseService {
      * @param turnover
      */
     public void orderRefund(ExchangeOrder order, BigDecimal tradedAmount, BigDecimal turnover) {
+        String coinSymbol = refundSymbol(order);
+        MemberWallet wallet = memberWalletService.findByCoinUnitAndMemberId(coinSymbol, order.getMemberId());
+
+        //减少付出的冻结的币
+
+        BigDecimal refundAmount = refundAmount(order, tradedAmount, turnover);
+        log.info("===cancel==退币：{},orderId={}", refundAmount, order.getOrderId());
+        if (refundAmount.compareTo(BigDecimal.ZERO) > 0) {
+            memberWalletService.thawBalance(wallet, refundAmount);
+        }
+    }
+
+    /**
+     * 下单时冻结的币种，买入冻结基币，卖出冻结交易币
+     */
+    private String refundSymbol(ExchangeOrder order) {
+        return order.getDirection() == ExchangeOrderDirection.BUY ? order.getBaseSymbol() : order.getCoinSymbol();
+    }
+
+    /**
+     * 订单结束时应退回的冻结
+     */
+    private BigDecimal refundAmount(ExchangeOrder order, BigDecimal tradedAmount, BigDecimal turnover) {
         //下单时候冻结的币，实际成交应扣的币
         BigDecimal frozenBalance, dealBalance;
         if (order.getDirection() == ExchangeOrderDirection.BUY) {
@@ -609,17 +962,7 @@ public class ExchangeOrderService extends BaseService {
             frozenBalance = order.getAmount();
             dealBalance = tradedAmount;
         }
-        String coinSymbol = order.getDirection() == ExchangeOrderDirection.BUY ? order.getBaseSymbol() : order.getCoinSymbol();
-        MemberWallet wallet = memberWalletService.findByCoinUnitAndMemberId(coinSymbol, order.getMemberId());
-
-        //减少付出的冻结的币
-
-        BigDecimal refundAmount = frozenBalance.subtract(dealBalance);
-        System.out.println("退币：" + refundAmount);
-        log.info("===cancel==退币：" + refundAmount);
-        if (refundAmount.compareTo(BigDecimal.ZERO) > 0) {
-            memberWalletService.thawBalance(wallet, refundAmount);
-        }
+        return frozenBalance.subtract(dealBalance);
     }
 
     /**
@@ -646,6 +989,113 @@ public class ExchangeOrderService extends BaseService {
         return MessageResult.success();
     }
 
+    /**
+     * 批量处理成交完成和已取消的订单
+     *
+     * 订单状态按批更新，只更新仍在交易中的订单，重复的消息不会重复退款；
+     * 应退回的冻结按钱包合并，按会员ID顺序一次锁定钱包后批量解冻，解冻失败只记录日志，与 orderRefund 相同
+     *
+     * @param completed 成交完成的订单，成交量、成交额取撮合引擎的数据
+     * @param canceled  已取消的订单
+     * @return 实际结束的订单数
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int finishOrders(List<ExchangeOrder> completed, List<ExchangeOrder> canceled) {
+        Set<String> orderIds = new HashSet<>();
+        for (ExchangeOrder order : completed) {
+            orderIds.add(order.getOrderId());
+        }
+        for (ExchangeOrder order : canceled) {
+            orderIds.add(order.getOrderId());
+        }
+        if (orderIds.isEmpty()) {
+            return 0;
+        }
+        Map<String, ExchangeOrder> orders = new HashMap<>();
+        for (ExchangeOrder order : exchangeOrderRepository.findAll(orderIds)) {
+            orders.put(order.getOrderId(), order);
+        }
+        long time = Calendar.getInstance().getTimeInMillis();
+        //会员ID -> 币种 -> 退回的冻结
+        TreeMap<Long, Map<String, BigDecimal>> refunds = new TreeMap<>();
+        int finished = finishOrders(completed, orders, refunds,
+                "update exchange_order set status = ?, traded_amount = ?, turnover = ?, completed_time = ? where order_id = ? and status = ?",
+                ExchangeOrderStatus.COMPLETED, time);
+        finished += finishOrders(canceled, orders, refunds,
+                "update exchange_order set status = ?, traded_amount = ?, turnover = ?, canceled_time = ? where order_id = ? and status = ?",
+                ExchangeOrderStatus.CANCELED, time);
+        if (refunds.isEmpty()) {
+            return finished;
+        }
+
+        // 钱包的 coin_id 是币种名称，按币种单位匹配；按会员ID顺序锁定，与成交结算一致，防止死锁
+        List<Map<String, Object>> wallets = jdbcTemplate.queryForList(
+                "select w.id, w.member_id, c.unit from member_wallet w join coin c on c.name = w.coin_id"
+                        + " where w.member_id in (" + StringUtils.repeat("?", ",", refunds.size()) + ") order by w.member_id, w.id for update",
+                refunds.keySet().toArray());
+        List<Object[]> thaws = new ArrayList<>();
+        for (Map<String, Object> wallet : wallets) {
+            Map<String, BigDecimal> coins = refunds.get(((Number) wallet.get("member_id")).longValue());
+            BigDecimal amount = coins == null ? null : coins.remove(wallet.get("unit"));
+            if (amount != null) {
+                thaws.add(new Object[]{amount, amount, wallet.get("id"), amount});
+            }
+        }
+        for (Map.Entry<Long, Map<String, BigDecimal>> entry : refunds.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                log.error("refund wallet not found,memberId={},refunds={}", entry.getKey(), entry.getValue());
+            }
+        }
+        int[] updated = jdbcTemplate.batchUpdate(
+                "update member_wallet set balance = balance + ?, frozen_balance = frozen_balance - ? where id = ? and frozen_balance >= ?",
+                thaws);
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                log.error("====order cancel=====订单取消异常,wallet={},amount={}", thaws.get(i)[2], thaws.get(i)[0]);
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * 批量更新一种结束状态的订单，并累计应退回的冻结
+     */
+    private int finishOrders(List<ExchangeOrder> finishing, Map<String, ExchangeOrder> orders,
+                             TreeMap<Long, Map<String, BigDecimal>> refunds, String sql, ExchangeOrderStatus status, long time) {
+        List<ExchangeOrder> candidates = new ArrayList<>(finishing.size());
+        List<Object[]> rows = new ArrayList<>(finishing.size());
+        for (ExchangeOrder finish : finishing) {
+            ExchangeOrder order = orders.get(finish.getOrderId());
+            if (order == null || order.getStatus() != ExchangeOrderStatus.TRADING) {
+                log.error("invalid order({}),not trading status", finish.getOrderId());
+                continue;
+            }
+            candidates.add(finish);
+            rows.add(new Object[]{status.ordinal(), finish.getTradedAmount(), finish.getTurnover(), time,
+                    finish.getOrderId(), ExchangeOrderStatus.TRADING.ordinal()});
+        }
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        int[] updated = jdbcTemplate.batchUpdate(sql, rows);
+        int finished = 0;
+        for (int i = 0; i < updated.length; i++) {
+            // 同一批中重复的订单只有第一次更新成功
+            if (updated[i] == 0) {
+                continue;
+            }
+            finished++;
+            ExchangeOrder finish = candidates.get(i);
+            ExchangeOrder order = orders.get(finish.getOrderId());
+            BigDecimal refundAmount = refundAmount(order, finish.getTradedAmount(), finish.getTurnover());
+            if (refundAmount.compareTo(BigDecimal.ZERO) > 0) {
+                refunds.computeIfAbsent(order.getMemberId(), key -> new HashMap<>())
+                        .merge(refundSymbol(order), refundAmount, BigDecimal::add);
+            }
+        }
+        return finished;
+    }
+
 
     /**
      * 获取某交易对当日已取消次数
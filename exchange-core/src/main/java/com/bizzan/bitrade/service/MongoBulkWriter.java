@@ -0,0 +1,187 @@
+package com.bizzan.bitrade.service;
+
+import com.mongodb.BulkWriteResult;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * mongodb 批量写入
+ *
+ * 成交记录、K线、手续费聚合等只追加的文档按集合缓冲，单个集合达到 batch-size 或每隔 flush-interval 毫秒
+ * 用无序 BulkOperations 一次写入；缓冲的文档总数超过 max-pending 时写入方阻塞等待，不丢弃文档。
+ * 未开启时直接逐条写入；退出前写完缓冲的文档
+ */
+@Slf4j
+@Service
+public class MongoBulkWriter {
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${exchange.mongo.bulk.enabled:false}")
+    private boolean enabled;
+
+    //单个集合缓冲到该数量时立即写入
+    @Value("${exchange.mongo.bulk.batch-size:1000}")
+    private int batchSize;
+
+    //定时写入间隔，毫秒
+    @Value("${exchange.mongo.bulk.flush-interval:100}")
+    private long flushInterval;
+
+    //缓冲的文档总数上限
+    @Value("${exchange.mongo.bulk.max-pending:100000}")
+    private int maxPending;
+
+    //集合名 -> 待写入的文档
+    private final Map<String, List<Object>> buffers = new ConcurrentHashMap<>();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private Semaphore pending;
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        pending = new Semaphore(maxPending);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "mongo-bulk-writer"));
+        executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 写入带 @Document 注解的文档
+     *
+     * @param document
+     */
+    public void insert(Object document) {
+        insert(document, mongoTemplate.getCollectionName(document.getClass()));
+    }
+
+    public void insert(List<?> documents) {
+        for (Object document : documents) {
+            insert(document);
+        }
+    }
+
+    /**
+     * 写入文档到指定集合
+     *
+     * @param document
+     * @param collection
+     */
+    public void insert(Object document, String collection) {
+        if (executor == null || executor.isShutdown()) {
+            mongoTemplate.insert(document, collection);
+            return;
+        }
+        pending.acquireUninterruptibly();
+        List<Object> batch = null;
+        List<Object> buffer = buffers.computeIfAbsent(collection, key -> new ArrayList<>());
+        synchronized (buffer) {
+            buffer.add(document);
+            if (buffer.size() >= batchSize) {
+                batch = new ArrayList<>(buffer);
+                buffer.clear();
+            }
+        }
+        if (batch != null) {
+            List<Object> documents = batch;
+            try {
+                executor.execute(() -> write(collection, documents));
+            } catch (RejectedExecutionException e) {
+                // 正在退出，由当前线程写入
+                write(collection, documents);
+            }
+        }
+    }
+
+    /**
+     * 写入全部缓冲的文档
+     */
+    public void flush() {
+        for (Map.Entry<String, List<Object>> entry : buffers.entrySet()) {
+            List<Object> buffer = entry.getValue();
+            List<Object> batch;
+            synchronized (buffer) {
+                if (buffer.isEmpty()) {
+                    continue;
+                }
+                batch = new ArrayList<>(buffer);
+                buffer.clear();
+            }
+            write(entry.getKey(), batch);
+        }
+    }
+
+    private void write(String collection, List<Object> documents) {
+        try {
+            BulkWriteResult result = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection)
+                    .insert(documents).execute();
+            inserted.addAndGet(result.getInsertedCount());
+        } catch (BulkOperationException e) {
+            // 无序写入，失败的文档不影响其他文档
+            inserted.addAndGet(e.getResult().getInsertedCount());
+            failed.addAndGet(e.getErrors().size());
+            log.error("bulk insert failed,collection={},size={},errors={},first={}", collection, documents.size(),
+                    e.getErrors().size(), e.getErrors().get(0));
+        } catch (Exception e) {
+            failed.addAndGet(documents.size());
+            log.error("bulk insert failed,collection=" + collection + ",size=" + documents.size(), e);
+        } finally {
+            pending.release(documents.size());
+        }
+    }
+
+    /**
+     * @return 已写入的文档数
+     */
+    public long getInserted() {
+        return inserted.get();
+    }
+
+    /**
+     * @return 写入失败的文档数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return 缓冲中及正在写入的文档数
+     */
+    public int getPending() {
+        return pending == null ? 0 : maxPending - pending.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+        flush();
+        log.info("mongo bulk writer stopped,inserted={},failed={}", inserted.get(), failed.get());
+    }
+}
@@ -0,0 +1,179 @@
+package com.bizzan.bitrade.service;
+
+import com.alibaba.fastjson.JSONObject;
+import com.bizzan.bitrade.constant.PromotionRewardType;
+import com.bizzan.bitrade.constant.RewardRecordType;
+import com.bizzan.bitrade.constant.TransactionType;
+import com.bizzan.bitrade.entity.Member;
+import com.bizzan.bitrade.entity.MemberTransaction;
+import com.bizzan.bitrade.entity.MemberWallet;
+import com.bizzan.bitrade.entity.PromotionRewardEvent;
+import com.bizzan.bitrade.entity.RewardPromotionSetting;
+import com.bizzan.bitrade.entity.RewardRecord;
+import com.bizzan.bitrade.util.BigDecimalUtils;
+import com.bizzan.bitrade.util.DateUtil;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 币币交易推广佣金的异步发放
+ *
+ * 成交结算只追加佣金事件（PromotionRewardEvent），不再逐笔查询推荐人、钱包并写入资金记录；
+ * 定时任务取一批事件，按推荐人、币种合并佣金，每个推荐人每个币种一次入账、一条资金记录和一条奖励记录，发放后删除事件。
+ * 佣金的计算与 ExchangeOrderService.promoteReward 相同，注册时间按成交时间判断
+ */
+@Slf4j
+@Service
+public class PromotionRewardService {
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private RewardPromotionSettingService rewardPromotionSettingService;
+    @Autowired
+    private MemberService memberService;
+    @Autowired
+    private MemberWalletService memberWalletService;
+    @Autowired
+    private MemberTransactionService transactionService;
+    @Autowired
+    private RewardRecordService rewardRecordService;
+
+    @Value("${exchange.reward.async:false}")
+    private boolean enabled;
+
+    //每次发放最多处理的事件数
+    @Value("${exchange.reward.accrue-batch:5000}")
+    private int accrueBatch;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getAccrueBatch() {
+        return accrueBatch;
+    }
+
+    /**
+     * 追加佣金事件，须在调用方的事务中执行
+     *
+     * @param events
+     */
+    public void record(List<PromotionRewardEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(events.size());
+        for (PromotionRewardEvent event : events) {
+            rows.add(new Object[]{event.getMemberId(), event.getSymbol(), event.getFee(), event.getSecondReferrerAward(),
+                    new Timestamp(event.getCreateTime().getTime())});
+        }
+        jdbcTemplate.batchUpdate(
+                "insert into promotion_reward_event (member_id, symbol, fee, second_referrer_award, create_time) values (?,?,?,?,?)",
+                rows);
+    }
+
+    /**
+     * 合并并发放一批佣金
+     *
+     * @return 本次处理的事件数，等于 accrueBatch 时说明还有剩余
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int accrue() {
+        // 多个实例同时发放时由行锁排队，已删除的事件不会被重复处理
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "select id, member_id, symbol, fee, second_referrer_award, create_time from promotion_reward_event order by id limit ? for update",
+                accrueBatch);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        RewardPromotionSetting setting = rewardPromotionSettingService.findByType(PromotionRewardType.EXCHANGE_TRANSACTION);
+        if (setting != null) {
+            JSONObject jsonObject = JSONObject.parseObject(setting.getInfo());
+            BigDecimal oneRate = BigDecimalUtils.getRate(jsonObject.getBigDecimal("one"));
+            BigDecimal twoRate = BigDecimalUtils.getRate(jsonObject.getBigDecimal("two"));
+            Map<Long, Member> members = new HashMap<>();
+            //推荐人ID -> 币种 -> 佣金
+            TreeMap<Long, Map<String, BigDecimal>> rewards = new TreeMap<>();
+            for (Map<String, Object> row : rows) {
+                Member member = members.computeIfAbsent(((Number) row.get("member_id")).longValue(), memberService::findOne);
+                Date time = (Date) row.get("create_time");
+                if (member == null || member.getInviterId() == null
+                        || DateUtil.diffDays(time, member.getRegistrationTime()) > setting.getEffectiveTime()) {
+                    continue;
+                }
+                Member member1 = members.computeIfAbsent(member.getInviterId(), memberService::findOne);
+                if (member1 == null) {
+                    continue;
+                }
+                String symbol = (String) row.get("symbol");
+                BigDecimal fee = (BigDecimal) row.get("fee");
+                addReward(rewards, member1.getId(), symbol, BigDecimalUtils.mulRound(fee, oneRate, 8));
+                // 控制推荐人推荐是否返佣 等于false是二级推荐人不返佣
+                if (!Boolean.TRUE.equals(row.get("second_referrer_award")) || member1.getInviterId() == null
+                        || DateUtil.diffDays(time, member1.getRegistrationTime()) > setting.getEffectiveTime()) {
+                    continue;
+                }
+                Member member2 = members.computeIfAbsent(member1.getInviterId(), memberService::findOne);
+                if (member2 != null) {
+                    addReward(rewards, member2.getId(), symbol, BigDecimalUtils.mulRound(fee, twoRate, 8));
+                }
+            }
+            for (Map.Entry<Long, Map<String, BigDecimal>> entry : rewards.entrySet()) {
+                for (Map.Entry<String, BigDecimal> reward : entry.getValue().entrySet()) {
+                    award(members.get(entry.getKey()), reward.getKey(), reward.getValue(), setting);
+                }
+            }
+        }
+        List<Object[]> ids = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            ids.add(new Object[]{row.get("id")});
+        }
+        jdbcTemplate.batchUpdate("delete from promotion_reward_event where id = ?", ids);
+        return rows.size();
+    }
+
+    private void addReward(TreeMap<Long, Map<String, BigDecimal>> rewards, Long memberId, String symbol, BigDecimal reward) {
+        if (reward.compareTo(BigDecimal.ZERO) > 0) {
+            rewards.computeIfAbsent(memberId, key -> new HashMap<>()).merge(symbol, reward, BigDecimal::add);
+        }
+    }
+
+    private void award(Member member, String symbol, BigDecimal reward, RewardPromotionSetting setting) {
+        MemberWallet memberWallet = memberWalletService.findByCoinUnitAndMemberId(symbol, member.getId());
+        if (memberWallet == null) {
+            log.error("promotion reward wallet not found,memberId={},symbol={},reward={}", member.getId(), symbol, reward);
+            return;
+        }
+        memberWalletService.increaseBalance(memberWallet.getId(), reward);
+        MemberTransaction memberTransaction = new MemberTransaction();
+        memberTransaction.setAmount(reward);
+        memberTransaction.setFee(BigDecimal.ZERO);
+        memberTransaction.setMemberId(member.getId());
+        memberTransaction.setSymbol(symbol);
+        memberTransaction.setType(TransactionType.PROMOTION_AWARD);
+        memberTransaction.setDiscountFee("0");
+        memberTransaction.setRealFee("0");
+        transactionService.save(memberTransaction);
+        RewardRecord rewardRecord = new RewardRecord();
+        rewardRecord.setAmount(reward);
+        rewardRecord.setCoin(memberWallet.getCoin());
+        rewardRecord.setMember(member);
+        rewardRecord.setRemark(setting.getType().getCnName());
+        rewardRecord.setType(RewardRecordType.PROMOTION);
+        rewardRecordService.save(rewardRecord);
+    }
+}
@@ -0,0 +1,159 @@
+package com.bizzan.bitrade.service;
+
+import com.bizzan.bitrade.entity.MemberWalletDelta;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 钱包资金变动的延迟写入
+ *
+ * 成交结算不再逐笔锁定并更新热点钱包行，而是把合并后的变动追加到 member_wallet_delta，与资金记录同一事务提交；
+ * 定时任务按钱包合并未写入的变动，每个钱包一次批量更新后删除对应记录。
+ * 未写入前钱包的可用余额偏少、冻结余额偏多，不会出现超额使用；进程重启后未写入的变动留在表中继续处理。
+ * 冻结余额不足或钱包不存在而无法写入的变动标记为失败（status=1），按指数退避重试，不阻塞其他钱包，
+ * 失败状态保存在表中，重启后沿用；失败的钱包由 WalletLedgerJob 定时告警
+ */
+@Slf4j
+@Service
+public class WalletLedgerService {
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${exchange.wallet.write-behind:false}")
+    private boolean enabled;
+
+    //每次写入最多处理的变动记录数
+    @Value("${exchange.wallet.flush-batch:5000}")
+    private int flushBatch;
+
+    //写入失败后第一次重试的间隔，毫秒，之后每次翻倍
+    @Value("${exchange.wallet.retry-interval:1000}")
+    private long retryInterval;
+
+    //写入失败后重试的最长间隔，毫秒
+    @Value("${exchange.wallet.retry-max-interval:300000}")
+    private long retryMaxInterval;
+
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_FAILED = 1;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加钱包变动，须在调用方的事务中执行
+     *
+     * @param deltas
+     */
+    public void record(List<MemberWalletDelta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(deltas.size());
+        for (MemberWalletDelta delta : deltas) {
+            rows.add(new Object[]{delta.getWalletId(), delta.getMemberId(), delta.getCoinId(), delta.getBalance(),
+                    delta.getFrozenBalance(), new Timestamp(delta.getCreateTime().getTime())});
+        }
+        jdbcTemplate.batchUpdate(
+                "insert into member_wallet_delta (wallet_id, member_id, coin_id, balance, frozen_balance, create_time) values (?,?,?,?,?,?)",
+                rows);
+    }
+
+    /**
+     * 合并并写入一批未写入的变动
+     *
+     * @return 本次处理的变动记录数，等于 flushBatch 时说明还有剩余
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int flush() {
+        long now = System.currentTimeMillis();
+        // 待写入的变动和已到重试时间的失败变动；多个实例同时写入时由行锁排队，已删除的记录不会被重复处理
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "select id, wallet_id, balance, frozen_balance, retry_count from member_wallet_delta"
+                        + " where status = ? or (status = ? and next_retry_time <= ?) order by id limit ? for update",
+                STATUS_PENDING, STATUS_FAILED, new Timestamp(now), flushBatch);
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        //钱包ID -> [增加可用, 减少冻结]，按钱包ID顺序更新
+        TreeMap<Long, BigDecimal[]> merged = new TreeMap<>();
+        TreeMap<Long, List<Object[]>> ids = new TreeMap<>();
+        //钱包ID -> 已失败次数
+        Map<Long, Integer> retries = new TreeMap<>();
+        for (Map<String, Object> row : rows) {
+            Long walletId = ((Number) row.get("wallet_id")).longValue();
+            BigDecimal[] delta = merged.computeIfAbsent(walletId, key -> new BigDecimal[]{BigDecimal.ZERO, BigDecimal.ZERO});
+            delta[0] = delta[0].add((BigDecimal) row.get("balance"));
+            delta[1] = delta[1].add((BigDecimal) row.get("frozen_balance"));
+            ids.computeIfAbsent(walletId, key -> new ArrayList<>()).add(new Object[]{row.get("id")});
+            Number retryCount = (Number) row.get("retry_count");
+            retries.merge(walletId, retryCount == null ? 0 : retryCount.intValue(), Math::max);
+        }
+        List<Long> walletIds = new ArrayList<>(merged.keySet());
+        List<Object[]> updates = new ArrayList<>(walletIds.size());
+        for (Long walletId : walletIds) {
+            BigDecimal[] delta = merged.get(walletId);
+            updates.add(new Object[]{delta[0], delta[1], walletId, delta[1]});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(
+                "update member_wallet set balance = balance + ?, frozen_balance = frozen_balance - ? where id = ? and frozen_balance >= ?",
+                updates);
+        List<Object[]> applied = new ArrayList<>(rows.size());
+        List<Object[]> failed = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            Long walletId = walletIds.get(i);
+            if (updated[i] == 0) {
+                int retry = retries.get(walletId) + 1;
+                Timestamp nextRetryTime = new Timestamp(now + backoff(retry));
+                log.error("flush wallet delta failed,wallet={},balance={},frozen={},retry={},nextRetryTime={}",
+                        walletId, merged.get(walletId)[0], merged.get(walletId)[1], retry, nextRetryTime);
+                for (Object[] id : ids.get(walletId)) {
+                    failed.add(new Object[]{STATUS_FAILED, retry, nextRetryTime, id[0]});
+                }
+                continue;
+            }
+            applied.addAll(ids.get(walletId));
+        }
+        jdbcTemplate.batchUpdate("delete from member_wallet_delta where id = ?", applied);
+        if (!failed.isEmpty()) {
+            jdbcTemplate.batchUpdate("update member_wallet_delta set status = ?, retry_count = ?, next_retry_time = ? where id = ?", failed);
+        }
+        return rows.size();
+    }
+
+    /**
+     * 第 retry 次失败后的重试间隔
+     */
+    private long backoff(int retry) {
+        long interval = retryInterval << Math.min(retry - 1, 30);
+        return interval <= 0 ? retryMaxInterval : Math.min(interval, retryMaxInterval);
+    }
+
+    /**
+     * 写入失败、等待重试的变动汇总，用于告警
+     *
+     * @return wallets 钱包数，deltas 变动记录数，oldest 最早的变动时间；没有失败时 wallets 为0
+     */
+    public Map<String, Object> failedSummary() {
+        return jdbcTemplate.queryForMap(
+                "select count(distinct wallet_id) wallets, count(*) deltas, min(create_time) oldest from member_wallet_delta where status = ?",
+                STATUS_FAILED);
+    }
+
+    public int getFlushBatch() {
+        return flushBatch;
+    }
+}
@@ -0,0 +1,146 @@
+package com.bizzan.bitrade;
+
+import org.junit.Test;
+
+import com.bizzan.bitrade.codec.ExchangeWireCodec;
+import com.bizzan.bitrade.entity.*;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ExchangeWireCodecTest {
+
+    @Test
+    public void testOrder() {
+        ExchangeOrder order = new ExchangeOrder();
+        order.setOrderId("E1");
+        order.setMemberId(10L);
+        order.setSymbol("BTC/USDT");
+        order.setDirection(ExchangeOrderDirection.SELL);
+        order.setType(ExchangeOrderType.LIMIT_PRICE);
+        order.setPrice(new BigDecimal("12345.67890000"));
+        order.setAmount(new BigDecimal("0.00010000"));
+        order.setTradedAmount(BigDecimal.ZERO);
+        order.setSequence(7L);
+
+        byte[] data = ExchangeWireCodec.encodeOrder(order);
+        assertTrue(ExchangeWireCodec.isBinary(data));
+        ExchangeOrder decoded = ExchangeWireCodec.decodeOrder(data);
+        assertEquals("E1", decoded.getOrderId());
+        assertEquals(Long.valueOf(10), decoded.getMemberId());
+        assertEquals(ExchangeOrderDirection.SELL, decoded.getDirection());
+        //精度原样保留
+        assertEquals(new BigDecimal("12345.67890000"), decoded.getPrice());
+        assertEquals(new BigDecimal("0.00010000"), decoded.getAmount());
+        assertNull(decoded.getCanceledTime());
+        assertEquals(Long.valueOf(7), decoded.getSequence());
+
+        List<ExchangeOrder> orders = ExchangeWireCodec.decodeOrders(ExchangeWireCodec.encodeOrders(Arrays.asList(order, decoded)));
+        assertEquals(2, orders.size());
+        assertEquals("E1", orders.get(1).getOrderId());
+        //JSON 消息不带 MAGIC，交由 fastjson 解析
+        assertFalse(ExchangeWireCodec.isBinary("{\"orderId\":\"E1\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testTradesAndPlate() {
+        ExchangeTrade trade = new ExchangeTrade();
+        trade.setSymbol("BTC/USDT");
+        trade.setPrice(new BigDecimal("100.5"));
+        trade.setAmount(new BigDecimal("2"));
+        trade.setBuyTurnover(new BigDecimal("201.0"));
+        trade.setSellTurnover(new BigDecimal("201.0"));
+        trade.setDirection(ExchangeOrderDirection.BUY);
+        trade.setBuyOrderId("B1");
+        trade.setSellOrderId("S1");
+        trade.setTime(1000L);
+        trade.setSequence(3L);
+        List<ExchangeTrade> trades = ExchangeWireCodec.decodeTrades(ExchangeWireCodec.encodeTrades(Arrays.asList(trade)));
+        assertEquals(1, trades.size());
+        assertEquals(new BigDecimal("201.0"), trades.get(0).getBuyTurnover());
+        assertEquals("S1", trades.get(0).getSellOrderId());
+        assertEquals(Long.valueOf(3), trades.get(0).getSequence());
+
+        TradePlateItem item = new TradePlateItem();
+        item.setPrice(new BigDecimal("99"));
+        item.setAmount(BigDecimal.ZERO);
+        TradePlateDelta delta = new TradePlateDelta();
+        delta.setSymbol("BTC/USDT");
+        delta.setSequence(42);
+        delta.setBids(Arrays.asList(item));
+        delta.setTime(1000L);
+        TradePlateDelta decoded = ExchangeWireCodec.decodePlateDelta(ExchangeWireCodec.encodePlateDelta(delta));
+        assertEquals(42, decoded.getSequence());
+        assertFalse(decoded.isSnapshot());
+        assertEquals(1, decoded.getBids().size());
+        assertEquals(0, BigDecimal.ZERO.compareTo(decoded.getBids().get(0).getAmount()));
+        assertNull(decoded.getAsks());
+    }
+
+    @Test
+    public void testPlateSnapshot() {
+        TradePlateDelta delta = new TradePlateDelta();
+        delta.setSymbol("BTC/USDT");
+        delta.setSequence(43);
+        delta.setSnapshot(true);
+        delta.setBids(Arrays.asList(plateItem("99.5", "1.25"), plateItem("99", "3")));
+        delta.setAsks(Arrays.asList(plateItem("100", "0.5")));
+        delta.setTime(2000L);
+        TradePlateDelta decoded = ExchangeWireCodec.decodePlateDelta(ExchangeWireCodec.encodePlateDelta(delta));
+        assertTrue(decoded.isSnapshot());
+        assertEquals("BTC/USDT", decoded.getSymbol());
+        assertEquals(43, decoded.getSequence());
+        assertEquals(Long.valueOf(2000), decoded.getTime());
+        //档位顺序与精度原样保留
+        assertEquals(2, decoded.getBids().size());
+        assertEquals(new BigDecimal("99.5"), decoded.getBids().get(0).getPrice());
+        assertEquals(new BigDecimal("1.25"), decoded.getBids().get(0).getAmount());
+        assertEquals(new BigDecimal("99"), decoded.getBids().get(1).getPrice());
+        assertEquals(1, decoded.getAsks().size());
+        assertEquals(new BigDecimal("100"), decoded.getAsks().get(0).getPrice());
+        assertEquals(new BigDecimal("0.5"), decoded.getAsks().get(0).getAmount());
+    }
+
+    @Test
+    public void testEmptyLists() {
+        assertTrue(ExchangeWireCodec.decodeTrades(ExchangeWireCodec.encodeTrades(Collections.<ExchangeTrade>emptyList())).isEmpty());
+        assertTrue(ExchangeWireCodec.decodeOrders(ExchangeWireCodec.encodeOrders(Collections.<ExchangeOrder>emptyList())).isEmpty());
+
+        //空盘口快照表示该方向已清空，需与未变化（null）区分开
+        TradePlateDelta delta = new TradePlateDelta();
+        delta.setSymbol("BTC/USDT");
+        delta.setSequence(44);
+        delta.setSnapshot(true);
+        delta.setBids(Collections.<TradePlateItem>emptyList());
+        delta.setAsks(Collections.<TradePlateItem>emptyList());
+        TradePlateDelta decoded = ExchangeWireCodec.decodePlateDelta(ExchangeWireCodec.encodePlateDelta(delta));
+        assertTrue(decoded.isSnapshot());
+        assertNotNull(decoded.getBids());
+        assertTrue(decoded.getBids().isEmpty());
+        assertNotNull(decoded.getAsks());
+        assertTrue(decoded.getAsks().isEmpty());
+        assertNull(decoded.getTime());
+    }
+
+    @Test
+    public void testTypeMismatch() {
+        try {
+            ExchangeWireCodec.decodeTrades(ExchangeWireCodec.encodeOrders(Arrays.<ExchangeOrder>asList()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            //消息类型不符时不按错误的结构解析
+        }
+    }
+
+    private TradePlateItem plateItem(String price, String amount) {
+        TradePlateItem item = new TradePlateItem();
+        item.setPrice(new BigDecimal(price));
+        item.setAmount(new BigDecimal(amount));
+        return item;
+    }
+}
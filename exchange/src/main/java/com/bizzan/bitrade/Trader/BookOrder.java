@@ -0,0 +1,96 @@
+package com.bizzan.bitrade.Trader;
+
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.entity.ExchangeOrderDirection;
+import com.bizzan.bitrade.entity.ExchangeOrderType;
+
+import java.math.BigDecimal;
+
+/**
+ * 撮合引擎内的委托单，价格与数量以 tick 表示
+ *
+ * 市价买单的 amount 是成交额（基币 tick），是否完成仍按 ExchangeOrder 的成交额判断
+ */
+public class BookOrder {
+    private final ExchangeOrder order;
+    //挂单价格，市价单为0
+    private final long price;
+    //委托数量
+    private final long amount;
+    //已成交数量
+    private long tradedAmount;
+    //所在队列及前后订单，由 OrderQueue 维护
+    OrderQueue queue;
+    BookOrder prev;
+    BookOrder next;
+
+    public BookOrder(ExchangeOrder order, long price, long amount, long tradedAmount) {
+        this.order = order;
+        this.price = price;
+        this.amount = amount;
+        this.tradedAmount = tradedAmount;
+    }
+
+    /**
+     * 记录一次成交，同时累计到 ExchangeOrder 上供完成、撤单消息使用
+     * @param ticks 成交数量
+     * @param amount 成交数量
+     * @param turnover 成交额
+     */
+    public void fill(long ticks, BigDecimal amount, BigDecimal turnover) {
+        this.tradedAmount += ticks;
+        order.setTradedAmount(order.getTradedAmount().add(amount));
+        order.setTurnover(order.getTurnover().add(turnover));
+    }
+
+    public long getRemaining() {
+        return amount - tradedAmount;
+    }
+
+    public boolean isCompleted() {
+        if (isMarketBuy()) {
+            return order.isCompleted();
+        }
+        return tradedAmount >= amount;
+    }
+
+    public boolean isMarketBuy() {
+        return order.getType() == ExchangeOrderType.MARKET_PRICE && order.getDirection() == ExchangeOrderDirection.BUY;
+    }
+
+    /**
+     * 队列中的下一个订单
+     * @return
+     */
+    public BookOrder next() {
+        return next;
+    }
+
+    public ExchangeOrder getOrder() {
+        return order;
+    }
+
+    public String getOrderId() {
+        return order.getOrderId();
+    }
+
+    public ExchangeOrderType getType() {
+        return order.getType();
+    }
+
+    public ExchangeOrderDirection getDirection() {
+        return order.getDirection();
+    }
+
+    public long getPrice() {
+        return price;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getTradedAmount() {
+        return tradedAmount;
+    }
+}
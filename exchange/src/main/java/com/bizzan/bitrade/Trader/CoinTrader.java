@@ -1,64 +1,84 @@
 package com.bizzan.bitrade.Trader;
 
-import com.alibaba.fastjson.JSON;
 import com.bizzan.bitrade.entity.*;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.support.SendResult;
-import org.springframework.util.concurrent.ListenableFuture;
-import org.springframework.util.concurrent.ListenableFutureCallback;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 
+/**
+ * 单个交易对的撮合器
+ *
+ * 交易器准备完成后只由 CoinTraderSequencer 的撮合线程访问，内部的订单队列与盘口不加锁。
+ * 订单进入撮合时按交易对精度把价格、数量换算为 long（见 FixedPoint），撮合中的比较与加减都在整数上完成
+ */
 public class CoinTrader {
     private Logger logger = LoggerFactory.getLogger(CoinTrader.class);
 
     // 当前交易对，如 BTC/USDT
     private String symbol;
 
-    // 用于发送成交、订单完成、盘口等消息到 Kafka
-    private KafkaTemplate<String,String> kafkaTemplate;
+    // 用于发送成交、订单完成、盘口等消息到 Kafka，均以交易对为key
+    private ExchangeEventPublisher publisher;
     //交易币种的精度
     private int coinScale = 4;
     //基币的精度
     private int baseCoinScale = 4;
+    //价格按基币精度换算
+    private FixedPoint priceScale = new FixedPoint(baseCoinScale);
+    //数量按交易币精度换算
+    private FixedPoint amountScale = new FixedPoint(coinScale);
 
-    //买入限价订单链表，价格从高到低排列
-    // 限价单使用TreeMap的自动排序特点
-    // MergerOrder将相同价格的订单合并，内部按时间排序
-    private TreeMap<BigDecimal,MergeOrder> buyLimitPriceQueue;
-    //卖出限价订单链表，价格从低到高排列
-    private TreeMap<BigDecimal,MergeOrder> sellLimitPriceQueue;
+    //买入限价订单，价格从高到低撮合
+    // PriceLevel将相同价格的订单合并，内部按时间排序
+    private PriceLadder buyLimitPriceQueue;
+    //卖出限价订单，价格从低到高撮合
+    private PriceLadder sellLimitPriceQueue;
 
 
     //买入市价订单链表，【按时间从小到大排序】
-    // 市价单直接以市场价格来成交，用户不需要指定自己的成交价格，参数直接是ExchangeOrder
-    private LinkedList<ExchangeOrder> buyMarketQueue;
+    // 市价单直接以市场价格来成交，用户不需要指定自己的成交价格
+    private OrderQueue buyMarketQueue;
     //卖出市价订单链表，按时间从小到大排序
-    private LinkedList<ExchangeOrder> sellMarketQueue;
+    private OrderQueue sellMarketQueue;
+
+    //在簿订单索引，撤单、查询直接定位到队列节点
+    private Map<String,BookOrder> orderIndex;
 
     // 买盘和卖盘的盘口信息（用于前端展示）
     // 卖盘盘口信息
     private TradePlate sellTradePlate;
     //买盘盘口信息
     private TradePlate buyTradePlate;
-    //是否暂停交易
-    private boolean tradingHalt = false;
-    private boolean ready = false;
+    //盘口消息序号，增量与快照共用
+    private long plateSequence = 0;
+    //上次推送后发生变化的价位
+    private TreeSet<BigDecimal> buyPlateChanges;
+    private TreeSet<BigDecimal> sellPlateChanges;
+    //成交、完成订单、撤单消息的序号，在产生结果时分配，随快照保存，重放日志时按同样顺序重新分配
+    private long tradeSequence = 0;
+    private long completedSequence = 0;
+    private long canceledSequence = 0;
+    //本批次内产生、尚未发送的成交记录与完成订单，flush 时合并发送
+    private List<ExchangeTrade> pendingTrades;
+    private List<ExchangeOrder> pendingCompletedOrders;
+    //是否暂停交易，监控接口会在其他线程读取
+    private volatile boolean tradingHalt = false;
+    private volatile boolean ready = false;
     // 发行类型（如抢购、分摊等）
     private ExchangeCoinPublishType publishType;
     // 清盘时间（用于分摊模式）
     private String clearTime;
-    
+
     private SimpleDateFormat dateTimeFormat;
-    
+
 
     public CoinTrader(String symbol){
         this.symbol = symbol;
@@ -70,17 +90,47 @@ public class CoinTrader {
      */
     public void initialize(){
         logger.info("init CoinTrader for symbol {}",symbol);
-        //买单队列价格降序排列
-        buyLimitPriceQueue = new TreeMap<>(Comparator.reverseOrder());
-        //卖单队列价格升序排列
-        this.sellLimitPriceQueue = new TreeMap<>(Comparator.naturalOrder());
-        this.buyMarketQueue = new LinkedList<>();
-        this.sellMarketQueue = new LinkedList<>();
+        this.buyLimitPriceQueue = new PriceLadder(ExchangeOrderDirection.BUY);
+        this.sellLimitPriceQueue = new PriceLadder(ExchangeOrderDirection.SELL);
+        this.buyMarketQueue = new OrderQueue();
+        this.sellMarketQueue = new OrderQueue();
+        this.orderIndex = new HashMap<>();
         this.sellTradePlate = new TradePlate(symbol,ExchangeOrderDirection.SELL);  // Plate ： 盘子的意思
         this.buyTradePlate = new TradePlate(symbol,ExchangeOrderDirection.BUY);
+        this.buyPlateChanges = new TreeSet<>();
+        this.sellPlateChanges = new TreeSet<>();
+        this.pendingTrades = new ArrayList<>();
+        this.pendingCompletedOrders = new ArrayList<>();
         this.dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     }
 
+    /**
+     * 订单进入撮合时换算为引擎内部表示
+     *
+     * exchange-api 已按交易对精度截断价格与数量，这里的换算是精确的；
+     * 若有超出精度的值（如按成交明细恢复的历史订单），买价向下、卖价向上、剩余数量向下取整，不会以差于委托的条件成交
+     * @param exchangeOrder
+     * @return
+     */
+    private BookOrder toBookOrder(ExchangeOrder exchangeOrder){
+        long price = 0;
+        if(exchangeOrder.getType() == ExchangeOrderType.LIMIT_PRICE){
+            price = toPriceTicks(exchangeOrder);
+        }
+        if(exchangeOrder.getType() == ExchangeOrderType.MARKET_PRICE && exchangeOrder.getDirection() == ExchangeOrderDirection.BUY){
+            //市价买单的委托量是成交额
+            return new BookOrder(exchangeOrder, price, priceScale.toTicks(exchangeOrder.getAmount(), RoundingMode.DOWN), 0);
+        }
+        long amount = amountScale.toTicks(exchangeOrder.getAmount(), RoundingMode.DOWN);
+        long tradedAmount = amountScale.toTicks(exchangeOrder.getTradedAmount(), RoundingMode.UP);
+        return new BookOrder(exchangeOrder, price, amount, tradedAmount);
+    }
+
+    private long toPriceTicks(ExchangeOrder exchangeOrder){
+        RoundingMode mode = exchangeOrder.getDirection() == ExchangeOrderDirection.BUY ? RoundingMode.DOWN : RoundingMode.UP;
+        return priceScale.toTicks(exchangeOrder.getPrice(), mode);
+    }
+
     /**
      * 增加限价订单到队列，
      *
@@ -91,53 +141,56 @@ public class CoinTrader {
         if(exchangeOrder.getType() != ExchangeOrderType.LIMIT_PRICE){
             return ;
         }
+        addLimitPriceOrder(toBookOrder(exchangeOrder));
+    }
+
+    private void addLimitPriceOrder(BookOrder bookOrder){
+        ExchangeOrder exchangeOrder = bookOrder.getOrder();
         //logger.info("addLimitPriceOrder,orderId = {}", exchangeOrder.getOrderId());
-        TreeMap<BigDecimal,MergeOrder> list;
+        PriceLadder list;
         if(exchangeOrder.getDirection() == ExchangeOrderDirection.BUY){
             list = buyLimitPriceQueue;
             buyTradePlate.add(exchangeOrder); // 立即更新盘口深度，随后推送给 Kafka
-
-            // ready 初始 false 只是“大门关起来”，
-            // 等 Spring 容器完全启动、历史数据恢复完毕后会统一把门打开（ CoinTraderEvent 类中，onApplicationEvent方法最后一行，设置ready为true），
-            // 此后就可以正常进单、推盘口了
-            if(ready) {
-                sendTradePlateMessage(buyTradePlate);
-            }
         } else {
             list = sellLimitPriceQueue;
             sellTradePlate.add(exchangeOrder); // 立即更新盘口深度，随后推送给 Kafka
-            if(ready) {
-                sendTradePlateMessage(sellTradePlate);
-            }
         }
+        // 盘口变化在 flush 时统一推送；
+        // ready 初始 false 只是“大门关起来”，
+        // 等 Spring 容器完全启动、历史数据恢复完毕后会统一把门打开（ CoinTraderEvent 类中，onApplicationEvent方法最后一行，设置ready为true），
+        // 此后就可以正常进单、推盘口了
+        markPlateChanged(exchangeOrder);
 
-        // 把用户提交的限价订单塞进内存 TreeMap（买盘或卖盘）
-        synchronized (list) {
-            MergeOrder mergeOrder = list.get(exchangeOrder.getPrice());
-            if(mergeOrder == null){
-                mergeOrder = new MergeOrder();
-                mergeOrder.add(exchangeOrder);
-                list.put(exchangeOrder.getPrice(),mergeOrder);
-            }
-            else {
-                mergeOrder.add(exchangeOrder);
-            }
+        // 把用户提交的限价订单放进内存价位索引（买盘或卖盘）
+        PriceLevel priceLevel = list.get(bookOrder.getPrice());
+        if(priceLevel == null){
+            priceLevel = new PriceLevel(bookOrder.getPrice(), priceScale.toDecimal(bookOrder.getPrice()));
+            list.add(priceLevel);
         }
+        enqueue(priceLevel, bookOrder);
     }
 
     /**
      * 添加市价单
-     * @param exchangeOrder
+     * @param bookOrder
      */
-    public void addMarketPriceOrder(ExchangeOrder exchangeOrder){
-        if(exchangeOrder.getType() != ExchangeOrderType.MARKET_PRICE){
+    private void addMarketPriceOrder(BookOrder bookOrder){
+        if(bookOrder.getType() != ExchangeOrderType.MARKET_PRICE){
             return ;
         }
-        logger.info("addMarketPriceOrder,orderId = {}", exchangeOrder.getOrderId());
-        LinkedList<ExchangeOrder> list = exchangeOrder.getDirection() == ExchangeOrderDirection.BUY ? buyMarketQueue : sellMarketQueue;
-        synchronized (list) {
-            list.addLast(exchangeOrder);
-        }
+        logger.info("addMarketPriceOrder,orderId = {}", bookOrder.getOrderId());
+        OrderQueue list = bookOrder.getDirection() == ExchangeOrderDirection.BUY ? buyMarketQueue : sellMarketQueue;
+        enqueue(list, bookOrder);
+    }
+
+    private void enqueue(OrderQueue queue, BookOrder bookOrder){
+        queue.add(bookOrder);
+        orderIndex.put(bookOrder.getOrderId(), bookOrder);
+    }
+
+    private void dequeue(OrderQueue queue, BookOrder bookOrder){
+        queue.remove(bookOrder);
+        orderIndex.remove(bookOrder.getOrderId());
     }
 
     public void trade(List<ExchangeOrder> orders) throws ParseException{
@@ -149,13 +202,95 @@ public class CoinTrader {
         for(ExchangeOrder order:orders){
             trade(order);
         }
+        flush();
+    }
+
+    /**
+     * 发送本批次累计的输出：合并后的成交记录、完成订单，以及一条包含最终价位数量的盘口增量
+     *
+     * 同一价位在批次内多次变化只推送一次，成交与完成订单各自合并为一条消息（超过1000条时拆分）
+     */
+    public void flush(){
+        if(pendingTrades.size() > 0){
+            handleExchangeTrade(pendingTrades);
+            pendingTrades.clear();
+        }
+        if(pendingCompletedOrders.size() > 0){
+            orderCompleted(pendingCompletedOrders);
+            pendingCompletedOrders.clear();
+        }
+        sendTradePlateDelta();
+    }
+
+    /**
+     * 丢弃本批次累计的输出，用于重放撮合日志中结果已经发送过的指令
+     */
+    public void discardOutput(){
+        pendingTrades.clear();
+        pendingCompletedOrders.clear();
+        buyPlateChanges.clear();
+        sellPlateChanges.clear();
     }
 
+    private void addTrade(ExchangeTrade trade){
+        trade.setSequence(++tradeSequence);
+        pendingTrades.add(trade);
+    }
+
+    private void addCompletedOrder(ExchangeOrder order){
+        order.setSequence(++completedSequence);
+        pendingCompletedOrders.add(order);
+    }
+
+    /**
+     * 为撤单成功（含退回）消息分配序号，由撮合线程在产生撤单结果时调用
+     * @param order
+     */
+    public void markCanceled(ExchangeOrder order){
+        order.setSequence(++canceledSequence);
+    }
+
+    /**
+     * 成交、完成订单、撤单三类消息已分配的最后序号
+     * @return
+     */
+    public long[] getEventSequences(){
+        return new long[]{tradeSequence, completedSequence, canceledSequence};
+    }
+
+    /**
+     * 按快照恢复消息序号，须在撮合之前调用
+     * @param sequences getEventSequences 的结果，为空时从0开始
+     */
+    public void restoreEventSequences(long[] sequences){
+        if(sequences == null || sequences.length < 3){
+            return;
+        }
+        tradeSequence = sequences[0];
+        completedSequence = sequences[1];
+        canceledSequence = sequences[2];
+    }
+
+    /**
+     * 按快照恢复在簿订单，不参与撮合；需按撮合顺序依次调用
+     * @param exchangeOrder
+     */
+    public void restoreOrder(ExchangeOrder exchangeOrder){
+        BookOrder bookOrder = toBookOrder(exchangeOrder);
+        if(exchangeOrder.getType() == ExchangeOrderType.LIMIT_PRICE){
+            addLimitPriceOrder(bookOrder);
+        }
+        else{
+            addMarketPriceOrder(bookOrder);
+        }
+    }
 
     /**
      * 主动交易输入的订单，交易不完成的会输入到队列
+     *
+     * 产生的成交、完成订单与盘口变化先在内存中累计，需调用 flush 发送
      * @param exchangeOrder
-     * @throws ParseException 
+     * @throws ParseException
      */
     public void trade(ExchangeOrder exchangeOrder) throws ParseException{
         if(tradingHalt) {
@@ -166,12 +301,13 @@ public class CoinTrader {
             logger.info("unsupported symbol,coin={},base={}", exchangeOrder.getCoinSymbol(), exchangeOrder.getBaseSymbol());
             return ;
         }
-        if(exchangeOrder.getAmount().compareTo(BigDecimal.ZERO) <=0 || exchangeOrder.getAmount().subtract(exchangeOrder.getTradedAmount()).compareTo(BigDecimal.ZERO)<=0){
+        BookOrder focusedOrder = toBookOrder(exchangeOrder);
+        if(focusedOrder.getAmount() <= 0 || focusedOrder.isCompleted()){
             return ;
         }
 
-        TreeMap<BigDecimal,MergeOrder> limitPriceOrderList;
-        LinkedList<ExchangeOrder> marketPriceOrderList;
+        PriceLadder limitPriceOrderList;
+        OrderQueue marketPriceOrderList;
         if(exchangeOrder.getDirection() == ExchangeOrderDirection.BUY){
             limitPriceOrderList = sellLimitPriceQueue;
             marketPriceOrderList = sellMarketQueue;
@@ -183,10 +319,10 @@ public class CoinTrader {
         if(exchangeOrder.getType() == ExchangeOrderType.MARKET_PRICE){
             //logger.info(">>>>>市价单>>>交易与限价单交易");
             //与限价单交易
-            matchMarketPriceWithLPList(limitPriceOrderList, exchangeOrder);
+            matchMarketPriceWithLPList(limitPriceOrderList, focusedOrder);
         }else if(exchangeOrder.getType() == ExchangeOrderType.LIMIT_PRICE){
             //限价单价格必须大于0
-            if(exchangeOrder.getPrice().compareTo(BigDecimal.ZERO) <= 0){
+            if(focusedOrder.getPrice() <= 0){
                 return ;
             }
             // 抢购无需特殊处理，直接成交即可，但无法市价成交，在exchange-api做过滤控制
@@ -198,17 +334,17 @@ public class CoinTrader {
 				if(exchangeOrder.getTime().longValue() < dateTimeFormat.parse(clearTime).getTime()) {
 					logger.info(">>>>>分摊卖单>>>处在结束时间与清盘时间内");
 					//将卖单分摊成交，活动卖单无需压入卖盘显示在前端
-					matchLimitPriceWithLPListByFENTAN(limitPriceOrderList, exchangeOrder, false);
+					matchLimitPriceWithLPListByFENTAN(limitPriceOrderList, focusedOrder, false);
 					return;
 				}
             }
             //logger.info(">>>>>限价单>>>交易与限价单交易");
             //先与限价单交易
-            matchLimitPriceWithLPList(limitPriceOrderList, exchangeOrder,false);
-            if(exchangeOrder.getAmount().compareTo(exchangeOrder.getTradedAmount()) > 0) {
+            matchLimitPriceWithLPList(limitPriceOrderList, focusedOrder,false);
+            if(!focusedOrder.isCompleted()) {
                 //logger.info(">>>>限价单未交易完>>>>与市价单交易>>>>");
                 //后与市价单交易
-                matchLimitPriceWithMPList(marketPriceOrderList, exchangeOrder);
+                matchLimitPriceWithMPList(marketPriceOrderList, focusedOrder);
             }
         }
     }
@@ -219,121 +355,113 @@ public class CoinTrader {
      * @param canEnterList
      */
     // FENTAN : 分摊 的拼音
-    public void matchLimitPriceWithLPListByFENTAN(TreeMap<BigDecimal,MergeOrder> lpList, ExchangeOrder focusedOrder,boolean canEnterList) {
-    	List<ExchangeTrade> exchangeTrades = new ArrayList<>();
-        List<ExchangeOrder> completedOrders = new ArrayList<>();
-        synchronized (lpList) {
-            Iterator<Map.Entry<BigDecimal,MergeOrder>> mergeOrderIterator = lpList.entrySet().iterator();
-            boolean exitLoop = false;
-            while (!exitLoop && mergeOrderIterator.hasNext()) {
-                Map.Entry<BigDecimal,MergeOrder> entry = mergeOrderIterator.next();
-                MergeOrder mergeOrder = entry.getValue();
-                Iterator<ExchangeOrder> orderIterator = mergeOrder.iterator();
-                //买入单需要匹配的价格不大于委托价，否则退出
-                if (focusedOrder.getDirection() == ExchangeOrderDirection.BUY && mergeOrder.getPrice().compareTo(focusedOrder.getPrice()) > 0) {
-                    break;
-                }
-                //卖出单需要匹配的价格不小于委托价，否则退出
-                if (focusedOrder.getDirection() == ExchangeOrderDirection.SELL && mergeOrder.getPrice().compareTo(focusedOrder.getPrice()) < 0) {
-                    break;
+    private void matchLimitPriceWithLPListByFENTAN(PriceLadder lpList, BookOrder focusedOrder,boolean canEnterList) {
+        //从最优价位开始按下标遍历，吃完的价位就地删除
+        int rank = 0;
+        boolean exitLoop = false;
+        while (!exitLoop && rank < lpList.size()) {
+            PriceLevel priceLevel = lpList.level(rank);
+            BookOrder matchOrder = priceLevel.head();
+            //买入单需要匹配的价格不大于委托价，否则退出
+            if (focusedOrder.getDirection() == ExchangeOrderDirection.BUY && priceLevel.getPrice() > focusedOrder.getPrice()) {
+                break;
+            }
+            //卖出单需要匹配的价格不小于委托价，否则退出
+            if (focusedOrder.getDirection() == ExchangeOrderDirection.SELL && priceLevel.getPrice() < focusedOrder.getPrice()) {
+                break;
+            }
+            long totalAmount = priceLevel.getTotalAmount();
+            while (matchOrder != null) {
+                //先取下一个，当前订单完成后会从队列中摘除
+                BookOrder nextOrder = matchOrder.next();
+                //处理匹配
+                ExchangeTrade trade = processMatchByFENTAN(focusedOrder, matchOrder, priceLevel, totalAmount);
+                if (trade != null) {
+                    addTrade(trade);
                 }
-                BigDecimal totalAmount = mergeOrder.getTotalAmount();
-                while (orderIterator.hasNext()) {
-                    ExchangeOrder matchOrder = orderIterator.next();
-                    //处理匹配
-                    ExchangeTrade trade = processMatchByFENTAN(focusedOrder, matchOrder, totalAmount);
-                    exchangeTrades.add(trade);
-                    //判断匹配单是否完成
-                    if (matchOrder.isCompleted()) {
-                        //当前匹配的订单完成交易，删除该订单
-                        orderIterator.remove();
-                        completedOrders.add(matchOrder);
-                    }
-                    //判断交易单是否完成
-                    if (focusedOrder.isCompleted()) {
-                        //交易完成
-                        completedOrders.add(focusedOrder);
-                        //退出循环
-                        exitLoop = true;
-                        break;
-                    }
+                //判断匹配单是否完成
+                if (matchOrder.isCompleted()) {
+                    //当前匹配的订单完成交易，删除该订单
+                    dequeue(priceLevel, matchOrder);
+                    addCompletedOrder(matchOrder.getOrder());
                 }
-                if(mergeOrder.size() == 0){
-                    mergeOrderIterator.remove();
+                //判断交易单是否完成
+                if (focusedOrder.isCompleted()) {
+                    //交易完成
+                    addCompletedOrder(focusedOrder.getOrder());
+                    //退出循环
+                    exitLoop = true;
+                    break;
                 }
+                matchOrder = nextOrder;
+            }
+            if(priceLevel.size() == 0){
+                lpList.removeAt(rank);
+            }
+            else {
+                rank++;
             }
         }
         //如果还没有交易完，订单压入列表中
-        if (focusedOrder.getTradedAmount().compareTo(focusedOrder.getAmount()) < 0 && canEnterList) {
+        if (!focusedOrder.isCompleted() && canEnterList) {
             addLimitPriceOrder(focusedOrder);
         }
-        //每个订单的匹配批量推送
-        handleExchangeTrade(exchangeTrades);
-        if(completedOrders.size() > 0){
-            orderCompleted(completedOrders);
-            TradePlate plate = focusedOrder.getDirection() == ExchangeOrderDirection.BUY ? sellTradePlate : buyTradePlate;
-            sendTradePlateMessage(plate);
-        }
     }
     /**
      * 限价委托单与限价队列匹配
      * @param lpList 限价对手单队列
      * @param focusedOrder 交易订单
      */
-    public void matchLimitPriceWithLPList(TreeMap<BigDecimal,MergeOrder> lpList, ExchangeOrder focusedOrder,boolean canEnterList){
-        List<ExchangeTrade> exchangeTrades = new ArrayList<>();
-        List<ExchangeOrder> completedOrders = new ArrayList<>();
-        synchronized (lpList) {
-            Iterator<Map.Entry<BigDecimal,MergeOrder>> mergeOrderIterator = lpList.entrySet().iterator();
-            boolean exitLoop = false;
-            while (!exitLoop && mergeOrderIterator.hasNext()) {
-                Map.Entry<BigDecimal,MergeOrder> entry = mergeOrderIterator.next();
-                MergeOrder mergeOrder = entry.getValue();
-                Iterator<ExchangeOrder> orderIterator = mergeOrder.iterator();
-                //买入单需要匹配的价格不大于委托价，否则退出
-                if (focusedOrder.getDirection() == ExchangeOrderDirection.BUY && mergeOrder.getPrice().compareTo(focusedOrder.getPrice()) > 0) {
-                    break;
-                }
-                //卖出单需要匹配的价格不小于委托价，否则退出
-                if (focusedOrder.getDirection() == ExchangeOrderDirection.SELL && mergeOrder.getPrice().compareTo(focusedOrder.getPrice()) < 0) {
-                    break;
+    private void matchLimitPriceWithLPList(PriceLadder lpList, BookOrder focusedOrder,boolean canEnterList){
+        //从最优价位开始按下标遍历，吃完的价位就地删除
+        int rank = 0;
+        boolean exitLoop = false;
+        while (!exitLoop && rank < lpList.size()) {
+            PriceLevel priceLevel = lpList.level(rank);
+            BookOrder matchOrder = priceLevel.head();
+            //买入单需要匹配的价格不大于委托价，否则退出
+            if (focusedOrder.getDirection() == ExchangeOrderDirection.BUY && priceLevel.getPrice() > focusedOrder.getPrice()) {
+                break;
+            }
+            //卖出单需要匹配的价格不小于委托价，否则退出
+            if (focusedOrder.getDirection() == ExchangeOrderDirection.SELL && priceLevel.getPrice() < focusedOrder.getPrice()) {
+                break;
+            }
+            while (matchOrder != null) {
+                //先取下一个，当前订单完成后会从队列中摘除
+                BookOrder nextOrder = matchOrder.next();
+                //处理匹配
+                ExchangeTrade trade = processMatch(focusedOrder, matchOrder, priceLevel);
+                if (trade != null) {
+                    addTrade(trade);
                 }
-                while (orderIterator.hasNext()) {
-                    ExchangeOrder matchOrder = orderIterator.next();
-                    //处理匹配
-                    ExchangeTrade trade = processMatch(focusedOrder, matchOrder);
-                    exchangeTrades.add(trade);
-                    //判断匹配单是否完成
-                    if (matchOrder.isCompleted()) {
-                        //当前匹配的订单完成交易，删除该订单
-                        orderIterator.remove();
-                        completedOrders.add(matchOrder);
-                    }
-                    //判断交易单是否完成
-                    if (focusedOrder.isCompleted()) {
-                        //交易完成
-                        completedOrders.add(focusedOrder);
-                        //退出循环
-                        exitLoop = true;
-                        break;
-                    }
+                //判断匹配单是否完成
+                if (matchOrder.isCompleted()) {
+                    //当前匹配的订单完成交易，删除该订单
+                    dequeue(priceLevel, matchOrder);
+                    addCompletedOrder(matchOrder.getOrder());
                 }
-                if(mergeOrder.size() == 0){
-                    mergeOrderIterator.remove();
+                //判断交易单是否完成
+                if (focusedOrder.isCompleted()) {
+                    //交易完成
+                    addCompletedOrder(focusedOrder.getOrder());
+                    //退出循环
+                    exitLoop = true;
+                    break;
                 }
+                matchOrder = nextOrder;
+            }
+            if(priceLevel.size() == 0){
+                lpList.removeAt(rank);
+            }
+            else {
+                rank++;
             }
         }
         //如果还没有交易完，订单压入列表中
-        if (focusedOrder.getTradedAmount().compareTo(focusedOrder.getAmount()) < 0 && canEnterList) {
+        if (!focusedOrder.isCompleted() && canEnterList) {
             addLimitPriceOrder(focusedOrder);
         }
-        //每个订单的匹配批量推送
-        handleExchangeTrade(exchangeTrades);
-        if(completedOrders.size() > 0){
-            orderCompleted(completedOrders);
-            TradePlate plate = focusedOrder.getDirection() == ExchangeOrderDirection.BUY ? sellTradePlate : buyTradePlate;
-            sendTradePlateMessage(plate);
-        }
     }
 
     /**
@@ -341,40 +469,32 @@ public class CoinTrader {
      * @param mpList 市价对手单队列
      * @param focusedOrder 交易订单
      */
-    public void matchLimitPriceWithMPList(LinkedList<ExchangeOrder> mpList,ExchangeOrder focusedOrder){
-        List<ExchangeTrade> exchangeTrades = new ArrayList<>();
-        List<ExchangeOrder> completedOrders = new ArrayList<>();
-        synchronized (mpList) {
-            Iterator<ExchangeOrder> iterator = mpList.iterator();
-            while (iterator.hasNext()) {
-                ExchangeOrder matchOrder = iterator.next();
-                ExchangeTrade trade = processMatch(focusedOrder, matchOrder);
-                logger.info(">>>>>"+trade);
-                if(trade != null){
-                    exchangeTrades.add(trade);
-                }
-                //判断匹配单是否完成，市价单amount为成交量
-                if(matchOrder.isCompleted()){
-                    iterator.remove();
-                    completedOrders.add(matchOrder);
-                }
-                //判断吃单是否完成，判断成交量是否完成
-                if (focusedOrder.isCompleted()) {
-                    //交易完成
-                    completedOrders.add(focusedOrder);
-                    //退出循环
-                    break;
-                }
+    private void matchLimitPriceWithMPList(OrderQueue mpList,BookOrder focusedOrder){
+        BookOrder matchOrder = mpList.head();
+        while (matchOrder != null) {
+            BookOrder nextOrder = matchOrder.next();
+            ExchangeTrade trade = processMatch(focusedOrder, matchOrder, null);
+            if(trade != null){
+                addTrade(trade);
+            }
+            //判断匹配单是否完成，市价单amount为成交量
+            if(matchOrder.isCompleted()){
+                dequeue(mpList, matchOrder);
+                addCompletedOrder(matchOrder.getOrder());
             }
+            //判断吃单是否完成，判断成交量是否完成
+            if (focusedOrder.isCompleted()) {
+                //交易完成
+                addCompletedOrder(focusedOrder.getOrder());
+                //退出循环
+                break;
+            }
+            matchOrder = nextOrder;
         }
         //如果还没有交易完，订单压入列表中
-        if (focusedOrder.getTradedAmount().compareTo(focusedOrder.getAmount()) < 0) {
+        if (!focusedOrder.isCompleted()) {
             addLimitPriceOrder(focusedOrder);
         }
-        //每个订单的匹配批量推送
-        logger.info("限价委托单与市价队列匹配完成，发送成功消息");
-        handleExchangeTrade(exchangeTrades);
-        orderCompleted(completedOrders);
     }
 
 
@@ -383,54 +503,47 @@ public class CoinTrader {
      * @param lpList  限价对手单列表
      * @param focusedOrder 待交易订单
      */
-    public void matchMarketPriceWithLPList(TreeMap<BigDecimal,MergeOrder> lpList, ExchangeOrder focusedOrder){
-        List<ExchangeTrade> exchangeTrades = new ArrayList<>();
-        List<ExchangeOrder> completedOrders = new ArrayList<>();
-        synchronized (lpList) {
-            Iterator<Map.Entry<BigDecimal,MergeOrder>> mergeOrderIterator = lpList.entrySet().iterator();
-            boolean exitLoop = false;
-            while (!exitLoop && mergeOrderIterator.hasNext()) {
-                Map.Entry<BigDecimal,MergeOrder> entry = mergeOrderIterator.next();
-                MergeOrder mergeOrder = entry.getValue();
-                Iterator<ExchangeOrder> orderIterator = mergeOrder.iterator();
-                while (orderIterator.hasNext()) {
-                    ExchangeOrder matchOrder = orderIterator.next();
-                    //处理匹配
-                    ExchangeTrade trade = processMatch(focusedOrder, matchOrder);
-                    if (trade != null) {
-                        exchangeTrades.add(trade);
-                    }
-                    //判断匹配单是否完成
-                    if (matchOrder.isCompleted()) {
-                        //当前匹配的订单完成交易，删除该订单
-                        orderIterator.remove();
-                        completedOrders.add(matchOrder);
-                    }
-                    //判断焦点订单是否完成
-                    if (focusedOrder.isCompleted()) {
-                        completedOrders.add(focusedOrder);
-                        //退出循环
-                        exitLoop = true;
-                        break;
-                    }
+    private void matchMarketPriceWithLPList(PriceLadder lpList, BookOrder focusedOrder){
+        //从最优价位开始按下标遍历，吃完的价位就地删除
+        int rank = 0;
+        boolean exitLoop = false;
+        while (!exitLoop && rank < lpList.size()) {
+            PriceLevel priceLevel = lpList.level(rank);
+            BookOrder matchOrder = priceLevel.head();
+            while (matchOrder != null) {
+                //先取下一个，当前订单完成后会从队列中摘除
+                BookOrder nextOrder = matchOrder.next();
+                //处理匹配
+                ExchangeTrade trade = processMatch(focusedOrder, matchOrder, priceLevel);
+                if (trade != null) {
+                    addTrade(trade);
+                }
+                //判断匹配单是否完成
+                if (matchOrder.isCompleted()) {
+                    //当前匹配的订单完成交易，删除该订单
+                    dequeue(priceLevel, matchOrder);
+                    addCompletedOrder(matchOrder.getOrder());
                 }
-                if(mergeOrder.size() == 0){
-                    mergeOrderIterator.remove();
+                //判断焦点订单是否完成
+                if (focusedOrder.isCompleted()) {
+                    addCompletedOrder(focusedOrder.getOrder());
+                    //退出循环
+                    exitLoop = true;
+                    break;
                 }
+                matchOrder = nextOrder;
+            }
+            if(priceLevel.size() == 0){
+                lpList.removeAt(rank);
+            }
+            else {
+                rank++;
             }
         }
-        //如果还没有交易完，订单压入列表中,市价买单按成交量算
-        if (focusedOrder.getDirection() == ExchangeOrderDirection.SELL&&focusedOrder.getTradedAmount().compareTo(focusedOrder.getAmount()) < 0
-                || focusedOrder.getDirection() == ExchangeOrderDirection.BUY&& focusedOrder.getTurnover().compareTo(focusedOrder.getAmount()) < 0) {
+        //如果还没有交易完，订单压入列表中,市价买单按成交额算
+        if (!focusedOrder.isCompleted()) {
             addMarketPriceOrder(focusedOrder);
         }
-        //每个订单的匹配批量推送
-        handleExchangeTrade(exchangeTrades);
-        if(completedOrders.size() > 0){
-            orderCompleted(completedOrders);
-            TradePlate plate = focusedOrder.getDirection() == ExchangeOrderDirection.BUY ? sellTradePlate : buyTradePlate;
-            sendTradePlateMessage(plate);
-        }
     }
 
     /**
@@ -439,14 +552,15 @@ public class CoinTrader {
      * @param dealPrice 成交价
      * @return
      */
-    private BigDecimal calculateTradedAmount(ExchangeOrder order, BigDecimal dealPrice){
-        if(order.getDirection() == ExchangeOrderDirection.BUY && order.getType() == ExchangeOrderType.MARKET_PRICE){
-            //剩余成交量
-            BigDecimal leftTurnover = order.getAmount().subtract(order.getTurnover());
-            return leftTurnover.divide(dealPrice,coinScale,BigDecimal.ROUND_DOWN);
+    private long calculateTradedAmount(BookOrder order, BigDecimal dealPrice){
+        if(order.isMarketBuy()){
+            //剩余成交额只对市价买单存在，仍按 BigDecimal 计算
+            ExchangeOrder exchangeOrder = order.getOrder();
+            BigDecimal leftTurnover = exchangeOrder.getAmount().subtract(exchangeOrder.getTurnover());
+            return amountScale.toTicks(leftTurnover.divide(dealPrice,coinScale,BigDecimal.ROUND_DOWN), RoundingMode.DOWN);
         }
         else{
-            return  order.getAmount().subtract(order.getTradedAmount());
+            return order.getRemaining();
         }
     }
 
@@ -472,11 +586,12 @@ public class CoinTrader {
      * 处理两个匹配的委托订单
      * @param focusedOrder 焦点单 需要进行匹配的单
      * @param matchOrder 匹配单
+     * @param priceLevel 匹配单所在价位，匹配单不在限价队列中时为null
      * @return
      */
-    private ExchangeTrade processMatch(ExchangeOrder focusedOrder, ExchangeOrder matchOrder){
+    private ExchangeTrade processMatch(BookOrder focusedOrder, BookOrder matchOrder, PriceLevel priceLevel){
         //需要交易的数量，成交量,成交价，可用数量
-        BigDecimal needAmount,dealPrice,availAmount;
+        long needAmount,dealPrice,availAmount;
         //如果匹配单是限价单，则以其价格为成交价
         if(matchOrder.getType() == ExchangeOrderType.LIMIT_PRICE){
             dealPrice = matchOrder.getPrice();
@@ -486,41 +601,42 @@ public class CoinTrader {
             dealPrice = focusedOrder.getPrice();
         }
         //成交价必须大于0
-        if(dealPrice.compareTo(BigDecimal.ZERO) <= 0){
+        if(dealPrice <= 0){
             return null;
         }
-        needAmount = calculateTradedAmount(focusedOrder,dealPrice);
-        availAmount = calculateTradedAmount(matchOrder,dealPrice);
+        //以价位的价格成交时直接使用价位缓存的 BigDecimal 价格
+        BigDecimal price = priceLevel != null ? priceLevel.getPriceValue() : priceScale.toDecimal(dealPrice);
+        needAmount = calculateTradedAmount(focusedOrder,price);
+        availAmount = calculateTradedAmount(matchOrder,price);
         //计算成交量
-        BigDecimal tradedAmount = (availAmount.compareTo(needAmount) >= 0 ? needAmount : availAmount);
-        logger.info("dealPrice={},amount={}",dealPrice,tradedAmount);
+        long tradedTicks = Math.min(needAmount, availAmount);
         //如果成交额为0说明剩余额度无法成交，退出
-        if(tradedAmount.compareTo(BigDecimal.ZERO) == 0){
+        if(tradedTicks <= 0){
             return null;
         }
 
-        //计算成交额,成交额要保留足够精度
-        BigDecimal turnover = tradedAmount.multiply(dealPrice);
-        matchOrder.setTradedAmount(matchOrder.getTradedAmount().add(tradedAmount));
-        matchOrder.setTurnover(matchOrder.getTurnover().add(turnover));
-        focusedOrder.setTradedAmount(focusedOrder.getTradedAmount().add(tradedAmount));
-        focusedOrder.setTurnover(focusedOrder.getTurnover().add(turnover));
+        //换算回 BigDecimal 输出，成交额要保留足够精度
+        BigDecimal tradedAmount = amountScale.toDecimal(tradedTicks);
+        BigDecimal turnover = tradedAmount.multiply(price);
+        logger.debug("dealPrice={},amount={}",price,tradedAmount);
+        matchOrder.fill(tradedTicks, tradedAmount, turnover);
+        focusedOrder.fill(tradedTicks, tradedAmount, turnover);
 
         //创建成交记录
         ExchangeTrade exchangeTrade = new ExchangeTrade();
         exchangeTrade.setSymbol(symbol);
         exchangeTrade.setAmount(tradedAmount);
         exchangeTrade.setDirection(focusedOrder.getDirection());
-        exchangeTrade.setPrice(dealPrice);
+        exchangeTrade.setPrice(price);
         exchangeTrade.setBuyTurnover(turnover);
         exchangeTrade.setSellTurnover(turnover);
         //校正市价单剩余成交额
-        if(ExchangeOrderType.MARKET_PRICE == focusedOrder.getType() && focusedOrder.getDirection() == ExchangeOrderDirection.BUY){
-            BigDecimal adjustTurnover = adjustMarketOrderTurnover(focusedOrder,dealPrice);
+        if(focusedOrder.isMarketBuy()){
+            BigDecimal adjustTurnover = adjustMarketOrderTurnover(focusedOrder.getOrder(),price);
             exchangeTrade.setBuyTurnover(turnover.add(adjustTurnover));
         }
-        else if(ExchangeOrderType.MARKET_PRICE == matchOrder.getType() && matchOrder.getDirection() == ExchangeOrderDirection.BUY){
-            BigDecimal adjustTurnover = adjustMarketOrderTurnover(matchOrder,dealPrice);
+        else if(matchOrder.isMarketBuy()){
+            BigDecimal adjustTurnover = adjustMarketOrderTurnover(matchOrder.getOrder(),price);
             exchangeTrade.setBuyTurnover(turnover.add(adjustTurnover));
         }
 
@@ -535,11 +651,12 @@ public class CoinTrader {
         exchangeTrade.setTime(Calendar.getInstance().getTimeInMillis());
         if(matchOrder.getType() == ExchangeOrderType.LIMIT_PRICE){
             if(matchOrder.getDirection() == ExchangeOrderDirection.BUY){
-                buyTradePlate.remove(matchOrder,tradedAmount);
+                buyTradePlate.remove(matchOrder.getOrder(),tradedAmount);
             }
             else{
-                sellTradePlate.remove(matchOrder,tradedAmount);
+                sellTradePlate.remove(matchOrder.getOrder(),tradedAmount);
             }
+            markPlateChanged(matchOrder.getOrder());
         }
         return  exchangeTrade;
     }
@@ -548,11 +665,13 @@ public class CoinTrader {
      * 处理两个匹配的委托订单
      * @param focusedOrder 焦点单
      * @param matchOrder 匹配单
+     * @param priceLevel 匹配单所在价位
+     * @param totalAmount 匹配价位的订单总量
      * @return
      */
-    private ExchangeTrade processMatchByFENTAN(ExchangeOrder focusedOrder, ExchangeOrder matchOrder, BigDecimal totalAmount){
+    private ExchangeTrade processMatchByFENTAN(BookOrder focusedOrder, BookOrder matchOrder, PriceLevel priceLevel, long totalAmount){
         //需要交易的数量，成交量,成交价，可用数量
-        BigDecimal dealPrice;
+        long dealPrice;
         //如果匹配单是限价单，则以其价格为成交价
         if(matchOrder.getType() == ExchangeOrderType.LIMIT_PRICE){
             dealPrice = matchOrder.getPrice();
@@ -561,31 +680,32 @@ public class CoinTrader {
             dealPrice = focusedOrder.getPrice();
         }
         //成交价必须大于0
-        if(dealPrice.compareTo(BigDecimal.ZERO) <= 0){
+        if(dealPrice <= 0){
             return null;
         }
         // 成交数 = 发行卖单总数*匹配单数量占比（例：1.2345%）
-        //计算成交量
-        BigDecimal tradedAmount = focusedOrder.getAmount().multiply(matchOrder.getAmount().divide(totalAmount, 8, BigDecimal.ROUND_HALF_DOWN)).setScale(8, BigDecimal.ROUND_HALF_DOWN);
-        logger.info("dealPrice={},amount={}",dealPrice,tradedAmount);
+        //计算成交量，按比例分配需要除法，仍用 BigDecimal 计算后换算为 tick
+        BigDecimal ratio = BigDecimal.valueOf(matchOrder.getAmount()).divide(BigDecimal.valueOf(totalAmount), 8, BigDecimal.ROUND_HALF_DOWN);
+        long tradedTicks = amountScale.toTicks(amountScale.toDecimal(focusedOrder.getAmount()).multiply(ratio), RoundingMode.DOWN);
         //如果成交额为0说明剩余额度无法成交，退出
-        if(tradedAmount.compareTo(BigDecimal.ZERO) == 0){
+        if(tradedTicks <= 0){
             return null;
         }
 
         //计算成交额,成交额要保留足够精度
-        BigDecimal turnover = tradedAmount.multiply(dealPrice).setScale(8, BigDecimal.ROUND_HALF_DOWN);
-        matchOrder.setTradedAmount(matchOrder.getTradedAmount().add(tradedAmount).setScale(8, BigDecimal.ROUND_HALF_DOWN));
-        matchOrder.setTurnover(matchOrder.getTurnover().add(turnover).setScale(8, BigDecimal.ROUND_HALF_DOWN));
-        focusedOrder.setTradedAmount(focusedOrder.getTradedAmount().add(tradedAmount).setScale(8, BigDecimal.ROUND_HALF_DOWN));
-        focusedOrder.setTurnover(focusedOrder.getTurnover().add(turnover).setScale(8, BigDecimal.ROUND_HALF_DOWN));
+        BigDecimal price = priceLevel.getPriceValue();
+        BigDecimal tradedAmount = amountScale.toDecimal(tradedTicks);
+        BigDecimal turnover = tradedAmount.multiply(price).setScale(8, BigDecimal.ROUND_HALF_DOWN);
+        logger.debug("dealPrice={},amount={}",price,tradedAmount);
+        matchOrder.fill(tradedTicks, tradedAmount, turnover);
+        focusedOrder.fill(tradedTicks, tradedAmount, turnover);
 
         //创建成交记录
         ExchangeTrade exchangeTrade = new ExchangeTrade();
         exchangeTrade.setSymbol(symbol);
         exchangeTrade.setAmount(tradedAmount);
         exchangeTrade.setDirection(focusedOrder.getDirection());
-        exchangeTrade.setPrice(dealPrice);
+        exchangeTrade.setPrice(price);
         exchangeTrade.setBuyTurnover(turnover);
         exchangeTrade.setSellTurnover(turnover);
 
@@ -600,31 +720,19 @@ public class CoinTrader {
         exchangeTrade.setTime(Calendar.getInstance().getTimeInMillis());
         if(matchOrder.getType() == ExchangeOrderType.LIMIT_PRICE){
             if(matchOrder.getDirection() == ExchangeOrderDirection.BUY){
-                buyTradePlate.remove(matchOrder,tradedAmount);
+                buyTradePlate.remove(matchOrder.getOrder(),tradedAmount);
             }
             else{
-                sellTradePlate.remove(matchOrder,tradedAmount);
+                sellTradePlate.remove(matchOrder.getOrder(),tradedAmount);
             }
+            markPlateChanged(matchOrder.getOrder());
         }
         return  exchangeTrade;
     }
-    
+
     public void handleExchangeTrade(List<ExchangeTrade> trades){
-        //logger.info("handleExchangeTrade:{}", trades);
         if(trades.size() > 0) {
-            int maxSize = 1000;
-            //发送消息，key为交易对符号
-            if(trades.size() > maxSize) {
-                int size = trades.size();
-                for(int index = 0;index < size;index += maxSize){
-                    int length = (size - index) > maxSize ? maxSize : size - index;
-                    List<ExchangeTrade> subTrades = trades.subList(index,index + length);
-                    kafkaTemplate.send("exchange-trade",JSON.toJSONString(subTrades));
-                }
-            }
-            else {
-                kafkaTemplate.send("exchange-trade",JSON.toJSONString(trades));
-            }
+            publisher.sendTrades(symbol, trades);
         }
     }
 
@@ -633,58 +741,68 @@ public class CoinTrader {
      * @param orders
      */
     public  void orderCompleted(List<ExchangeOrder> orders){
-        //logger.info("orderCompleted ,order={}",orders);
         if(orders.size() > 0) {
-            int maxSize = 1000;
-            if(orders.size() > maxSize){
-                int size = orders.size();
-                for(int index = 0;index < size;index += maxSize){
-                    int length = (size - index) > maxSize ? maxSize : size - index;
-                    List<ExchangeOrder> subOrders = orders.subList(index,index + length);
-                    ListenableFuture<SendResult<String, String>> future=  kafkaTemplate.send("exchange-order-completed", JSON.toJSONString(subOrders));
-                    future.addCallback(new ListenableFutureCallback<SendResult<String, String>>() {
-
-
-                        @Override
-                        public void onSuccess(SendResult<String, String> sendResult) {
-                            logger.info(String.format("投递订单消息成功%s,%s",sendResult.getProducerRecord().key(),sendResult.getRecordMetadata()));
-                        }
-
-                        @Override
-                        public void onFailure(Throwable throwable) {
-                            logger.info("投递订单消息失败"+throwable);
-                        }
-                    });
-                }
-            }
-            else {
-                ListenableFuture<SendResult<String, String>> future= kafkaTemplate.send("exchange-order-completed", JSON.toJSONString(orders));
-                future.addCallback(new ListenableFutureCallback<SendResult<String, String>>() {
+            publisher.sendCompletedOrders(symbol, orders);
+        }
+    }
 
+    private void markPlateChanged(ExchangeOrder order){
+        if(order.getDirection() == ExchangeOrderDirection.BUY){
+            buyPlateChanges.add(order.getPrice());
+        }
+        else{
+            sellPlateChanges.add(order.getPrice());
+        }
+    }
 
-                    @Override
-                    public void onSuccess(SendResult<String, String> sendResult) {
-                        logger.info(String.format("投递订单消息成功%s,%s",sendResult.getProducerRecord().key(),sendResult.getRecordMetadata()));
-                    }
+    /**
+     * 发送盘口增量消息，只包含上次推送后变化的价位
+     *
+     * 以交易对为key发送，同一交易对的增量与快照落在同一分区，保证顺序
+     */
+    public void sendTradePlateDelta(){
+        if(!ready || (buyPlateChanges.isEmpty() && sellPlateChanges.isEmpty())){
+            return ;
+        }
+        TradePlateDelta delta = new TradePlateDelta();
+        delta.setSymbol(symbol);
+        delta.setSequence(++plateSequence);
+        delta.setSnapshot(false);
+        delta.setBids(collectPlateChanges(buyTradePlate, buyPlateChanges));
+        delta.setAsks(collectPlateChanges(sellTradePlate, sellPlateChanges));
+        delta.setTime(Calendar.getInstance().getTimeInMillis());
+        publisher.sendPlateDelta(delta);
+    }
 
-                    @Override
-                    public void onFailure(Throwable throwable) {
-                        logger.info("投递订单消息失败"+throwable);
-                    }
-                });
-            }
+    private List<TradePlateItem> collectPlateChanges(TradePlate plate, TreeSet<BigDecimal> changes){
+        List<TradePlateItem> items = new ArrayList<>(changes.size());
+        for(BigDecimal price : changes){
+            TradePlateItem item = new TradePlateItem();
+            item.setPrice(price);
+            item.setAmount(plate.findAmount(price));
+            items.add(item);
         }
+        changes.clear();
+        return items;
     }
 
     /**
-     * 发送盘口变化消息
-     * @param plate
+     * 发送完整盘口快照，用于新订阅方初始化及丢失增量后的重新同步
      */
-    public void sendTradePlateMessage(TradePlate plate){
-        //防止并发引起数组越界，造成盘口倒挂
-        synchronized (plate) {
-            kafkaTemplate.send("exchange-trade-plate", JSON.toJSONString(plate));
+    public void sendTradePlateSnapshot(){
+        if(!ready){
+            return ;
         }
+        buyPlateChanges.clear();
+        sellPlateChanges.clear();
+        TradePlateDelta delta = new TradePlateDelta();
+        delta.setSymbol(symbol);
+        delta.setSequence(++plateSequence);
+        delta.setSnapshot(true);
+        delta.setBids(buyTradePlate.getItems());
+        delta.setAsks(sellTradePlate.getItems());
+        delta.setTime(Calendar.getInstance().getTimeInMillis());
+        publisher.sendPlateDelta(delta);
     }
 
     /**
@@ -694,65 +812,35 @@ public class CoinTrader {
      */
     public ExchangeOrder cancelOrder(ExchangeOrder exchangeOrder){
         logger.info("cancelOrder,orderId={}", exchangeOrder.getOrderId());
-        if(exchangeOrder.getType() == ExchangeOrderType.MARKET_PRICE){
+        BookOrder order = orderIndex.get(exchangeOrder.getOrderId());
+        if(order == null || order.getType() != exchangeOrder.getType() || order.getDirection() != exchangeOrder.getDirection()){
+            return null;
+        }
+        if(order.getType() == ExchangeOrderType.MARKET_PRICE){
             //处理市价单
-            Iterator<ExchangeOrder> orderIterator;
-            List<ExchangeOrder> list = null;
-            if(exchangeOrder.getDirection() == ExchangeOrderDirection.BUY){
-                list = this.buyMarketQueue;
-            } else{
-                list = this.sellMarketQueue;
-            }
-            synchronized (list) {
-                orderIterator = list.iterator();
-                while ((orderIterator.hasNext())) {
-                    ExchangeOrder order = orderIterator.next();
-                    if (order.getOrderId().equalsIgnoreCase(exchangeOrder.getOrderId())) {
-                        orderIterator.remove();
-                        onRemoveOrder(order);
-                        return order;
-                    }
-                }
-            }
+            OrderQueue list = order.getDirection() == ExchangeOrderDirection.BUY ? this.buyMarketQueue : this.sellMarketQueue;
+            dequeue(list, order);
         } else {
             //处理限价单
-            TreeMap<BigDecimal,MergeOrder> list = null;
-            Iterator<MergeOrder> mergeOrderIterator;
-            if(exchangeOrder.getDirection() == ExchangeOrderDirection.BUY){
-                list = this.buyLimitPriceQueue;
-            } else{
-                list = this.sellLimitPriceQueue;
-            }
-            synchronized (list) {
-                MergeOrder mergeOrder = list.get(exchangeOrder.getPrice());
-                if(mergeOrder!=null) {
-                    Iterator<ExchangeOrder> orderIterator = mergeOrder.iterator();
-                    while (orderIterator.hasNext()) {
-                        ExchangeOrder order = orderIterator.next();
-                        if (order.getOrderId().equalsIgnoreCase(exchangeOrder.getOrderId())) {
-                            orderIterator.remove();
-                            if (mergeOrder.size() == 0) {
-                                list.remove(exchangeOrder.getPrice());
-                            }
-                            onRemoveOrder(order);
-                            return order;
-                        }
-                    }
-                }
+            PriceLadder list = order.getDirection() == ExchangeOrderDirection.BUY ? this.buyLimitPriceQueue : this.sellLimitPriceQueue;
+            PriceLevel priceLevel = list.get(order.getPrice());
+            dequeue(priceLevel, order);
+            if (priceLevel.size() == 0) {
+                list.remove(order.getPrice());
             }
         }
-        return  null;
+        onRemoveOrder(order.getOrder());
+        return order.getOrder();
     }
 
     public void onRemoveOrder(ExchangeOrder order){
         if (order.getType() == ExchangeOrderType.LIMIT_PRICE) {
             if (order.getDirection() == ExchangeOrderDirection.BUY) {
                 buyTradePlate.remove(order);
-                sendTradePlateMessage(buyTradePlate);
             } else {
                 sellTradePlate.remove(order);
-                sendTradePlateMessage(sellTradePlate);
             }
+            markPlateChanged(order);
         }
     }
 
@@ -777,72 +865,102 @@ public class CoinTrader {
      * @return
      */
     public ExchangeOrder findOrder(String orderId,ExchangeOrderType type,ExchangeOrderDirection direction){
-        if(type == ExchangeOrderType.MARKET_PRICE){
-            LinkedList<ExchangeOrder> list;
-            if(direction == ExchangeOrderDirection.BUY){
-                list = this.buyMarketQueue;
-            } else{
-                list = this.sellMarketQueue;
-            }
-            synchronized (list) {
-                Iterator<ExchangeOrder> orderIterator = list.iterator();
-                while ((orderIterator.hasNext())) {
-                    ExchangeOrder order = orderIterator.next();
-                    if (order.getOrderId().equalsIgnoreCase(orderId)) {
-                        return order;
-                    }
-                }
-            }
-        } else {
-            TreeMap<BigDecimal,MergeOrder> list;
-            if(direction == ExchangeOrderDirection.BUY){
-                list = this.buyLimitPriceQueue;
-            } else{
-                list = this.sellLimitPriceQueue;
-            }
-            synchronized (list) {
-                Iterator<Map.Entry<BigDecimal,MergeOrder>> mergeOrderIterator = list.entrySet().iterator();
-                while (mergeOrderIterator.hasNext()) {
-                    Map.Entry<BigDecimal,MergeOrder> entry = mergeOrderIterator.next();
-                    MergeOrder mergeOrder = entry.getValue();
-                    Iterator<ExchangeOrder> orderIterator = mergeOrder.iterator();
-                    while ((orderIterator.hasNext())) {
-                        ExchangeOrder order = orderIterator.next();
-                        if (order.getOrderId().equalsIgnoreCase(orderId)) {
-                            return order;
-                        }
-                    }
-                }
+        BookOrder order = orderIndex.get(orderId);
+        if(order == null || order.getType() != type || order.getDirection() != direction){
+            return null;
+        }
+        return order.getOrder();
+    }
+
+    /**
+     * 按撮合顺序列出限价单（监控用）
+     * @param direction
+     * @return
+     */
+    public List<ExchangeOrder> getLimitPriceOrders(ExchangeOrderDirection direction){
+        List<ExchangeOrder> orders = new ArrayList<>();
+        PriceLadder queue = direction == ExchangeOrderDirection.BUY ? buyLimitPriceQueue : sellLimitPriceQueue;
+        for(int rank = 0; rank < queue.size(); rank++){
+            addOrders(orders, queue.level(rank));
+        }
+        return orders;
+    }
+
+    /**
+     * 按时间顺序列出市价单（监控用）
+     * @param direction
+     * @return
+     */
+    public List<ExchangeOrder> getMarketPriceOrders(ExchangeOrderDirection direction){
+        List<ExchangeOrder> orders = new ArrayList<>();
+        addOrders(orders, direction == ExchangeOrderDirection.BUY ? buyMarketQueue : sellMarketQueue);
+        return orders;
+    }
+
+    /**
+     * 在簿订单的校验值，主备引擎按同样的输入撮合后应当一致
+     * @return
+     */
+    public long stateHash(){
+        long hash = tradingHalt ? 1 : 0;
+        for(PriceLadder ladder : new PriceLadder[]{buyLimitPriceQueue, sellLimitPriceQueue}){
+            for(int rank = 0; rank < ladder.size(); rank++){
+                hash = hashOrders(hash, ladder.level(rank));
             }
+            hash = 31 * hash + ladder.size();
         }
-        return null;
+        hash = hashOrders(hash, buyMarketQueue);
+        return hashOrders(31 * hash + buyMarketQueue.size(), sellMarketQueue);
     }
 
-    public TreeMap<BigDecimal,MergeOrder> getBuyLimitPriceQueue() {
-        return buyLimitPriceQueue;
+    private long hashOrders(long hash, OrderQueue queue){
+        for(BookOrder order = queue.head(); order != null; order = order.next()){
+            hash = 31 * hash + order.getOrderId().hashCode();
+            hash = 31 * hash + order.getPrice();
+            hash = 31 * hash + order.getAmount();
+            hash = 31 * hash + order.getTradedAmount();
+            hash = 31 * hash + order.getOrder().getTurnover().stripTrailingZeros().hashCode();
+        }
+        return hash;
     }
 
-    public LinkedList<ExchangeOrder> getBuyMarketQueue() {
-        return buyMarketQueue;
+    private void addOrders(List<ExchangeOrder> orders, OrderQueue queue){
+        for(BookOrder order = queue.head(); order != null; order = order.next()){
+            orders.add(order.getOrder());
+        }
     }
 
-    public TreeMap<BigDecimal,MergeOrder> getSellLimitPriceQueue() {
-        return sellLimitPriceQueue;
+    public int getMarketPriceOrderCount(ExchangeOrderDirection direction){
+        return direction == ExchangeOrderDirection.BUY ? buyMarketQueue.size() : sellMarketQueue.size();
     }
 
-    public LinkedList<ExchangeOrder> getSellMarketQueue() {
-        return sellMarketQueue;
+    public String getSymbol() {
+        return symbol;
     }
 
-    public void setKafkaTemplate(KafkaTemplate<String,String> template){
-        this.kafkaTemplate = template;
+    public void setPublisher(ExchangeEventPublisher publisher){
+        this.publisher = publisher;
     }
+
+    public ExchangeEventPublisher getPublisher(){
+        return publisher;
+    }
+    public int getCoinScale(){
+        return coinScale;
+    }
+
+    public int getBaseCoinScale(){
+        return baseCoinScale;
+    }
+
     public void setCoinScale(int scale){
         this.coinScale = scale;
+        this.amountScale = new FixedPoint(scale);
     }
 
     public void setBaseCoinScale(int scale){
         this.baseCoinScale = scale;
+        this.priceScale = new FixedPoint(scale);
     }
 
     public boolean isTradingHalt(){
@@ -882,12 +1000,9 @@ public class CoinTrader {
     }
     public int getLimitPriceOrderCount(ExchangeOrderDirection direction){
         int count = 0;
-        TreeMap<BigDecimal,MergeOrder> queue = direction == ExchangeOrderDirection.BUY ? buyLimitPriceQueue : sellLimitPriceQueue;
-        Iterator<Map.Entry<BigDecimal,MergeOrder>> mergeOrderIterator = queue.entrySet().iterator();
-        while (mergeOrderIterator.hasNext()) {
-            Map.Entry<BigDecimal,MergeOrder> entry = mergeOrderIterator.next();
-            MergeOrder mergeOrder = entry.getValue();
-            count += mergeOrder.size();
+        PriceLadder queue = direction == ExchangeOrderDirection.BUY ? buyLimitPriceQueue : sellLimitPriceQueue;
+        for (int rank = 0; rank < queue.size(); rank++) {
+            count += queue.level(rank).size();
         }
         return count;
     }
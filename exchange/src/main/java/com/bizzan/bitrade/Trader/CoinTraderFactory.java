@@ -1,17 +1,51 @@
 package com.bizzan.bitrade.Trader;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 在 CoinTraderConfig 配置类中 创建 CoinTraderFactory，并一次性创建 CoinTrader 对象， 填充 traderMap
  */
 public class CoinTraderFactory {
+	private Logger logger = LoggerFactory.getLogger(CoinTraderFactory.class);
 
 	private ConcurrentHashMap<String, CoinTrader> traderMap;
+	//每个交易对一个撮合序列器，交易器准备完成后才创建
+	private ConcurrentHashMap<String, CoinTraderSequencer> sequencerMap;
+	private KafkaTemplate<String,String> kafkaTemplate;
+	private ExchangeEventPublisher publisher;
+	//序列器环形队列大小
+	private int ringBufferSize = 4096;
+	//盘口快照间隔，毫秒
+	private long plateSnapshotInterval = 5000;
+	//单个批次最多处理的指令数
+	private int maxBatch = 256;
+	//撮合日志根目录，为空时不记录日志，每个交易对一个子目录
+	private String journalDir;
+	//日志段大小，字节
+	private int journalSegmentSize = 64 * 1024 * 1024;
+	//日志快照间隔，毫秒
+	private long journalSnapshotInterval = 60000;
+	//把撮合日志同步给备用引擎，需要配置撮合日志
+	private boolean replicationEnabled = false;
+	//以备用引擎模式运行，切换为主引擎后变为false
+	private volatile boolean follower = false;
+	//主引擎发送状态校验值的间隔，毫秒
+	private long replicationHashInterval = 10000;
+	//等待同步消息确认的时间，毫秒，0表示不等待
+	private long replicationAckTimeout = 0;
 
 	public CoinTraderFactory() {
 		traderMap = new ConcurrentHashMap<>();
+		sequencerMap = new ConcurrentHashMap<>();
 	}
 
 	//添加，已存在的无法添加
@@ -21,15 +55,31 @@ public class CoinTraderFactory {
 		}
 	}
 
-	//重置，即使已经存在也会覆盖
+	//重置，即使已经存在也会覆盖，旧交易器的序列器一并停止
 	public void resetTrader(String symbol, CoinTrader trader) {
 		traderMap.put(symbol, trader);
+		CoinTraderSequencer sequencer = sequencerMap.remove(symbol);
+		if(sequencer != null) {
+			sequencer.shutdown();
+		}
+	}
+
+	/**
+	 * 移除交易器并停止其序列器，用于把交易对交给其他节点
+	 * @param symbol
+	 */
+	public void removeTrader(String symbol) {
+		traderMap.remove(symbol);
+		CoinTraderSequencer sequencer = sequencerMap.remove(symbol);
+		if(sequencer != null) {
+			sequencer.shutdown();
+		}
 	}
-	
+
 	public boolean containsTrader(String symbol) {
 		return traderMap.containsKey(symbol);
 	}
-	
+
 	public CoinTrader getTrader(String symbol) {
 		return traderMap.get(symbol);
 	}
@@ -38,4 +88,164 @@ public class CoinTraderFactory {
 		return traderMap;
 	}
 
+	/**
+	 * 启动交易对的撮合序列器，此后该交易器只能通过序列器访问
+	 * @param symbol
+	 * @return
+	 */
+	public CoinTraderSequencer startSequencer(String symbol) {
+		CoinTraderSequencer sequencer = createSequencer(symbol);
+		if(sequencer != null) {
+			sequencer.start();
+		}
+		return sequencer;
+	}
+
+	/**
+	 * 启动从其他节点接收的交易器，本地残留的撮合日志属于之前持有时的盘口，先丢弃
+	 * @param symbol
+	 * @return
+	 */
+	public CoinTraderSequencer startHandedOverSequencer(String symbol) {
+		CoinTraderSequencer sequencer = createSequencer(symbol);
+		if(sequencer == null) {
+			return null;
+		}
+		TraderJournal journal = sequencer.getJournal();
+		if(journal != null) {
+			journal.reset(journal.getLastSequence());
+		}
+		sequencer.start();
+		return sequencer;
+	}
+
+	/**
+	 * 从撮合日志恢复交易器，成功后仍需调用 startSequencer 启动
+	 * @param symbol
+	 * @return 未配置日志或没有可用快照时返回false，需按数据库中的订单恢复
+	 */
+	public boolean recoverTrader(String symbol) {
+		CoinTraderSequencer sequencer = createSequencer(symbol);
+		return sequencer != null && sequencer.recover();
+	}
+
+	private CoinTraderSequencer createSequencer(String symbol) {
+		CoinTrader trader = traderMap.get(symbol);
+		if(trader == null) {
+			return null;
+		}
+		return sequencerMap.computeIfAbsent(symbol, key -> {
+			CoinTraderSequencer created = new CoinTraderSequencer(trader, publisher, ringBufferSize);
+			created.setPlateSnapshotInterval(plateSnapshotInterval);
+			created.setMaxBatch(maxBatch);
+			created.setJournal(openJournal(symbol));
+			created.setJournalSnapshotInterval(journalSnapshotInterval);
+			if(replicationEnabled || follower) {
+				if(created.getJournal() == null) {
+					logger.error("replication requires journal,symbol={}", symbol);
+				} else {
+					created.setReplicator(new TraderReplicator(symbol, kafkaTemplate, replicationAckTimeout));
+					created.setReplicationHashInterval(replicationHashInterval);
+				}
+			}
+			created.setFollowing(follower);
+			return created;
+		});
+	}
+
+	private TraderJournal openJournal(String symbol) {
+		if(journalDir == null || journalDir.isEmpty()) {
+			return null;
+		}
+		try {
+			return new TraderJournal(new File(journalDir, symbol.replace("/", "_")), journalSegmentSize);
+		} catch (IOException e) {
+			logger.error("open journal failed,symbol=" + symbol, e);
+			return null;
+		}
+	}
+
+	public CoinTraderSequencer getSequencer(String symbol) {
+		return sequencerMap.get(symbol);
+	}
+
+	/**
+	 * 备用引擎切换为主引擎，所有已启动的交易对都与主引擎对齐时才切换
+	 * @return 尚未对齐的交易对，为空表示已切换
+	 */
+	public synchronized List<String> promote() {
+		List<String> unsynced = new ArrayList<>();
+		sequencerMap.forEach((symbol, sequencer) -> {
+			if(!sequencer.isSynced()) {
+				unsynced.add(symbol);
+			}
+		});
+		if(!unsynced.isEmpty()) {
+			return unsynced;
+		}
+		follower = false;
+		sequencerMap.forEach((symbol, sequencer) -> sequencer.promote());
+		logger.info("engine promoted,symbols={}", sequencerMap.keySet());
+		return unsynced;
+	}
+
+	public boolean isFollower() {
+		return follower;
+	}
+
+	public void shutdown() {
+		sequencerMap.forEach((symbol, sequencer) -> sequencer.shutdown());
+	}
+
+	public void setKafkaTemplate(KafkaTemplate<String,String> kafkaTemplate) {
+		this.kafkaTemplate = kafkaTemplate;
+	}
+
+	public void setPublisher(ExchangeEventPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	public ExchangeEventPublisher getPublisher() {
+		return publisher;
+	}
+
+	public void setRingBufferSize(int ringBufferSize) {
+		this.ringBufferSize = ringBufferSize;
+	}
+
+	public void setPlateSnapshotInterval(long plateSnapshotInterval) {
+		this.plateSnapshotInterval = plateSnapshotInterval;
+	}
+
+	public void setMaxBatch(int maxBatch) {
+		this.maxBatch = maxBatch;
+	}
+
+	public void setJournalDir(String journalDir) {
+		this.journalDir = journalDir;
+	}
+
+	public void setJournalSegmentSize(int journalSegmentSize) {
+		this.journalSegmentSize = journalSegmentSize;
+	}
+
+	public void setJournalSnapshotInterval(long journalSnapshotInterval) {
+		this.journalSnapshotInterval = journalSnapshotInterval;
+	}
+
+	public void setReplicationEnabled(boolean replicationEnabled) {
+		this.replicationEnabled = replicationEnabled;
+	}
+
+	public void setFollower(boolean follower) {
+		this.follower = follower;
+	}
+
+	public void setReplicationHashInterval(long replicationHashInterval) {
+		this.replicationHashInterval = replicationHashInterval;
+	}
+
+	public void setReplicationAckTimeout(long replicationAckTimeout) {
+		this.replicationAckTimeout = replicationAckTimeout;
+	}
 }
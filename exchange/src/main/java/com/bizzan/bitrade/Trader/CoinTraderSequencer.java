@@ -0,0 +1,783 @@
+package com.bizzan.bitrade.Trader;
+
+import com.bizzan.bitrade.entity.ExchangeOrder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * 单交易对的撮合序列器
+ *
+ * Kafka 监听线程只负责把下单、撤单等指令写入预分配的环形队列，
+ * 由一个专属线程按序号顺序取出并调用 CoinTrader，CoinTrader 因此只会被一个线程访问，
+ * 撮合过程不再需要加锁，同样的输入序列总能得到同样的盘口状态。
+ * 一次连续取出的指令作为一个批次，批次结束（队列暂时取空或达到 maxBatch）时才合并发送成交、完成订单和盘口增量。
+ * 配置了撮合日志时，指令在处理前写入日志，重启时由快照加日志尾部恢复交易器（见 TraderJournal）。
+ * 开启同步时，写入日志的记录同时发给备用引擎；备用引擎（following）只应用同步来的记录，撮合结果暂存不发送，
+ * 切换为主引擎（promote）时发出主引擎最后一个输出标记之后的结果，之后按主引擎的方式工作
+ */
+public class CoinTraderSequencer implements Runnable {
+    private Logger logger = LoggerFactory.getLogger(CoinTraderSequencer.class);
+
+    //空闲时先自旋，再让出CPU，最后短暂休眠
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final CoinTrader trader;
+    private final ExchangeEventPublisher publisher;
+    private final TraderCommand[] ring;
+    private final int mask;
+    //生产者已申请的最大序号
+    private final AtomicLong claimSequence = new AtomicLong(-1);
+    //撮合线程已处理完成的序号
+    private final AtomicLong consumedSequence = new AtomicLong(-1);
+    private volatile boolean running = false;
+    //已调用 shutdown，之后发布的指令不保证被处理
+    private volatile boolean stopped = false;
+    private Thread worker;
+    //盘口快照间隔，毫秒，小于等于0时不发送
+    private long plateSnapshotInterval = 5000;
+    private long nextPlateSnapshotTime = 0;
+    //单个批次最多处理的指令数，达到后即使队列未取空也先发送一次输出
+    private int maxBatch = 256;
+    //撮合日志，为null时不记录
+    private TraderJournal journal;
+    //写入日志失败后不再处理需要记录的指令，盘口停在日志的最后位置，重启后由 Kafka 重新投递
+    private volatile boolean journalFailed = false;
+    //日志快照间隔，毫秒
+    private long journalSnapshotInterval = 60000;
+    private long nextJournalSnapshotTime = 0;
+    //正在重放日志，此时不再写入日志
+    private boolean replaying = false;
+    //重放日志中结果已发送过的指令时不再发送任何消息
+    private boolean muted = false;
+    //日志尾部重放过的订单，重启后 Kafka 重复投递时跳过，下次快照后清空
+    private Set<String> replayedOrderIds = new HashSet<>();
+    //向备用引擎同步日志，为null时不同步
+    private TraderReplicator replicator;
+    //主引擎发送状态校验值的间隔，毫秒
+    private long replicationHashInterval = 10000;
+    private long nextReplicationHashTime = 0;
+    //备用引擎模式，只由撮合线程在切换时修改
+    private boolean following = false;
+    //备用引擎已与主引擎的某个快照对齐，之后的记录可以直接应用
+    private volatile boolean synced = false;
+    //备用引擎暂存的退单消息，遇到主引擎的输出标记时丢弃
+    private List<ExchangeOrder> heldCancels = new ArrayList<>();
+    //正在接收的主引擎快照
+    private ReplicationMessage snapshotHead;
+    private List<ExchangeOrder> snapshotOrders;
+    //应用同步记录时复用的指令
+    private final TraderCommand replicaCommand = new TraderCommand();
+
+    /**
+     * @param trader 交易器，之后只能由本序列器的线程访问
+     * @param publisher
+     * @param bufferSize 环形队列大小，会向上取整为2的幂
+     */
+    public CoinTraderSequencer(CoinTrader trader, ExchangeEventPublisher publisher, int bufferSize) {
+        this.trader = trader;
+        this.publisher = publisher;
+        int size = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+        this.ring = new TraderCommand[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new TraderCommand();
+        }
+        this.mask = size - 1;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (journal != null && (!following || synced)) {
+            //以启动时的状态作为新的恢复起点
+            writeJournalSnapshot();
+            nextJournalSnapshotTime = System.currentTimeMillis() + journalSnapshotInterval;
+        }
+        running = true;
+        worker = new Thread(this, "trader-" + trader.getSymbol());
+        worker.setDaemon(true);
+        worker.start();
+        logger.info("sequencer started,symbol={},bufferSize={}", trader.getSymbol(), ring.length);
+    }
+
+    /**
+     * 从最新快照和之后的日志恢复交易器，须在 start 之前调用
+     *
+     * 最后一个输出标记之前的指令只重建状态，之后的指令在崩溃前可能没有发出结果，按正常流程发送；
+     * 备用引擎则把这部分结果暂存到切换为主引擎时
+     * @return 没有可用快照或快照与交易对配置不符时返回false，此时交易器未被修改
+     */
+    public synchronized boolean recover() {
+        if (journal == null || running) {
+            return false;
+        }
+        TraderJournal.Snapshot snapshot = journal.readSnapshot();
+        if (snapshot == null) {
+            return false;
+        }
+        if (!trader.getSymbol().equals(snapshot.getSymbol()) || trader.getCoinScale() != snapshot.getCoinScale()
+                || trader.getBaseCoinScale() != snapshot.getBaseCoinScale()) {
+            logger.warn("journal snapshot mismatch,symbol={},snapshot={}", trader.getSymbol(), snapshot.getSymbol());
+            return false;
+        }
+        List<TraderJournal.Entry> entries;
+        try {
+            entries = journal.read(snapshot.getSequence());
+        } catch (IOException e) {
+            logger.error("journal read failed,symbol=" + trader.getSymbol(), e);
+            return false;
+        }
+        for (ExchangeOrder order : snapshot.getOrders()) {
+            trader.restoreOrder(order);
+        }
+        trader.restoreEventSequences(snapshot.getEventSequences());
+        if (snapshot.isTradingHalt()) {
+            trader.haltTrading();
+        }
+        trader.setReady(true);
+        int lastMarker = -1;
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).isOutputMarker()) {
+                lastMarker = i;
+            }
+        }
+        TraderCommand command = new TraderCommand();
+        replaying = true;
+        for (int i = 0; i < entries.size(); i++) {
+            TraderJournal.Entry entry = entries.get(i);
+            if (entry.isOutputMarker()) {
+                trader.discardOutput();
+                heldCancels.clear();
+                continue;
+            }
+            muted = !following && i < lastMarker;
+            command.fill(entry.getType(), entry.getOrder(), null, null);
+            dispatch(command);
+            if (entry.getType() == TraderCommandType.PLACE) {
+                replayedOrderIds.add(entry.getOrder().getOrderId());
+            }
+        }
+        replaying = false;
+        muted = false;
+        flush();
+        synced = true;
+        logger.info("trader recovered,symbol={},snapshot={},replayed={}", trader.getSymbol(), snapshot.getSequence(), entries.size());
+        return true;
+    }
+
+    /**
+     * 停止撮合线程，已发布但未处理的指令会先处理完
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        stopped = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("sequencer stopped,symbol={},sequence={}", trader.getSymbol(), consumedSequence.get());
+    }
+
+    public long place(ExchangeOrder order) {
+        return publish(TraderCommandType.PLACE, order, null, null);
+    }
+
+    public long cancel(ExchangeOrder order) {
+        return publish(TraderCommandType.CANCEL, order, null, null);
+    }
+
+    public long halt() {
+        return publish(TraderCommandType.HALT, null, null, null);
+    }
+
+    public long resume() {
+        return publish(TraderCommandType.RESUME, null, null, null);
+    }
+
+    /**
+     * 备用引擎收到主引擎同步的消息，交给撮合线程按序应用
+     * @param message
+     * @return
+     */
+    public long replicate(ReplicationMessage message) {
+        return publish(TraderCommandType.REPLICATE, null, null, null, message);
+    }
+
+    /**
+     * 备用引擎切换为主引擎，之前已发布的同步消息会先应用完
+     * @return
+     */
+    public long promote() {
+        return publish(TraderCommandType.PROMOTE, null, null, null);
+    }
+
+    /**
+     * 等待指令处理完成，此时需要记录的指令已写入撮合日志；序列器尚未启动时一直等待到启动后处理完
+     * @param sequence 发布指令时返回的序号
+     * @return 序列器已停止且指令未被处理，或写入日志失败、指令未被执行时返回false
+     */
+    public boolean awaitConsumed(long sequence) {
+        while (consumedSequence.get() < sequence) {
+            if (stopped) {
+                return consumedSequence.get() >= sequence && !journalFailed;
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return !journalFailed;
+    }
+
+    /**
+     * 在撮合线程内执行查询，返回结果与前后指令严格有序
+     * @param query
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> snapshot(Function<CoinTrader, T> query) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        publish(TraderCommandType.SNAPSHOT, null, query, future);
+        return (CompletableFuture<T>) (CompletableFuture<?>) future;
+    }
+
+    /**
+     * 申请序号并写入槽位，队列满时等待撮合线程消费；序列器已停止时抛出 IllegalStateException
+     * @return 指令序号
+     */
+    private long publish(TraderCommandType type, ExchangeOrder order, Function<CoinTrader, ?> query, CompletableFuture<Object> future) {
+        return publish(type, order, query, future, null);
+    }
+
+    private long publish(TraderCommandType type, ExchangeOrder order, Function<CoinTrader, ?> query,
+                         CompletableFuture<Object> future, ReplicationMessage replication) {
+        long sequence = claimSequence.incrementAndGet();
+        long wrapPoint = sequence - ring.length;
+        while (wrapPoint > consumedSequence.get()) {
+            if (stopped) {
+                throw new IllegalStateException("sequencer stopped,symbol=" + trader.getSymbol());
+            }
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        TraderCommand command = ring[(int) (sequence & mask)];
+        command.fill(type, order, query, future, replication);
+        command.publish(sequence);
+        return sequence;
+    }
+
+    @Override
+    public void run() {
+        long next = consumedSequence.get() + 1;
+        int idle = 0;
+        int batched = 0;
+        while (true) {
+            TraderCommand command = ring[(int) (next & mask)];
+            if (command.getSequence() != next) {
+                //队列已取空，本批次结束
+                if (batched > 0) {
+                    flush();
+                    batched = 0;
+                }
+                runScheduledTasks();
+                if (!running && claimSequence.get() < next) {
+                    break;
+                }
+                idle = waitFor(idle);
+                continue;
+            }
+            idle = 0;
+            if (!isReplayed(command) && journal(command)) {
+                dispatch(command);
+            }
+            command.clear();
+            consumedSequence.lazySet(next);
+            next++;
+            if (++batched >= maxBatch) {
+                flush();
+                batched = 0;
+                runScheduledTasks();
+            }
+        }
+        if (journal != null) {
+            //正常停止时留下最新快照，下次启动无需重放
+            writeJournalSnapshot();
+            journal.close();
+        }
+    }
+
+    /**
+     * 发送当前批次累计的成交、完成订单与盘口增量，并在日志中记下输出位置；
+     * 同步给备用引擎的指令记录先于撮合结果发出。备用引擎不发送，结果暂存在交易器中
+     */
+    private void flush() {
+        if (following) {
+            return;
+        }
+        if (replicator != null) {
+            replicator.publish();
+        }
+        try {
+            if (muted) {
+                trader.discardOutput();
+            } else {
+                trader.flush();
+            }
+        } catch (Exception e) {
+            logger.info("====发送撮合结果出错===", e);
+        }
+        markOutput();
+    }
+
+    /**
+     * 撤单成功或退回订单，产生结果时即分配序号，暂存到切换时发送的撤单沿用原序号
+     */
+    private void cancelSuccess(ExchangeOrder order) {
+        trader.markCanceled(order);
+        send(order);
+    }
+
+    private void send(ExchangeOrder order) {
+        if (following) {
+            heldCancels.add(order);
+        } else if (!muted) {
+            publisher.sendCanceledOrder(order);
+        }
+    }
+
+    /**
+     * 写入撮合日志
+     * @return 写入失败或此前已失败时返回false，指令不再执行，避免盘口中出现日志里没有的订单
+     */
+    private boolean journal(TraderCommand command) {
+        if (journal == null || !isJournaled(command.getType())) {
+            return true;
+        }
+        if (journalFailed) {
+            logger.error("journal failed, command dropped,symbol={},type={}", trader.getSymbol(), command.getType());
+            return false;
+        }
+        try {
+            journal.append(command.getType(), command.getOrder());
+            if (replicator != null) {
+                replicator.command(journal.getLastSequence(), command.getType(), command.getOrder());
+            }
+            return true;
+        } catch (IOException e) {
+            journalFailed = true;
+            logger.error("====写入撮合日志出错，停止处理该交易对的订单===", e);
+            return false;
+        }
+    }
+
+    /**
+     * 会改变盘口状态、需要写入日志的指令
+     */
+    private static boolean isJournaled(TraderCommandType type) {
+        return type == TraderCommandType.PLACE || type == TraderCommandType.CANCEL
+                || type == TraderCommandType.HALT || type == TraderCommandType.RESUME;
+    }
+
+    /**
+     * 恢复前已处理过的订单被 Kafka 再次投递时直接跳过，不写日志
+     */
+    private boolean isReplayed(TraderCommand command) {
+        if (command.getType() != TraderCommandType.PLACE || replayedOrderIds.isEmpty()
+                || !replayedOrderIds.remove(command.getOrder().getOrderId())) {
+            return false;
+        }
+        logger.info("duplicate order skipped,orderId={}", command.getOrder().getOrderId());
+        return true;
+    }
+
+    private void markOutput() {
+        if (journal == null || replaying || following) {
+            return;
+        }
+        try {
+            journal.appendOutputMarker();
+            if (replicator != null) {
+                replicator.marker(journal.getLastSequence());
+                replicator.publish();
+            }
+        } catch (IOException e) {
+            logger.error("====写入撮合日志出错===", e);
+        }
+    }
+
+    /**
+     * 批次之间执行的定时任务，此时撮合结果已全部发送
+     */
+    private void runScheduledTasks() {
+        if (following) {
+            //备用引擎不发送盘口，日志快照随主引擎的快照写入
+            return;
+        }
+        checkPlateSnapshot();
+        checkJournalSnapshot();
+        checkReplicationHash();
+    }
+
+    /**
+     * 定时把当前日志序号对应的盘口校验值发给备用引擎
+     */
+    private void checkReplicationHash() {
+        if (replicator == null || replicationHashInterval <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextReplicationHashTime) {
+            return;
+        }
+        nextReplicationHashTime = now + replicationHashInterval;
+        replicator.hash(journal.getLastSequence(), trader.stateHash());
+        replicator.publish();
+    }
+
+    private void checkJournalSnapshot() {
+        if (journal == null || journalSnapshotInterval <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextJournalSnapshotTime) {
+            return;
+        }
+        nextJournalSnapshotTime = now + journalSnapshotInterval;
+        writeJournalSnapshot();
+        //重启后的重复投递只会发生在恢复后不久
+        replayedOrderIds.clear();
+    }
+
+    private void writeJournalSnapshot() {
+        try {
+            journal.writeSnapshot(trader);
+        } catch (Exception e) {
+            logger.error("====写入撮合快照出错===", e);
+        }
+        if (replicator != null && !following) {
+            try {
+                replicator.publishSnapshot(journal.getLastSequence(), trader);
+            } catch (Exception e) {
+                logger.error("====同步撮合快照出错===", e);
+            }
+        }
+    }
+
+    /**
+     * 定时发送完整盘口快照，在撮合线程内执行，与增量消息的序号保持一致
+     */
+    private void checkPlateSnapshot() {
+        if (plateSnapshotInterval <= 0 || !trader.getReady()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextPlateSnapshotTime) {
+            return;
+        }
+        nextPlateSnapshotTime = now + plateSnapshotInterval;
+        try {
+            trader.sendTradePlateSnapshot();
+        } catch (Exception e) {
+            logger.info("====发送盘口快照出错===", e);
+        }
+    }
+
+    private int waitFor(int idle) {
+        if (idle < SPIN_TRIES) {
+            return idle + 1;
+        }
+        if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+            return idle + 1;
+        }
+        LockSupport.parkNanos(PARK_NANOS);
+        return idle;
+    }
+
+    private void dispatch(TraderCommand command) {
+        switch (command.getType()) {
+            case PLACE:
+                onPlace(command.getOrder());
+                break;
+            case CANCEL:
+                onCancel(command.getOrder());
+                break;
+            case HALT:
+                trader.haltTrading();
+                break;
+            case RESUME:
+                trader.resumeTrading();
+                break;
+            case SNAPSHOT:
+                try {
+                    command.getFuture().complete(command.getQuery().apply(trader));
+                } catch (Exception e) {
+                    command.getFuture().completeExceptionally(e);
+                }
+                break;
+            case REPLICATE:
+                applyReplication(command.getReplication());
+                break;
+            case PROMOTE:
+                onPromote();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 备用引擎应用主引擎同步的消息：快照消息收齐后重建交易器，日志记录按序号连续应用
+     */
+    private void applyReplication(ReplicationMessage message) {
+        if (!following || journal == null) {
+            return;
+        }
+        if (message.isSnapshot()) {
+            applySnapshotPart(message);
+            return;
+        }
+        if (!synced || message.getRecords() == null) {
+            return;
+        }
+        for (ReplicationMessage.Record record : message.getRecords()) {
+            long last = journal.getLastSequence();
+            if (record.getHash() != null) {
+                verifyHash(record);
+                if (!synced) {
+                    return;
+                }
+                continue;
+            }
+            if (record.getSequence() <= last) {
+                continue;
+            }
+            if (record.getSequence() != last + 1) {
+                logger.error("replication gap,symbol={},expected={},found={}", trader.getSymbol(), last + 1, record.getSequence());
+                synced = false;
+                return;
+            }
+            try {
+                if (record.isMarker()) {
+                    //主引擎已发出此前的全部结果
+                    journal.appendOutputMarker();
+                    trader.discardOutput();
+                    heldCancels.clear();
+                    continue;
+                }
+                journal.append(record.getType(), record.getOrder());
+            } catch (IOException e) {
+                logger.error("====写入撮合日志出错===", e);
+                synced = false;
+                return;
+            }
+            replicaCommand.fill(record.getType(), record.getOrder(), null, null);
+            dispatch(replicaCommand);
+            replicaCommand.clear();
+        }
+    }
+
+    private void verifyHash(ReplicationMessage.Record record) {
+        if (record.getSequence() != journal.getLastSequence()) {
+            return;
+        }
+        long hash = trader.stateHash();
+        if (hash != record.getHash()) {
+            //等待主引擎的下一个快照重新同步
+            logger.error("replica state mismatch,symbol={},sequence={},leader={},replica={}",
+                    trader.getSymbol(), record.getSequence(), record.getHash(), hash);
+            synced = false;
+        }
+    }
+
+    private void applySnapshotPart(ReplicationMessage message) {
+        if (message.getPart() == 0) {
+            snapshotHead = message;
+            snapshotOrders = new ArrayList<>();
+        } else if (snapshotHead == null || snapshotHead.getSequence() != message.getSequence()
+                || snapshotHead.getPart() + 1 != message.getPart()) {
+            snapshotHead = null;
+            return;
+        }
+        snapshotHead = message;
+        if (message.getOrders() != null) {
+            snapshotOrders.addAll(message.getOrders());
+        }
+        if (message.getPart() + 1 < message.getParts()) {
+            return;
+        }
+        snapshotHead = null;
+        List<ExchangeOrder> orders = snapshotOrders;
+        snapshotOrders = null;
+        if (trader.getCoinScale() != message.getCoinScale() || trader.getBaseCoinScale() != message.getBaseCoinScale()) {
+            logger.error("replication snapshot mismatch,symbol={}", trader.getSymbol());
+            return;
+        }
+        if (!synced || journal.getLastSequence() != message.getSequence()) {
+            trader.initialize();
+            for (ExchangeOrder order : orders) {
+                trader.restoreOrder(order);
+            }
+            trader.restoreEventSequences(message.getEventSequences());
+            if (message.isTradingHalt()) {
+                trader.haltTrading();
+            } else {
+                trader.resumeTrading();
+            }
+            trader.setReady(true);
+            heldCancels.clear();
+            journal.reset(message.getSequence());
+            synced = true;
+            logger.info("replica synced,symbol={},sequence={},orders={}", trader.getSymbol(), message.getSequence(), orders.size());
+        }
+        //与主引擎在同一位置写快照，本地日志随之精简
+        writeJournalSnapshot();
+    }
+
+    /**
+     * 切换为主引擎：发出主引擎最后一个输出标记之后的暂存结果，再以当前状态写快照同步给其他备用引擎
+     */
+    private void onPromote() {
+        if (!following) {
+            return;
+        }
+        following = false;
+        if (!synced) {
+            logger.error("promoted before synced,symbol={}", trader.getSymbol());
+        }
+        List<ExchangeOrder> cancels = heldCancels;
+        heldCancels = new ArrayList<>();
+        try {
+            trader.flush();
+        } catch (Exception e) {
+            logger.info("====发送撮合结果出错===", e);
+        }
+        for (ExchangeOrder order : cancels) {
+            send(order);
+        }
+        markOutput();
+        if (journal != null) {
+            writeJournalSnapshot();
+            nextJournalSnapshotTime = System.currentTimeMillis() + journalSnapshotInterval;
+        }
+        //尽快发送完整盘口，行情端以此为准
+        nextPlateSnapshotTime = 0;
+        logger.info("sequencer promoted,symbol={},sequence={}", trader.getSymbol(), journal == null ? -1 : journal.getLastSequence());
+    }
+
+    private void onPlace(ExchangeOrder order) {
+        // 如果当前币种交易暂停会自动取消订单
+        if (trader.isTradingHalt() || !trader.getReady()) {
+            cancelSuccess(order);
+            return;
+        }
+        try {
+            long startTick = System.currentTimeMillis();
+            trader.trade(order);
+            logger.info("complete trade,{}ms used!", System.currentTimeMillis() - startTick);
+        } catch (Exception e) {
+            logger.info("====交易出错，退回订单===", e);
+            //已产生的部分成交先发出，退回消息排在其后
+            flush();
+            cancelSuccess(order);
+            markOutput();
+        }
+    }
+
+    private void onCancel(ExchangeOrder order) {
+        if (!trader.getReady()) {
+            return;
+        }
+        try {
+            ExchangeOrder result = trader.cancelOrder(order);
+            if (result != null) {
+                //撤单成功消息必须排在此前成交消息之后，否则结算时会先解冻再扣减
+                flush();
+                cancelSuccess(result);
+                markOutput();
+            }
+        } catch (Exception e) {
+            logger.info("====取消订单出错===", e);
+        }
+    }
+
+    public CoinTrader getTrader() {
+        return trader;
+    }
+
+    /**
+     * 已处理完成的最大指令序号
+     * @return
+     */
+    public long getSequence() {
+        return consumedSequence.get();
+    }
+
+    public boolean isJournalFailed() {
+        return journalFailed;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 备用引擎是否已与主引擎对齐，主引擎总是返回true
+     * @return
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public void setPlateSnapshotInterval(long plateSnapshotInterval) {
+        this.plateSnapshotInterval = plateSnapshotInterval;
+    }
+
+    public TraderJournal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(TraderJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setJournalSnapshotInterval(long journalSnapshotInterval) {
+        this.journalSnapshotInterval = journalSnapshotInterval;
+    }
+
+    void setReplicator(TraderReplicator replicator) {
+        this.replicator = replicator;
+    }
+
+    public void setReplicationHashInterval(long replicationHashInterval) {
+        this.replicationHashInterval = replicationHashInterval;
+    }
+
+    /**
+     * 以备用引擎模式启动，须在 recover 与 start 之前调用
+     * @param following
+     */
+    public void setFollowing(boolean following) {
+        this.following = following;
+        this.synced = !following;
+    }
+
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = Math.max(maxBatch, 1);
+    }
+}
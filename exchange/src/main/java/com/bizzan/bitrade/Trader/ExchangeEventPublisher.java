@@ -0,0 +1,95 @@
+package com.bizzan.bitrade.Trader;
+
+import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.codec.ExchangeWireCodec;
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.entity.ExchangeTrade;
+import com.bizzan.bitrade.entity.TradePlateDelta;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+
+import java.util.List;
+
+/**
+ * 撮合结果的发送
+ *
+ * 所有消息以交易对为key发送，同一交易对的成交、完成订单、撤单、盘口消息在各自主题中落在同一分区，
+ * 行情端按分区顺序消费即可保持交易对内的顺序；消息中的序号由交易器在产生结果时分配，发送时不再修改。
+ * 开启二进制格式时消息体使用 ExchangeWireCodec 编码，行情端两种格式都能解析，需先升级行情端再开启
+ */
+public class ExchangeEventPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(ExchangeEventPublisher.class);
+
+    public static final String TRADE_TOPIC = "exchange-trade";
+    public static final String ORDER_COMPLETED_TOPIC = "exchange-order-completed";
+    public static final String ORDER_CANCELED_TOPIC = "exchange-order-cancel-success";
+    public static final String PLATE_TOPIC = "exchange-trade-plate-delta";
+    //单条消息最多携带的成交或订单数
+    private static final int MAX_MESSAGE_SIZE = 1000;
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final KafkaTemplate<String, byte[]> binaryTemplate;
+    private final boolean binary;
+
+    public ExchangeEventPublisher(KafkaTemplate<String, String> kafkaTemplate) {
+        this(kafkaTemplate, null, false);
+    }
+
+    public ExchangeEventPublisher(KafkaTemplate<String, String> kafkaTemplate, KafkaTemplate<String, byte[]> binaryTemplate, boolean binary) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.binaryTemplate = binaryTemplate;
+        this.binary = binary && binaryTemplate != null;
+    }
+
+    public void sendTrades(String symbol, List<ExchangeTrade> trades) {
+        for (int index = 0; index < trades.size(); index += MAX_MESSAGE_SIZE) {
+            List<ExchangeTrade> subTrades = trades.subList(index, Math.min(trades.size(), index + MAX_MESSAGE_SIZE));
+            if (binary) {
+                binaryTemplate.send(TRADE_TOPIC, symbol, ExchangeWireCodec.encodeTrades(subTrades));
+            } else {
+                kafkaTemplate.send(TRADE_TOPIC, symbol, JSON.toJSONString(subTrades));
+            }
+        }
+    }
+
+    public void sendCompletedOrders(String symbol, List<ExchangeOrder> orders) {
+        for (int index = 0; index < orders.size(); index += MAX_MESSAGE_SIZE) {
+            List<ExchangeOrder> subOrders = orders.subList(index, Math.min(orders.size(), index + MAX_MESSAGE_SIZE));
+            ListenableFuture<? extends SendResult<String, ?>> future = binary
+                    ? binaryTemplate.send(ORDER_COMPLETED_TOPIC, symbol, ExchangeWireCodec.encodeOrders(subOrders))
+                    : kafkaTemplate.send(ORDER_COMPLETED_TOPIC, symbol, JSON.toJSONString(subOrders));
+            future.addCallback(new ListenableFutureCallback<SendResult<String, ?>>() {
+                @Override
+                public void onSuccess(SendResult<String, ?> sendResult) {
+                    logger.info(String.format("投递订单消息成功%s,%s", sendResult.getProducerRecord().key(), sendResult.getRecordMetadata()));
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    logger.info("投递订单消息失败" + throwable);
+                }
+            });
+        }
+    }
+
+    public void sendCanceledOrder(ExchangeOrder order) {
+        if (binary) {
+            binaryTemplate.send(ORDER_CANCELED_TOPIC, order.getSymbol(), ExchangeWireCodec.encodeOrder(order));
+        } else {
+            kafkaTemplate.send(ORDER_CANCELED_TOPIC, order.getSymbol(), JSON.toJSONString(order));
+        }
+    }
+
+    public void sendPlateDelta(TradePlateDelta delta) {
+        if (binary) {
+            binaryTemplate.send(PLATE_TOPIC, delta.getSymbol(), ExchangeWireCodec.encodePlateDelta(delta));
+        } else {
+            kafkaTemplate.send(PLATE_TOPIC, delta.getSymbol(), JSON.toJSONString(delta));
+        }
+    }
+}
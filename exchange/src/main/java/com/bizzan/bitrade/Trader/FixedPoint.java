@@ -0,0 +1,35 @@
+package com.bizzan.bitrade.Trader;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 定点数换算：按交易对精度把价格、数量换算为最小单位的整数（tick）
+ *
+ * 撮合引擎内部全部使用 long 比较与加减，只有输出成交记录、完成订单时才换算回 BigDecimal
+ */
+public class FixedPoint {
+    private final int scale;
+
+    public FixedPoint(int scale) {
+        this.scale = scale;
+    }
+
+    /**
+     * BigDecimal 换算为 tick，超出 long 范围时抛出 ArithmeticException
+     * @param value
+     * @param mode 精度超出时的舍入方式
+     * @return
+     */
+    public long toTicks(BigDecimal value, RoundingMode mode) {
+        return value.setScale(scale, mode).unscaledValue().longValueExact();
+    }
+
+    public BigDecimal toDecimal(long ticks) {
+        return BigDecimal.valueOf(ticks, scale);
+    }
+
+    public int getScale() {
+        return scale;
+    }
+}
@@ -0,0 +1,72 @@
+package com.bizzan.bitrade.Trader;
+
+/**
+ * 按时间排序的委托单队列，侵入式双向链表
+ *
+ * 前后指针保存在 BookOrder 上，入队、出队、删除任意订单都是 O(1)，且不产生额外节点对象。
+ * 一个订单同一时刻只能在一个队列中
+ */
+public class OrderQueue {
+    private BookOrder head;
+    private BookOrder tail;
+    private int size;
+
+    //最后位置添加一个
+    public void add(BookOrder order) {
+        if (order.queue != null) {
+            throw new IllegalStateException("order " + order.getOrderId() + " is already queued");
+        }
+        order.queue = this;
+        order.prev = tail;
+        order.next = null;
+        if (tail == null) {
+            head = order;
+        } else {
+            tail.next = order;
+        }
+        tail = order;
+        size++;
+    }
+
+    /**
+     * 从队列中删除订单
+     * @param order
+     * @return 订单不在本队列时返回false
+     */
+    public boolean remove(BookOrder order) {
+        if (order.queue != this) {
+            return false;
+        }
+        if (order.prev == null) {
+            head = order.next;
+        } else {
+            order.prev.next = order.next;
+        }
+        if (order.next == null) {
+            tail = order.prev;
+        } else {
+            order.next.prev = order.prev;
+        }
+        order.queue = null;
+        order.prev = null;
+        order.next = null;
+        size--;
+        return true;
+    }
+
+    /**
+     * 最早的订单，遍历时用 BookOrder.next() 向后取
+     * @return 队列为空时返回null
+     */
+    public BookOrder head() {
+        return head;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,150 @@
+package com.bizzan.bitrade.Trader;
+
+import com.bizzan.bitrade.entity.ExchangeOrderDirection;
+
+import java.util.Arrays;
+
+/**
+ * 限价单的价位索引，按 long 价格排序
+ *
+ * 价位保存在有序数组中，最优价位在数组末尾：取最优价、删除最优价都是 O(1)，
+ * 按价格查找为二分查找，新增价位只需移动比它差的价位（新挂单通常靠近盘口，移动量很小）。
+ * 卖盘以负价格作为排序键，买卖盘共用同一套升序逻辑
+ */
+public class PriceLadder {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ExchangeOrderDirection direction;
+    //排序键，升序，末尾为最优价
+    private long[] keys;
+    private PriceLevel[] levels;
+    private int size;
+
+    public PriceLadder(ExchangeOrderDirection direction) {
+        this.direction = direction;
+        this.keys = new long[INITIAL_CAPACITY];
+        this.levels = new PriceLevel[INITIAL_CAPACITY];
+    }
+
+    private long toKey(long price) {
+        return direction == ExchangeOrderDirection.BUY ? price : -price;
+    }
+
+    /**
+     * 按价格查找价位
+     * @param price
+     * @return 不存在时返回null
+     */
+    public PriceLevel get(long price) {
+        int index = Arrays.binarySearch(keys, 0, size, toKey(price));
+        return index >= 0 ? levels[index] : null;
+    }
+
+    /**
+     * 新增价位，价格已存在时不做处理
+     * @param level
+     */
+    public void add(PriceLevel level) {
+        long key = toKey(level.getPrice());
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            levels = Arrays.copyOf(levels, size << 1);
+        }
+        if (index < size) {
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(levels, index, levels, index + 1, size - index);
+        }
+        keys[index] = key;
+        levels[index] = level;
+        size++;
+    }
+
+    /**
+     * 删除指定价格的价位
+     * @param price
+     * @return 被删除的价位，不存在时返回null
+     */
+    public PriceLevel remove(long price) {
+        int index = Arrays.binarySearch(keys, 0, size, toKey(price));
+        if (index < 0) {
+            return null;
+        }
+        PriceLevel level = levels[index];
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(levels, index + 1, levels, index, moved);
+        }
+        levels[--size] = null;
+        return level;
+    }
+
+    /**
+     * 按撮合顺序删除价位，删除最优价位（rank为0）时不移动数组
+     * @param rank
+     * @return
+     */
+    public PriceLevel removeAt(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("rank " + rank + ", size " + size);
+        }
+        int index = size - 1 - rank;
+        PriceLevel level = levels[index];
+        if (rank > 0) {
+            System.arraycopy(keys, index + 1, keys, index, rank);
+            System.arraycopy(levels, index + 1, levels, index, rank);
+        }
+        levels[--size] = null;
+        return level;
+    }
+
+    /**
+     * 最优价位（买盘最高价，卖盘最低价）
+     * @return 盘口为空时返回null
+     */
+    public PriceLevel best() {
+        return size == 0 ? null : levels[size - 1];
+    }
+
+    /**
+     * 删除最优价位
+     * @return
+     */
+    public PriceLevel removeBest() {
+        if (size == 0) {
+            return null;
+        }
+        PriceLevel level = levels[--size];
+        levels[size] = null;
+        return level;
+    }
+
+    /**
+     * 按撮合顺序取价位，0为最优价位，用于无分配的遍历
+     * @param rank
+     * @return
+     */
+    public PriceLevel level(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("rank " + rank + ", size " + size);
+        }
+        return levels[size - 1 - rank];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public ExchangeOrderDirection getDirection() {
+        return direction;
+    }
+}
@@ -0,0 +1,37 @@
+package com.bizzan.bitrade.Trader;
+
+import java.math.BigDecimal;
+
+/**
+ * 同一价格的限价单合并为一个价位，内部按时间排序
+ */
+public class PriceLevel extends OrderQueue {
+    private final long price;
+    //成交输出用的价格，创建价位时换算一次
+    private final BigDecimal priceValue;
+
+    public PriceLevel(long price, BigDecimal priceValue) {
+        this.price = price;
+        this.priceValue = priceValue;
+    }
+
+    public long getPrice() {
+        return price;
+    }
+
+    public BigDecimal getPriceValue() {
+        return priceValue;
+    }
+
+    /**
+     * 订单总供应量
+     * @return
+     */
+    public long getTotalAmount() {
+        long total = 0;
+        for(BookOrder item = head(); item != null; item = item.next()) {
+            total += item.getAmount();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,178 @@
+package com.bizzan.bitrade.Trader;
+
+import com.bizzan.bitrade.entity.ExchangeOrder;
+
+import java.util.List;
+
+/**
+ * 主引擎同步给备用引擎的日志消息，以交易对为key发送到 exchange-journal，同一交易对的消息严格有序
+ *
+ * 日志消息（snapshot=false）携带一个批次的日志记录；快照消息（snapshot=true）按 part/parts 分片携带在簿订单，
+ * 备用引擎收齐全部分片后以此为起点，之后只应用序号连续的日志记录
+ */
+public class ReplicationMessage {
+    private String symbol;
+    private boolean snapshot;
+    //快照对应的日志序号
+    private long sequence;
+    private int part;
+    private int parts;
+    private boolean tradingHalt;
+    //成交、完成订单、撤单消息已分配的最后序号
+    private long[] eventSequences;
+    private int coinScale;
+    private int baseCoinScale;
+    //快照分片中的订单，按撮合顺序排列
+    private List<ExchangeOrder> orders;
+    private List<Record> records;
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public int getPart() {
+        return part;
+    }
+
+    public void setPart(int part) {
+        this.part = part;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    public void setParts(int parts) {
+        this.parts = parts;
+    }
+
+    public boolean isTradingHalt() {
+        return tradingHalt;
+    }
+
+    public void setTradingHalt(boolean tradingHalt) {
+        this.tradingHalt = tradingHalt;
+    }
+
+    public long[] getEventSequences() {
+        return eventSequences;
+    }
+
+    public void setEventSequences(long[] eventSequences) {
+        this.eventSequences = eventSequences;
+    }
+
+    public int getCoinScale() {
+        return coinScale;
+    }
+
+    public void setCoinScale(int coinScale) {
+        this.coinScale = coinScale;
+    }
+
+    public int getBaseCoinScale() {
+        return baseCoinScale;
+    }
+
+    public void setBaseCoinScale(int baseCoinScale) {
+        this.baseCoinScale = baseCoinScale;
+    }
+
+    public List<ExchangeOrder> getOrders() {
+        return orders;
+    }
+
+    public void setOrders(List<ExchangeOrder> orders) {
+        this.orders = orders;
+    }
+
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    public void setRecords(List<Record> records) {
+        this.records = records;
+    }
+
+    /**
+     * 一条日志记录：指令（type 不为空）、输出标记（marker）或状态校验值（hash，不占用序号）
+     */
+    public static class Record {
+        private long sequence;
+        private TraderCommandType type;
+        private ExchangeOrder order;
+        private boolean marker;
+        private Long hash;
+
+        public Record() {
+        }
+
+        public Record(long sequence, TraderCommandType type, ExchangeOrder order, boolean marker, Long hash) {
+            this.sequence = sequence;
+            this.type = type;
+            this.order = order;
+            this.marker = marker;
+            this.hash = hash;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public void setSequence(long sequence) {
+            this.sequence = sequence;
+        }
+
+        public TraderCommandType getType() {
+            return type;
+        }
+
+        public void setType(TraderCommandType type) {
+            this.type = type;
+        }
+
+        public ExchangeOrder getOrder() {
+            return order;
+        }
+
+        public void setOrder(ExchangeOrder order) {
+            this.order = order;
+        }
+
+        public boolean isMarker() {
+            return marker;
+        }
+
+        public void setMarker(boolean marker) {
+            this.marker = marker;
+        }
+
+        public Long getHash() {
+            return hash;
+        }
+
+        public void setHash(Long hash) {
+            this.hash = hash;
+        }
+    }
+}
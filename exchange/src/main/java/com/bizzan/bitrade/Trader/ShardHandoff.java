@@ -0,0 +1,186 @@
+package com.bizzan.bitrade.Trader;
+
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.entity.ExchangeOrderDirection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 交易对在撮合节点之间迁移时的交接消息，以交易对为key发送到 exchange-shard-handoff
+ *
+ * 在簿订单按 part/parts 分片发送，目标节点收齐后重建交易器；分界位置之前的订单、撤单消息已由原节点处理
+ */
+public class ShardHandoff {
+    public static final String TOPIC = "exchange-shard-handoff";
+    //每个分片的订单数，避免单条消息超过 Kafka 大小限制
+    private static final int PART_SIZE = 1000;
+
+    private String symbol;
+    //交出交易对的节点
+    private String source;
+    //接收交易对的节点
+    private String target;
+    private int part;
+    private int parts;
+    private boolean tradingHalt;
+    //成交、完成订单、撤单消息已分配的最后序号
+    private long[] eventSequences;
+    private int coinScale;
+    private int baseCoinScale;
+    //在簿订单，按撮合顺序排列
+    private List<ExchangeOrder> orders;
+    //交易对在订单主题中的分区，以及原节点已读到的位置
+    private int orderPartition;
+    private long orderOffset;
+    //交易对在撤单主题中的分区，以及原节点已读到的位置
+    private int cancelPartition;
+    private long cancelOffset;
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public int getPart() {
+        return part;
+    }
+
+    public void setPart(int part) {
+        this.part = part;
+    }
+
+    public int getParts() {
+        return parts;
+    }
+
+    public void setParts(int parts) {
+        this.parts = parts;
+    }
+
+    public boolean isTradingHalt() {
+        return tradingHalt;
+    }
+
+    public void setTradingHalt(boolean tradingHalt) {
+        this.tradingHalt = tradingHalt;
+    }
+
+    public long[] getEventSequences() {
+        return eventSequences;
+    }
+
+    public void setEventSequences(long[] eventSequences) {
+        this.eventSequences = eventSequences;
+    }
+
+    public int getCoinScale() {
+        return coinScale;
+    }
+
+    public void setCoinScale(int coinScale) {
+        this.coinScale = coinScale;
+    }
+
+    public int getBaseCoinScale() {
+        return baseCoinScale;
+    }
+
+    public void setBaseCoinScale(int baseCoinScale) {
+        this.baseCoinScale = baseCoinScale;
+    }
+
+    public List<ExchangeOrder> getOrders() {
+        return orders;
+    }
+
+    public void setOrders(List<ExchangeOrder> orders) {
+        this.orders = orders;
+    }
+
+    public int getOrderPartition() {
+        return orderPartition;
+    }
+
+    public void setOrderPartition(int orderPartition) {
+        this.orderPartition = orderPartition;
+    }
+
+    public long getOrderOffset() {
+        return orderOffset;
+    }
+
+    public void setOrderOffset(long orderOffset) {
+        this.orderOffset = orderOffset;
+    }
+
+    public int getCancelPartition() {
+        return cancelPartition;
+    }
+
+    public void setCancelPartition(int cancelPartition) {
+        this.cancelPartition = cancelPartition;
+    }
+
+    public long getCancelOffset() {
+        return cancelOffset;
+    }
+
+    public void setCancelOffset(long cancelOffset) {
+        this.cancelOffset = cancelOffset;
+    }
+
+    /**
+     * 按交接消息头把交易器的在簿订单拆成分片，须在撮合线程内调用
+     * @param head 带有分界位置的交接消息
+     * @param trader
+     * @return
+     */
+    public static List<ShardHandoff> split(ShardHandoff head, CoinTrader trader) {
+        List<ExchangeOrder> orders = new ArrayList<>();
+        orders.addAll(trader.getLimitPriceOrders(ExchangeOrderDirection.BUY));
+        orders.addAll(trader.getLimitPriceOrders(ExchangeOrderDirection.SELL));
+        orders.addAll(trader.getMarketPriceOrders(ExchangeOrderDirection.BUY));
+        orders.addAll(trader.getMarketPriceOrders(ExchangeOrderDirection.SELL));
+        int parts = Math.max(1, (orders.size() + PART_SIZE - 1) / PART_SIZE);
+        List<ShardHandoff> result = new ArrayList<>(parts);
+        for (int part = 0; part < parts; part++) {
+            ShardHandoff handoff = new ShardHandoff();
+            handoff.setSymbol(head.getSymbol());
+            handoff.setSource(head.getSource());
+            handoff.setTarget(head.getTarget());
+            handoff.setPart(part);
+            handoff.setParts(parts);
+            handoff.setTradingHalt(trader.isTradingHalt());
+            handoff.setEventSequences(trader.getEventSequences());
+            handoff.setCoinScale(trader.getCoinScale());
+            handoff.setBaseCoinScale(trader.getBaseCoinScale());
+            handoff.setOrders(new ArrayList<>(orders.subList(part * PART_SIZE, Math.min(orders.size(), (part + 1) * PART_SIZE))));
+            handoff.setOrderPartition(head.getOrderPartition());
+            handoff.setOrderOffset(head.getOrderOffset());
+            handoff.setCancelPartition(head.getCancelPartition());
+            handoff.setCancelOffset(head.getCancelOffset());
+            result.add(handoff);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,203 @@
+package com.bizzan.bitrade.Trader;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 交易对到撮合节点的分配，以及订单、撤单消息的路由
+ *
+ * 交易对默认按一致性哈希分配到 nodes 中的节点，每个节点 virtualNodes 个虚拟节点，增减节点时只有少量交易对换节点；
+ * assignments 中显式指定的交易对优先。未配置 nodeId 时不分片，本节点持有全部交易对。
+ *
+ * 订单与撤单消息以交易对为key发送，同一交易对的消息在各自主题中位于同一分区。每个节点以独立的消费组读取全部分区，
+ * 只把本节点持有的交易对交给撮合序列器。迁移交易对时，原节点停止路由，并以该分区已读到的位置作为分界交出盘口；
+ * 目标节点只处理分界之后的消息，必要时把分区回退到分界处重读，重读时只处理迁移过来的交易对
+ */
+public class ShardRouter {
+    public static final String ORDER_TOPIC = "exchange-order";
+    public static final String CANCEL_TOPIC = "exchange-order-cancel";
+
+    private final String nodeId;
+    //一致性哈希环：虚拟节点哈希 -> 节点
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    //显式指定或运行中迁移过的交易对
+    private final Map<String, String> assignments = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    //各分区已读到的最大位置，小于等于它的消息是回退后的重读
+    private final ConcurrentHashMap<TopicPartition, AtomicLong> highWater = new ConcurrentHashMap<>();
+
+    /**
+     * 不分片，本节点持有全部交易对
+     */
+    public ShardRouter() {
+        this(null, Collections.<String>emptyList(), Collections.<String, String>emptyMap(), 0);
+    }
+
+    /**
+     * @param nodeId 本节点标识，为空时不分片
+     * @param nodes 参与一致性哈希的全部节点
+     * @param assignments 显式指定的 交易对 -> 节点
+     * @param virtualNodes 每个节点的虚拟节点数
+     */
+    public ShardRouter(String nodeId, List<String> nodes, Map<String, String> assignments, int virtualNodes) {
+        this.nodeId = nodeId == null || nodeId.isEmpty() ? null : nodeId;
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+        this.assignments.putAll(assignments);
+    }
+
+    public boolean isEnabled() {
+        return nodeId != null;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 交易对当前所在的节点，不分片时返回null
+     * @param symbol
+     * @return
+     */
+    public String ownerOf(String symbol) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String owner = assignments.get(symbol);
+        if (owner != null || ring.isEmpty()) {
+            return owner;
+        }
+        SortedMap<Long, String> tail = ring.tailMap(hash(symbol));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    public boolean owns(String symbol) {
+        return !isEnabled() || nodeId.equals(ownerOf(symbol));
+    }
+
+    /**
+     * 判断一条订单或撤单消息是否交给本节点的撮合序列器，由消费线程按分区顺序调用
+     * @param symbol
+     * @param partition 消息所在分区
+     * @param offset 消息位置
+     * @return
+     */
+    public boolean route(String symbol, TopicPartition partition, long offset) {
+        Route route = routes.computeIfAbsent(symbol, key -> new Route());
+        synchronized (route) {
+            AtomicLong read = highWater.computeIfAbsent(partition, key -> new AtomicLong(-1));
+            boolean replay = offset <= read.get();
+            if (!replay) {
+                read.set(offset);
+            }
+            if (!owns(symbol)) {
+                return false;
+            }
+            int index = topicIndex(partition.topic());
+            if (offset <= route.handled[index] || (replay && !route.handedOver)) {
+                return false;
+            }
+            route.handled[index] = offset;
+            return true;
+        }
+    }
+
+    /**
+     * 把交易对交给目标节点，此后本节点不再路由它的消息
+     * @param symbol
+     * @param target 目标节点
+     * @param orderPartition 交易对在订单主题中的分区
+     * @param cancelPartition 交易对在撤单主题中的分区
+     * @return 带有分界位置的交接消息，交易对不在本节点时返回null
+     */
+    public ShardHandoff release(String symbol, String target, int orderPartition, int cancelPartition) {
+        Route route = routes.computeIfAbsent(symbol, key -> new Route());
+        synchronized (route) {
+            if (!owns(symbol)) {
+                return null;
+            }
+            assignments.put(symbol, target);
+            ShardHandoff handoff = new ShardHandoff();
+            handoff.setSymbol(symbol);
+            handoff.setSource(nodeId);
+            handoff.setTarget(target);
+            handoff.setOrderPartition(orderPartition);
+            handoff.setOrderOffset(highWater(new TopicPartition(ORDER_TOPIC, orderPartition)));
+            handoff.setCancelPartition(cancelPartition);
+            handoff.setCancelOffset(highWater(new TopicPartition(CANCEL_TOPIC, cancelPartition)));
+            return handoff;
+        }
+    }
+
+    /**
+     * 接收迁移过来的交易对，只路由分界之后的消息
+     * @param handoff
+     */
+    public void accept(ShardHandoff handoff) {
+        Route route = routes.computeIfAbsent(handoff.getSymbol(), key -> new Route());
+        synchronized (route) {
+            assignments.put(handoff.getSymbol(), nodeId);
+            route.handedOver = true;
+            route.handled[0] = handoff.getOrderOffset();
+            route.handled[1] = handoff.getCancelOffset();
+        }
+    }
+
+    /**
+     * 分区已读到的最大位置，尚未读取时返回-1
+     * @param partition
+     * @return
+     */
+    public long highWater(TopicPartition partition) {
+        AtomicLong read = highWater.get(partition);
+        return read == null ? -1 : read.get();
+    }
+
+    /**
+     * 与 Kafka 默认分区器相同的算法，计算以交易对为key的消息所在分区
+     * @param symbol
+     * @param partitions 主题的分区数
+     * @return
+     */
+    public static int partitionFor(String symbol, int partitions) {
+        return Utils.toPositive(Utils.murmur2(symbol.getBytes(StandardCharsets.UTF_8))) % partitions;
+    }
+
+    private static int topicIndex(String topic) {
+        return CANCEL_TOPIC.equals(topic) ? 1 : 0;
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Route {
+        //通过迁移接收的交易对，分区回退重读时需要处理
+        boolean handedOver = false;
+        //订单、撤单主题中最后一条已处理消息的位置
+        final long[] handled = {-1, -1};
+    }
+}
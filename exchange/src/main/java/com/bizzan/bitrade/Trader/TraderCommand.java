@@ -0,0 +1,75 @@
+package com.bizzan.bitrade.Trader;
+
+import com.bizzan.bitrade.entity.ExchangeOrder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 环形队列中的指令槽位，启动时一次性分配，之后循环复用
+ *
+ * 生产者先写入指令内容，最后写 sequence 发布；消费者看到 sequence 等于期望序号后才读取内容
+ */
+public class TraderCommand {
+    //已发布的序号，-1 表示槽位从未使用
+    private volatile long sequence = -1;
+    private TraderCommandType type;
+    private ExchangeOrder order;
+    private Function<CoinTrader, ?> query;
+    private CompletableFuture<Object> future;
+    private ReplicationMessage replication;
+
+    void fill(TraderCommandType type, ExchangeOrder order, Function<CoinTrader, ?> query, CompletableFuture<Object> future) {
+        fill(type, order, query, future, null);
+    }
+
+    void fill(TraderCommandType type, ExchangeOrder order, Function<CoinTrader, ?> query, CompletableFuture<Object> future, ReplicationMessage replication) {
+        this.type = type;
+        this.order = order;
+        this.query = query;
+        this.future = future;
+        this.replication = replication;
+    }
+
+    /**
+     * 发布指令，写入 sequence 之前的字段对消费者可见
+     * @param sequence
+     */
+    void publish(long sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * 处理完成后释放引用，避免槽位长期持有订单对象
+     */
+    void clear() {
+        this.order = null;
+        this.query = null;
+        this.future = null;
+        this.replication = null;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public TraderCommandType getType() {
+        return type;
+    }
+
+    public ExchangeOrder getOrder() {
+        return order;
+    }
+
+    Function<CoinTrader, ?> getQuery() {
+        return query;
+    }
+
+    CompletableFuture<Object> getFuture() {
+        return future;
+    }
+
+    ReplicationMessage getReplication() {
+        return replication;
+    }
+}
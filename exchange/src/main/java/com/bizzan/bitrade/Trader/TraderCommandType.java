@@ -0,0 +1,21 @@
+package com.bizzan.bitrade.Trader;
+
+/**
+ * 撮合序列器中的指令类型
+ */
+public enum TraderCommandType {
+    //下单（进入撮合）
+    PLACE,
+    //撤单
+    CANCEL,
+    //暂停交易
+    HALT,
+    //恢复交易
+    RESUME,
+    //在撮合线程内读取交易器状态（盘口、订单队列等）
+    SNAPSHOT,
+    //备用引擎应用主引擎同步过来的日志
+    REPLICATE,
+    //备用引擎切换为主引擎
+    PROMOTE
+}
@@ -0,0 +1,470 @@
+package com.bizzan.bitrade.Trader;
+
+import com.bizzan.bitrade.codec.ExchangeWireCodec;
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.entity.ExchangeOrderDirection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 单交易对的撮合输入日志与盘口快照
+ *
+ * 撮合线程在处理指令前把下单、撤单、暂停、恢复按顺序追加到内存映射的日志段中，
+ * 每次撮合结果发送到 Kafka 后再追加一条输出标记；定时把在簿订单写成二进制快照。
+ * 重启时加载最新快照，只重放快照之后的日志，标记之前的指令不再重复发送撮合结果。
+ *
+ * 日志段写入页缓存即返回，进程崩溃不会丢失，机器掉电时以最近一次快照与段滚动时的刷盘为准。
+ * 非线程安全，只由撮合序列器的线程访问
+ */
+public class TraderJournal {
+    private static Logger logger = LoggerFactory.getLogger(TraderJournal.class);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SUFFIX = ".dat";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int SNAPSHOT_MAGIC = 0x43545331;
+    //版本2增加了成交、完成订单、撤单消息的序号
+    private static final int SNAPSHOT_VERSION = 2;
+    //记录头：内容长度 + CRC32
+    private static final int HEADER_SIZE = 8;
+    //输出标记的记录类型，指令记录使用 TraderCommandType 的序号
+    private static final byte OUTPUT_MARKER = -1;
+    //保留的快照个数，最新快照损坏时退回上一个
+    private static final int KEEP_SNAPSHOTS = 2;
+
+    private final File dir;
+    private final int segmentSize;
+    private MappedByteBuffer segment;
+    //最后一条记录的序号
+    private long lastSequence;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * 打开日志目录，新记录总是写入新的日志段
+     * @param dir 交易对的日志目录
+     * @param segmentSize 单个日志段的大小，字节
+     * @throws IOException
+     */
+    public TraderJournal(File dir, int segmentSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create journal dir " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        long sequence = 0;
+        long[] snapshots = listSequences(SNAPSHOT_PREFIX);
+        if (snapshots.length > 0) {
+            sequence = snapshots[snapshots.length - 1];
+        }
+        long[] segments = listSequences(SEGMENT_PREFIX);
+        if (segments.length > 0) {
+            long start = segments[segments.length - 1];
+            List<Entry> entries = new ArrayList<>();
+            readSegment(segmentFile(start), start, entries);
+            long last = entries.isEmpty() ? start - 1 : entries.get(entries.size() - 1).getSequence();
+            sequence = Math.max(sequence, last);
+        }
+        this.lastSequence = sequence;
+    }
+
+    /**
+     * 追加一条指令，在指令交给交易器处理之前调用
+     * @param type
+     * @param order 暂停、恢复指令为null
+     * @throws IOException
+     */
+    public void append(TraderCommandType type, ExchangeOrder order) throws IOException {
+        append((byte) type.ordinal(), order);
+    }
+
+    /**
+     * 追加输出标记，表示之前所有指令的撮合结果都已交给 Kafka
+     * @throws IOException
+     */
+    public void appendOutputMarker() throws IOException {
+        append(OUTPUT_MARKER, null);
+    }
+
+    private void append(byte type, ExchangeOrder order) throws IOException {
+        long sequence = lastSequence + 1;
+        recordBytes.reset();
+        recordOut.writeLong(sequence);
+        recordOut.writeByte(type);
+        if (order != null) {
+            ExchangeWireCodec.writeOrder(recordOut, order);
+        }
+        int length = recordBytes.size();
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IOException("journal record too large: " + length);
+        }
+        if (segment == null || segment.remaining() < HEADER_SIZE + length) {
+            roll(sequence);
+        }
+        byte[] body = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(body, 0, length);
+        segment.putInt(length);
+        segment.putInt((int) crc.getValue());
+        segment.put(body, 0, length);
+        lastSequence = sequence;
+    }
+
+    /**
+     * 开始新的日志段，段文件名为其第一条记录的序号；段文件预先按大小分配，未写入部分全为0
+     */
+    private void roll(long startSequence) throws IOException {
+        closeSegment();
+        File file = segmentFile(startSequence);
+        //同名文件只可能是未写入任何有效记录的旧段
+        Files.deleteIfExists(file.toPath());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private void closeSegment() {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+    }
+
+    /**
+     * 读取指定序号之后的全部记录，遇到损坏的记录或序号不连续时停止
+     * @param afterSequence 快照对应的序号
+     * @return
+     * @throws IOException
+     */
+    public List<Entry> read(long afterSequence) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long[] segments = listSequences(SEGMENT_PREFIX);
+        long expected = afterSequence + 1;
+        for (int i = 0; i < segments.length; i++) {
+            //下一段的起始序号不大于期望序号时，本段记录都已包含在快照中
+            if (i + 1 < segments.length && segments[i + 1] <= expected) {
+                continue;
+            }
+            List<Entry> segmentEntries = new ArrayList<>();
+            readSegment(segmentFile(segments[i]), segments[i], segmentEntries);
+            for (Entry entry : segmentEntries) {
+                if (entry.getSequence() < expected) {
+                    continue;
+                }
+                if (entry.getSequence() > expected) {
+                    logger.warn("journal gap,dir={},expected={},found={}", dir, expected, entry.getSequence());
+                    return entries;
+                }
+                entries.add(entry);
+                expected++;
+            }
+        }
+        return entries;
+    }
+
+    private void readSegment(File file, long startSequence, List<Entry> entries) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        int position = 0;
+        CRC32 checksum = new CRC32();
+        while (position + HEADER_SIZE <= data.length) {
+            int length = readInt(data, position);
+            if (length <= 0 || position + HEADER_SIZE + length > data.length) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(data, position + HEADER_SIZE, length);
+            if ((int) checksum.getValue() != readInt(data, position + 4)) {
+                logger.warn("journal record corrupted,file={},position={}", file, position);
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, position + HEADER_SIZE, length));
+            long sequence = in.readLong();
+            byte type = in.readByte();
+            if (type == OUTPUT_MARKER) {
+                entries.add(new Entry(sequence, null, null));
+            } else {
+                TraderCommandType commandType = TraderCommandType.values()[type];
+                ExchangeOrder order = in.available() > 0 ? ExchangeWireCodec.readOrder(in) : null;
+                entries.add(new Entry(sequence, commandType, order));
+            }
+            position += HEADER_SIZE + length;
+        }
+    }
+
+    private static int readInt(byte[] data, int position) {
+        return (data[position] & 0xff) << 24 | (data[position + 1] & 0xff) << 16
+                | (data[position + 2] & 0xff) << 8 | (data[position + 3] & 0xff);
+    }
+
+    /**
+     * 把交易器的在簿订单写成快照，对应当前最后一条日志记录；调用前撮合结果应已全部发送
+     *
+     * 先写临时文件并刷盘，再改名为正式文件，随后清理过期的快照与日志段
+     * @param trader
+     * @throws IOException
+     */
+    public void writeSnapshot(CoinTrader trader) throws IOException {
+        long sequence = lastSequence;
+        File file = snapshotFile(sequence);
+        File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+        try (FileOutputStream fos = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos, 64 * 1024), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(sequence);
+            out.writeUTF(trader.getSymbol());
+            out.writeInt(trader.getCoinScale());
+            out.writeInt(trader.getBaseCoinScale());
+            out.writeBoolean(trader.isTradingHalt());
+            for (long eventSequence : trader.getEventSequences()) {
+                out.writeLong(eventSequence);
+            }
+            //按撮合顺序写入，恢复时依次入队即可还原价位与时间优先级
+            List<ExchangeOrder> orders = new ArrayList<>();
+            orders.addAll(trader.getLimitPriceOrders(ExchangeOrderDirection.BUY));
+            orders.addAll(trader.getLimitPriceOrders(ExchangeOrderDirection.SELL));
+            orders.addAll(trader.getMarketPriceOrders(ExchangeOrderDirection.BUY));
+            orders.addAll(trader.getMarketPriceOrders(ExchangeOrderDirection.SELL));
+            out.writeInt(orders.size());
+            for (ExchangeOrder order : orders) {
+                ExchangeWireCodec.writeOrder(out, order);
+            }
+            out.flush();
+            long value = checked.getChecksum().getValue();
+            out.writeLong(value);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("journal snapshot written,symbol={},sequence={}", trader.getSymbol(), sequence);
+        purge();
+    }
+
+    /**
+     * 读取最新的有效快照
+     * @return 没有可用快照时返回null
+     */
+    public Snapshot readSnapshot() {
+        long[] snapshots = listSequences(SNAPSHOT_PREFIX);
+        for (int i = snapshots.length - 1; i >= 0; i--) {
+            File file = snapshotFile(snapshots[i]);
+            try {
+                Snapshot snapshot = readSnapshot(file);
+                if (snapshot != null) {
+                    return snapshot;
+                }
+                logger.warn("journal snapshot corrupted,file={}", file);
+            } catch (IOException e) {
+                logger.warn("journal snapshot unreadable,file=" + file, e);
+            }
+        }
+        return null;
+    }
+
+    private Snapshot readSnapshot(File file) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (data.length < 8) {
+            return null;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, data.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipBytes(data.length - 8);
+        if (in.readLong() != checksum.getValue()) {
+            return null;
+        }
+        in = new DataInputStream(new ByteArrayInputStream(data, 0, data.length - 8));
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+            return null;
+        }
+        int version = in.readInt();
+        if (version < 1 || version > SNAPSHOT_VERSION) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot();
+        snapshot.sequence = in.readLong();
+        snapshot.symbol = in.readUTF();
+        snapshot.coinScale = in.readInt();
+        snapshot.baseCoinScale = in.readInt();
+        snapshot.tradingHalt = in.readBoolean();
+        if (version >= 2) {
+            snapshot.eventSequences = new long[]{in.readLong(), in.readLong(), in.readLong()};
+        }
+        int size = in.readInt();
+        snapshot.orders = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            snapshot.orders.add(ExchangeWireCodec.readOrder(in));
+        }
+        return snapshot;
+    }
+
+    /**
+     * 保留最近的快照，删除更早快照以及完全被保留快照覆盖的日志段
+     */
+    private void purge() {
+        long[] snapshots = listSequences(SNAPSHOT_PREFIX);
+        if (snapshots.length == 0) {
+            return;
+        }
+        int oldest = Math.max(0, snapshots.length - KEEP_SNAPSHOTS);
+        for (int i = 0; i < oldest; i++) {
+            delete(snapshotFile(snapshots[i]));
+        }
+        long covered = snapshots[oldest];
+        long[] segments = listSequences(SEGMENT_PREFIX);
+        for (int i = 0; i + 1 < segments.length && segments[i + 1] <= covered + 1; i++) {
+            delete(segmentFile(segments[i]));
+        }
+    }
+
+    private void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            logger.warn("journal file delete failed,file=" + file, e);
+        }
+    }
+
+    /**
+     * 丢弃全部日志与快照，从指定序号重新开始，用于备用引擎按主引擎的快照重新同步
+     * @param sequence 新起点对应的序号
+     */
+    public void reset(long sequence) {
+        closeSegment();
+        for (long start : listSequences(SEGMENT_PREFIX)) {
+            delete(segmentFile(start));
+        }
+        for (long snapshot : listSequences(SNAPSHOT_PREFIX)) {
+            delete(snapshotFile(snapshot));
+        }
+        lastSequence = sequence;
+    }
+
+    public void close() {
+        closeSegment();
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SUFFIX));
+    }
+
+    private File snapshotFile(long sequence) {
+        return new File(dir, String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SUFFIX));
+    }
+
+    /**
+     * 列出指定前缀文件的序号，从小到大排列
+     */
+    private long[] listSequences(String prefix) {
+        String[] names = dir.list((parent, name) -> name.startsWith(prefix) && name.endsWith(SUFFIX));
+        if (names == null) {
+            return new long[0];
+        }
+        long[] sequences = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            sequences[i] = Long.parseLong(names[i].substring(prefix.length(), names[i].length() - SUFFIX.length()));
+        }
+        Arrays.sort(sequences);
+        return sequences;
+    }
+
+    /**
+     * 日志记录，输出标记的 type 为null
+     */
+    public static class Entry {
+        private final long sequence;
+        private final TraderCommandType type;
+        private final ExchangeOrder order;
+
+        Entry(long sequence, TraderCommandType type, ExchangeOrder order) {
+            this.sequence = sequence;
+            this.type = type;
+            this.order = order;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public TraderCommandType getType() {
+            return type;
+        }
+
+        public ExchangeOrder getOrder() {
+            return order;
+        }
+
+        public boolean isOutputMarker() {
+            return type == null;
+        }
+    }
+
+    /**
+     * 盘口快照，orders 按撮合顺序排列
+     */
+    public static class Snapshot {
+        private long sequence;
+        private String symbol;
+        private int coinScale;
+        private int baseCoinScale;
+        private boolean tradingHalt;
+        private long[] eventSequences;
+        private List<ExchangeOrder> orders;
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public int getCoinScale() {
+            return coinScale;
+        }
+
+        public int getBaseCoinScale() {
+            return baseCoinScale;
+        }
+
+        public boolean isTradingHalt() {
+            return tradingHalt;
+        }
+
+        public long[] getEventSequences() {
+            return eventSequences;
+        }
+
+        public List<ExchangeOrder> getOrders() {
+            return orders;
+        }
+    }
+}
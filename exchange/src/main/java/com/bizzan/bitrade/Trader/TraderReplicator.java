@@ -0,0 +1,112 @@
+package com.bizzan.bitrade.Trader;
+
+import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.entity.ExchangeOrderDirection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主引擎一侧的日志同步，由撮合序列器的线程调用
+ *
+ * 写入撮合日志的记录先在内存中累计，批次结束时在发送撮合结果之前作为一条消息发出；
+ * 写快照时把在簿订单按 SNAPSHOT_PART_SIZE 分片发出，供新启动或校验失败的备用引擎重新同步
+ */
+class TraderReplicator {
+    private Logger logger = LoggerFactory.getLogger(TraderReplicator.class);
+
+    static final String TOPIC = "exchange-journal";
+    //快照每个分片的订单数，避免单条消息超过 Kafka 大小限制
+    private static final int SNAPSHOT_PART_SIZE = 1000;
+
+    private final String symbol;
+    private final KafkaTemplate<String,String> kafkaTemplate;
+    //等待同步消息确认的时间，毫秒，0表示不等待
+    private final long ackTimeout;
+    private List<ReplicationMessage.Record> records = new ArrayList<>();
+
+    TraderReplicator(String symbol, KafkaTemplate<String,String> kafkaTemplate, long ackTimeout) {
+        this.symbol = symbol;
+        this.kafkaTemplate = kafkaTemplate;
+        this.ackTimeout = ackTimeout;
+    }
+
+    /**
+     * 记录一条指令；订单在撮合中会被修改，这里保存的是进入撮合之前的副本
+     */
+    void command(long sequence, TraderCommandType type, ExchangeOrder order) {
+        ExchangeOrder copy = order == null ? null : JSON.parseObject(JSON.toJSONString(order), ExchangeOrder.class);
+        records.add(new ReplicationMessage.Record(sequence, type, copy, false, null));
+    }
+
+    void marker(long sequence) {
+        records.add(new ReplicationMessage.Record(sequence, null, null, true, null));
+    }
+
+    void hash(long sequence, long hash) {
+        records.add(new ReplicationMessage.Record(sequence, null, null, false, hash));
+    }
+
+    /**
+     * 发出累计的记录
+     */
+    void publish() {
+        if (records.isEmpty()) {
+            return;
+        }
+        ReplicationMessage message = new ReplicationMessage();
+        message.setSymbol(symbol);
+        message.setRecords(records);
+        send(message);
+        records = new ArrayList<>();
+    }
+
+    /**
+     * 发出交易器的完整快照，对应日志序号 sequence；之前累计的记录先发出
+     * @param sequence
+     * @param trader
+     */
+    void publishSnapshot(long sequence, CoinTrader trader) {
+        publish();
+        List<ExchangeOrder> orders = new ArrayList<>();
+        orders.addAll(trader.getLimitPriceOrders(ExchangeOrderDirection.BUY));
+        orders.addAll(trader.getLimitPriceOrders(ExchangeOrderDirection.SELL));
+        orders.addAll(trader.getMarketPriceOrders(ExchangeOrderDirection.BUY));
+        orders.addAll(trader.getMarketPriceOrders(ExchangeOrderDirection.SELL));
+        int parts = Math.max(1, (orders.size() + SNAPSHOT_PART_SIZE - 1) / SNAPSHOT_PART_SIZE);
+        for (int part = 0; part < parts; part++) {
+            ReplicationMessage message = new ReplicationMessage();
+            message.setSymbol(symbol);
+            message.setSnapshot(true);
+            message.setSequence(sequence);
+            message.setPart(part);
+            message.setParts(parts);
+            message.setTradingHalt(trader.isTradingHalt());
+            message.setEventSequences(trader.getEventSequences());
+            message.setCoinScale(trader.getCoinScale());
+            message.setBaseCoinScale(trader.getBaseCoinScale());
+            message.setOrders(orders.subList(part * SNAPSHOT_PART_SIZE, Math.min(orders.size(), (part + 1) * SNAPSHOT_PART_SIZE)));
+            send(message);
+        }
+    }
+
+    private void send(ReplicationMessage message) {
+        ListenableFuture<SendResult<String, String>> future = kafkaTemplate.send(TOPIC, symbol, JSON.toJSONString(message));
+        if (ackTimeout <= 0) {
+            return;
+        }
+        try {
+            future.get(ackTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            logger.error("====同步撮合日志未确认,symbol=" + symbol + "===", e);
+        }
+    }
+}
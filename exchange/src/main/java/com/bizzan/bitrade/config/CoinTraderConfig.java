@@ -1,36 +1,157 @@
 package com.bizzan.bitrade.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.core.KafkaTemplate;
 
 import com.bizzan.bitrade.Trader.CoinTrader;
 import com.bizzan.bitrade.Trader.CoinTraderFactory;
+import com.bizzan.bitrade.Trader.ExchangeEventPublisher;
+import com.bizzan.bitrade.Trader.ShardRouter;
 import com.bizzan.bitrade.entity.ExchangeCoin;
 import com.bizzan.bitrade.service.ExchangeCoinService;
 import com.bizzan.bitrade.service.ExchangeOrderService;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Configuration
 public class CoinTraderConfig {
 
+    //撮合序列器环形队列大小
+    @Value("${exchange.sequencer.ring-size:4096}")
+    private int ringBufferSize;
+
+    //完整盘口快照的发送间隔，毫秒
+    @Value("${exchange.plate.snapshot-interval:5000}")
+    private long plateSnapshotInterval;
+
+    //撮合线程单个批次最多处理的指令数，批次结束时合并发送撮合结果
+    @Value("${exchange.sequencer.max-batch:256}")
+    private int maxBatch;
+
+    //撮合日志目录，为空时不记录日志，重启按数据库中的订单恢复
+    @Value("${exchange.journal.dir:}")
+    private String journalDir;
+
+    //撮合日志段大小，字节
+    @Value("${exchange.journal.segment-size:67108864}")
+    private int journalSegmentSize;
+
+    //撮合快照间隔，毫秒
+    @Value("${exchange.journal.snapshot-interval:60000}")
+    private long journalSnapshotInterval;
+
+    //把撮合日志同步给备用引擎（exchange-journal），需要配置撮合日志
+    @Value("${exchange.replication.enabled:false}")
+    private boolean replicationEnabled;
+
+    //以备用引擎模式启动，只应用主引擎同步的日志，切换为主引擎后才接收订单
+    @Value("${exchange.replication.follower:false}")
+    private boolean follower;
+
+    //主引擎发送盘口校验值的间隔，毫秒
+    @Value("${exchange.replication.hash-interval:10000}")
+    private long replicationHashInterval;
+
+    //主引擎等待同步消息确认的时间，毫秒，0表示不等待
+    @Value("${exchange.replication.ack-timeout:0}")
+    private long replicationAckTimeout;
+
+    //本节点标识，为空时不分片，本节点撮合全部交易对
+    @Value("${exchange.shard.node-id:}")
+    private String shardNodeId;
+
+    //参与分片的全部节点，逗号分隔
+    @Value("${exchange.shard.nodes:}")
+    private String shardNodes;
+
+    //显式指定的交易对节点，格式 BTC/USDT=node-1,ETH/USDT=node-2，优先于一致性哈希
+    @Value("${exchange.shard.assignments:}")
+    private String shardAssignments;
+
+    //一致性哈希中每个节点的虚拟节点数
+    @Value("${exchange.shard.virtual-nodes:160}")
+    private int shardVirtualNodes;
+
+    //撮合结果是否使用二进制格式发送，需先升级行情端
+    @Value("${exchange.wire.binary:false}")
+    private boolean wireBinary;
+
+    /**
+     * 撮合结果发送
+     * @param kafkaTemplate
+     * @param binaryKafkaTemplate
+     * @return
+     */
+    @Bean
+    public ExchangeEventPublisher exchangeEventPublisher(KafkaTemplate<String,String> kafkaTemplate, KafkaTemplate<String,byte[]> binaryKafkaTemplate){
+        log.info("exchange wire binary={}", wireBinary);
+        return new ExchangeEventPublisher(kafkaTemplate, binaryKafkaTemplate, wireBinary);
+    }
+
+    /**
+     * 交易对分片路由
+     * @return
+     */
+    @Bean
+    public ShardRouter shardRouter(){
+        if(shardNodeId == null || shardNodeId.trim().isEmpty()){
+            return new ShardRouter();
+        }
+        List<String> nodes = new ArrayList<>();
+        for(String node : shardNodes.split(",")){
+            if(!node.trim().isEmpty()){
+                nodes.add(node.trim());
+            }
+        }
+        Map<String, String> assignments = new HashMap<>();
+        for(String assignment : shardAssignments.split(",")){
+            String[] pair = assignment.split("=");
+            if(pair.length == 2){
+                assignments.put(pair[0].trim(), pair[1].trim());
+            }
+        }
+        log.info("shard node={},nodes={},assignments={}", shardNodeId, nodes, assignments);
+        return new ShardRouter(shardNodeId.trim(), nodes, assignments, shardVirtualNodes);
+    }
+
     /**
      * 配置交易处理类
      * @param exchangeCoinService
      * @param kafkaTemplate
+     * @param publisher
      * @return
      */
-    @Bean
-    public CoinTraderFactory getCoinTrader(ExchangeCoinService exchangeCoinService, KafkaTemplate<String,String> kafkaTemplate, ExchangeOrderService exchangeOrderService){
+    @Bean(destroyMethod = "shutdown")
+    public CoinTraderFactory getCoinTrader(ExchangeCoinService exchangeCoinService, KafkaTemplate<String,String> kafkaTemplate, ExchangeEventPublisher publisher, ExchangeOrderService exchangeOrderService, ShardRouter shardRouter){
         CoinTraderFactory factory = new CoinTraderFactory();
+        factory.setKafkaTemplate(kafkaTemplate);
+        factory.setPublisher(publisher);
+        factory.setRingBufferSize(ringBufferSize);
+        factory.setPlateSnapshotInterval(plateSnapshotInterval);
+        factory.setMaxBatch(maxBatch);
+        factory.setJournalDir(journalDir);
+        factory.setJournalSegmentSize(journalSegmentSize);
+        factory.setJournalSnapshotInterval(journalSnapshotInterval);
+        factory.setReplicationEnabled(replicationEnabled);
+        factory.setFollower(follower);
+        factory.setReplicationHashInterval(replicationHashInterval);
+        factory.setReplicationAckTimeout(replicationAckTimeout);
         List<ExchangeCoin> coins = exchangeCoinService.findAllEnabled();
         for(ExchangeCoin coin:coins) {
+            // 分片部署时只创建分配给本节点的交易对
+            if(!shardRouter.owns(coin.getSymbol())) {
+                continue;
+            }
             log.info("init trader,symbol={}",coin.getSymbol());
             CoinTrader trader = new CoinTrader(coin.getSymbol());
-            trader.setKafkaTemplate(kafkaTemplate);
+            trader.setPublisher(publisher);
             trader.setBaseCoinScale(coin.getBaseCoinScale());
             trader.setCoinScale(coin.getCoinScale());
             trader.setPublishType(coin.getPublishType());
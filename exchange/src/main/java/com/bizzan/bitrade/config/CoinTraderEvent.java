@@ -1,6 +1,5 @@
 package com.bizzan.bitrade.config;
 
-import com.alibaba.fastjson.JSON;
 import com.bizzan.bitrade.Trader.CoinTrader;
 import com.bizzan.bitrade.Trader.CoinTraderFactory;
 import com.bizzan.bitrade.entity.ExchangeOrder;
@@ -13,7 +12,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
@@ -32,8 +30,6 @@ public class CoinTraderEvent implements ApplicationListener<ContextRefreshedEven
     private ExchangeOrderService exchangeOrderService;
     @Autowired
     private ExchangeOrderDetailService exchangeOrderDetailService;
-    @Autowired
-    private KafkaTemplate<String,String> kafkaTemplate;
 
     @Override
     public void onApplicationEvent(ContextRefreshedEvent contextRefreshedEvent) {
@@ -43,6 +39,20 @@ public class CoinTraderEvent implements ApplicationListener<ContextRefreshedEven
         Map<String,CoinTrader> traders = coinTraderFactory.getTraderMap();
         traders.forEach((symbol,trader) ->{
         	log.info("======CoinTrader Process: " + symbol + "======");
+            // 备用引擎不读取数据库，由本地日志或主引擎同步的快照建立盘口
+            if(coinTraderFactory.isFollower()){
+                boolean recovered = coinTraderFactory.recoverTrader(symbol);
+                log.info("Initialize: follower, recovered from journal(" + recovered + "), symbol( " + symbol + ")");
+                coinTraderFactory.startSequencer(symbol);
+                return;
+            }
+            // 有撮合日志时从快照和日志尾部恢复，不再逐单查询成交明细；
+            // 订单消息写入日志后才提交位移，未写入日志的订单由 Kafka 重新投递（见 ExchangeOrderConsumer）
+            if(coinTraderFactory.recoverTrader(symbol)){
+                log.info("Initialize: recovered from journal, symbol( " + symbol + ")");
+                coinTraderFactory.startSequencer(symbol);
+                return;
+            }
             // 2. 根据代币对符号，加载所有交易中的委托单
             List<ExchangeOrder> orders = exchangeOrderService.findAllTradingOrderBySymbol(symbol);
             log.info("Initialize: find all trading orders, total count( " + orders.size() + ")");
@@ -81,9 +91,11 @@ public class CoinTraderEvent implements ApplicationListener<ContextRefreshedEven
             //判断已完成的订单发送消息通知
             if(completedOrders.size() > 0){
             	log.info("Initialize: completedOrders total count( " + tradingOrders.size() + ")");
-                kafkaTemplate.send("exchange-order-completed", JSON.toJSONString(completedOrders));
+                trader.getPublisher().sendCompletedOrders(symbol, completedOrders);
             }
             trader.setReady(true);
+            // 历史订单恢复完成后，交易器交由撮合序列器独占
+            coinTraderFactory.startSequencer(symbol);
         });
     }
 
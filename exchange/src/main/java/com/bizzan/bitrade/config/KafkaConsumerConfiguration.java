@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -36,8 +37,20 @@ public class KafkaConsumerConfiguration {
 	private int concurrency;
 	@Value("${spring.kafka.consumer.maxPollRecordsConfig}")
 	private int maxPollRecordsConfig;
+	//备用引擎启动时不接收订单，只接收主引擎同步的日志
+	@Value("${exchange.replication.follower:false}")
+	private boolean follower;
+	@Value("${exchange.replication.group-id:exchange-standby}")
+	private String replicationGroupId;
+	//分片部署时每个节点独立消费全部分区，只处理本节点持有的交易对
+	@Value("${exchange.shard.node-id:}")
+	private String shardNodeId;
 
 	public Map<String, Object> consumerConfigs() {
+		return consumerConfigs(shardNodeId.isEmpty() ? groupId : groupId + "-" + shardNodeId);
+	}
+
+	public Map<String, Object> consumerConfigs(String groupId) {
 		Map<String, Object> propsMap = new HashMap<>();
 		propsMap.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, servers);
 		propsMap.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, enableAutoCommit);
@@ -62,6 +75,41 @@ public class KafkaConsumerConfiguration {
 		factory.setConcurrency(concurrency);
 		factory.getContainerProperties().setPollTimeout(1500);
 		factory.setBatchListener(true);
+		factory.setAutoStartup(!follower);
+		return factory;
+	}
+
+	/**
+	 * 下单、撤单消息，消息体为 ExchangeWireCodec 二进制或 JSON，由监听方解码
+	 * @return
+	 */
+	@Bean
+	public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, byte[]>> binaryListenerContainerFactory() {
+		Map<String, Object> props = consumerConfigs();
+		props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+		ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+		factory.setConsumerFactory(new DefaultKafkaConsumerFactory<String, byte[]>(props));
+		factory.setConcurrency(concurrency);
+		factory.getContainerProperties().setPollTimeout(1500);
+		factory.setBatchListener(true);
+		// 撮合日志写入失败时监听方法抛出异常，本批 offset 不提交
+		factory.getContainerProperties().setAckOnError(false);
+		factory.setAutoStartup(!follower);
+		return factory;
+	}
+
+	/**
+	 * 备用引擎接收同步日志，同一交易对的消息必须按序处理
+	 * @return
+	 */
+	@Bean
+	public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, String>> journalListenerContainerFactory() {
+		ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+		factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(consumerConfigs(replicationGroupId)));
+		factory.setConcurrency(1);
+		factory.getContainerProperties().setPollTimeout(1500);
+		factory.setBatchListener(true);
+		factory.setAutoStartup(follower);
 		return factory;
 	}
 
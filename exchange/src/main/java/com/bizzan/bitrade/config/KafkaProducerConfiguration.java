@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -35,7 +36,7 @@ public class KafkaProducerConfiguration {
 		props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
 		props.put(ProducerConfig.LINGER_MS_CONFIG, linger);
 		props.put(ProducerConfig.BUFFER_MEMORY_CONFIG, bufferMemory);
-//		props.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, "com.bizzan.bitrade.kafka.kafkaPartitioner");
+		props.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, "com.bizzan.bitrade.kafka.kafkaPartitioner");
 		props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
 		props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
 		return props;
@@ -50,4 +51,15 @@ public class KafkaProducerConfiguration {
 		return new KafkaTemplate<String, String>(producerFactory());
 	}
 
+	/**
+	 * 二进制消息，消息体由 ExchangeWireCodec 编码
+	 * @return
+	 */
+	@Bean
+	public KafkaTemplate<String, byte[]> binaryKafkaTemplate() {
+		Map<String, Object> props = producerConfigs();
+		props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+		return new KafkaTemplate<String, byte[]>(new DefaultKafkaProducerFactory<String, byte[]>(props));
+	}
+
 }
@@ -0,0 +1,43 @@
+package com.bizzan.bitrade.consumer;
+
+import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.Trader.CoinTraderFactory;
+import com.bizzan.bitrade.Trader.CoinTraderSequencer;
+import com.bizzan.bitrade.Trader.ReplicationMessage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 备用引擎接收主引擎同步的撮合日志，按交易对写入撮合序列器；主引擎不启动此监听
+ */
+@Slf4j
+@Component
+public class ExchangeJournalConsumer {
+
+    @Autowired
+    private CoinTraderFactory traderFactory;
+
+    @KafkaListener(id = "exchange-journal",topics = "exchange-journal",containerFactory = "journalListenerContainerFactory")
+    public void onJournal(List<ConsumerRecord<String,String>> records){
+        if(!traderFactory.isFollower()){
+            return;
+        }
+        for (int i = 0; i < records.size(); i++) {
+            ConsumerRecord<String,String> record  = records.get(i);
+            ReplicationMessage message = JSON.parseObject(record.value(), ReplicationMessage.class);
+            if(message == null){
+                continue;
+            }
+            CoinTraderSequencer sequencer = traderFactory.getSequencer(message.getSymbol());
+            if(sequencer != null){
+                sequencer.replicate(message);
+            }
+        }
+    }
+}
@@ -1,79 +1,156 @@
 package com.bizzan.bitrade.consumer;
 
-import com.alibaba.fastjson.JSON;
-import com.bizzan.bitrade.Trader.CoinTrader;
 import com.bizzan.bitrade.Trader.CoinTraderFactory;
+import com.bizzan.bitrade.Trader.CoinTraderSequencer;
+import com.bizzan.bitrade.Trader.ShardRouter;
+import com.bizzan.bitrade.codec.ExchangeWireCodec;
 import com.bizzan.bitrade.entity.ExchangeOrder;
 import com.bizzan.bitrade.service.ExchangeCoinService;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 订单消息只写入对应交易对的撮合序列器，撮合在序列器线程内完成
+ * 分片部署时只处理本节点持有的交易对（见 ShardRouter）
+ * 消息体可以是 ExchangeWireCodec 二进制或 JSON，由 ExchangeWireCodec 按首字节区分
+ * 开启撮合日志时，一批消息对应的指令都写入日志后才返回，容器随后提交位移；
+ * 重启时日志之外的订单和撤单由 Kafka 重新投递，已重放过的订单由序列器跳过。
+ * 写入日志失败后抛出异常，之后的消息都不再处理、不提交 offset，需排除故障后重启
+ */
 @Slf4j
 @Component
-public class ExchangeOrderConsumer {
+public class ExchangeOrderConsumer implements ConsumerSeekAware {
 
     @Autowired
     private CoinTraderFactory traderFactory;
-    
+
+
     @Autowired
-    private KafkaTemplate<String,String> kafkaTemplate;
-
-    @KafkaListener(topics = "exchange-order",containerFactory = "kafkaListenerContainerFactory")
-    public void onOrderSubmitted(List<ConsumerRecord<String,String>> records){
-        for (int i = 0; i < records.size(); i++) {
-            ConsumerRecord<String,String> record  = records.get(i);
-            log.info("接收订单>>topic={},value={},size={}",record.topic(),record.value(),records.size());
-            ExchangeOrder order = JSON.parseObject(record.value(), ExchangeOrder.class);
-            if(order == null){
-                return ;
-            }
-            CoinTrader trader = traderFactory.getTrader(order.getSymbol());
-            // 如果当前币种交易暂停会自动取消订单
-            if (trader.isTradingHalt() || !trader.getReady()) {
-                // 撮合器未准备完成，撤回当前等待的订单
-                kafkaTemplate.send("exchange-order-cancel-success", JSON.toJSONString(order));
-            } else {
-                try {
-                    long startTick = System.currentTimeMillis();
-                    trader.trade(order);
-                    log.info("complete trade,{}ms used!", System.currentTimeMillis() - startTick);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    log.info("====交易出错，退回订单===",e);
-                    kafkaTemplate.send("exchange-order-cancel-success", JSON.toJSONString(order));
+    private ShardRouter shardRouter;
+
+    //有序列器写入日志失败
+    private volatile boolean journalFailed = false;
+
+    //各分区所在消费线程的回调，接收迁移的交易对后用于回退分区
+    private final Map<TopicPartition, ConsumerSeekCallback> seekCallbacks = new ConcurrentHashMap<>();
+
+    @KafkaListener(id = "exchange-order",topics = "exchange-order",containerFactory = "binaryListenerContainerFactory")
+    public void onOrderSubmitted(List<ConsumerRecord<String,byte[]>> records){
+        checkJournal();
+        Map<CoinTraderSequencer, Long> published = new HashMap<>();
+        try {
+            for (int i = 0; i < records.size(); i++) {
+                ConsumerRecord<String,byte[]> record  = records.get(i);
+                ExchangeOrder order = ExchangeWireCodec.decodeOrder(record.value());
+                if(order == null){
+                    return ;
+                }
+                log.info("接收订单>>topic={},orderId={},size={}",record.topic(),order.getOrderId(),records.size());
+                if(!shardRouter.route(order.getSymbol(), new TopicPartition(record.topic(), record.partition()), record.offset())){
+                    continue;
+                }
+                CoinTraderSequencer sequencer = traderFactory.getSequencer(order.getSymbol());
+                if (sequencer == null) {
+                    // 撮合器未准备完成，撤回当前等待的订单
+                    traderFactory.getPublisher().sendCanceledOrder(order);
+                } else {
+                    // 交易暂停、撮合异常的退单由序列器处理
+                    published.put(sequencer, sequencer.place(order));
                 }
             }
+        } finally {
+            awaitJournaled(published);
         }
     }
 
-    @KafkaListener(topics = "exchange-order-cancel",containerFactory = "kafkaListenerContainerFactory")
-    public void onOrderCancel(List<ConsumerRecord<String,String>> records){
-        for (int i = 0; i < records.size(); i++) {
-            ConsumerRecord<String,String> record  = records.get(i);
-            log.info("取消订单topic={},key={},size={}",record.topic(),record.key(),records.size());
-            ExchangeOrder order = JSON.parseObject(record.value(), ExchangeOrder.class);
-            if(order == null){
-                return ;
-            }
-            CoinTrader trader = traderFactory.getTrader(order.getSymbol());
-            if(trader.getReady()) {
-                try {
-                    ExchangeOrder result = trader.cancelOrder(order);
-                    if (result != null) {
-                        kafkaTemplate.send("exchange-order-cancel-success", JSON.toJSONString(result));
-                    }
-                }catch (Exception e){
-                    log.info("====取消订单出错===",e);
-                    e.printStackTrace();
+    @KafkaListener(id = "exchange-order-cancel",topics = "exchange-order-cancel",containerFactory = "binaryListenerContainerFactory")
+    public void onOrderCancel(List<ConsumerRecord<String,byte[]>> records){
+        checkJournal();
+        Map<CoinTraderSequencer, Long> published = new HashMap<>();
+        try {
+            for (int i = 0; i < records.size(); i++) {
+                ConsumerRecord<String,byte[]> record  = records.get(i);
+                log.info("取消订单topic={},key={},size={}",record.topic(),record.key(),records.size());
+                ExchangeOrder order = ExchangeWireCodec.decodeOrder(record.value());
+                if(order == null){
+                    return ;
+                }
+                if(!shardRouter.route(order.getSymbol(), new TopicPartition(record.topic(), record.partition()), record.offset())){
+                    continue;
+                }
+                CoinTraderSequencer sequencer = traderFactory.getSequencer(order.getSymbol());
+                if(sequencer != null) {
+                    published.put(sequencer, sequencer.cancel(order));
                 }
             }
+        } finally {
+            awaitJournaled(published);
         }
     }
+
+    /**
+     * 等待本批次发布到各序列器的最后一条指令写入撮合日志，未开启日志的序列器无需等待；
+     * 有指令未写入日志时抛出异常，本批 offset 不提交
+     * @param published 序列器 -> 本批次发布的最大指令序号
+     */
+    private void awaitJournaled(Map<CoinTraderSequencer, Long> published) {
+        published.forEach((sequencer, sequence) -> {
+            if(sequencer.getJournal() != null && !sequencer.awaitConsumed(sequence)){
+                log.error("command not journaled,symbol={},sequence={}", sequencer.getTrader().getSymbol(), sequence);
+                journalFailed = true;
+            }
+        });
+        checkJournal();
+    }
+
+    /**
+     * 写入日志失败后，同一分区内其他交易对的消息也不能提交 offset，否则重启后无法重新投递失败的消息
+     */
+    private void checkJournal() {
+        if(journalFailed){
+            throw new IllegalStateException("exchange journal failed, offsets are not committed until restart");
+        }
+    }
+
+    /**
+     * 把分区回退到指定位置重新读取，分区尚未读到该位置时无需回退
+     * @param partition
+     * @param offset
+     */
+    public void rewind(TopicPartition partition, long offset) {
+        if(shardRouter.highWater(partition) < offset){
+            return;
+        }
+        ConsumerSeekCallback callback = seekCallbacks.get(partition);
+        if(callback == null){
+            log.warn("no consumer for partition {}, rewind skipped", partition);
+            return;
+        }
+        log.info("rewind {} to {}", partition, offset);
+        callback.seek(partition.topic(), partition.partition(), offset);
+    }
+
+    @Override
+    public void registerSeekCallback(ConsumerSeekCallback callback) {
+    }
+
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        assignments.keySet().forEach(partition -> seekCallbacks.put(partition, callback));
+    }
+
+    @Override
+    public void onIdleContainer(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+    }
 }
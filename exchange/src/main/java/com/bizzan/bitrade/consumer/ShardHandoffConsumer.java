@@ -0,0 +1,153 @@
+package com.bizzan.bitrade.consumer;
+
+import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.Trader.CoinTrader;
+import com.bizzan.bitrade.Trader.CoinTraderFactory;
+import com.bizzan.bitrade.Trader.CoinTraderSequencer;
+import com.bizzan.bitrade.Trader.ShardHandoff;
+import com.bizzan.bitrade.Trader.ShardRouter;
+import com.bizzan.bitrade.entity.ExchangeCoin;
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.service.ExchangeCoinService;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 交易对在撮合节点之间迁移
+ *
+ * 原节点：停止路由该交易对，在撮合线程内取出盘口，发送交接消息后移除本地交易器；
+ * 目标节点：收齐交接消息后重建交易器，只处理分界之后的订单、撤单消息，分区已读过分界时回退重读
+ */
+@Slf4j
+@Component
+public class ShardHandoffConsumer {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Autowired
+    private CoinTraderFactory traderFactory;
+
+    @Autowired
+    private ShardRouter shardRouter;
+
+    @Autowired
+    private ExchangeOrderConsumer exchangeOrderConsumer;
+
+    @Autowired
+    private ExchangeCoinService exchangeCoinService;
+
+    @Autowired
+    private KafkaTemplate<String,String> kafkaTemplate;
+
+    //正在接收的交接分片
+    private final Map<String, List<ShardHandoff>> receiving = new ConcurrentHashMap<>();
+
+    /**
+     * 把本节点的交易对交给目标节点
+     * @param symbol
+     * @param target
+     * @throws Exception 交出失败时本节点继续持有该交易对
+     */
+    public void handOff(String symbol, String target) throws Exception {
+        CoinTraderSequencer sequencer = traderFactory.getSequencer(symbol);
+        if(sequencer == null){
+            throw new IllegalStateException(symbol + " is not running on this node");
+        }
+        int orderPartition = ShardRouter.partitionFor(symbol, kafkaTemplate.partitionsFor(ShardRouter.ORDER_TOPIC).size());
+        int cancelPartition = ShardRouter.partitionFor(symbol, kafkaTemplate.partitionsFor(ShardRouter.CANCEL_TOPIC).size());
+        ShardHandoff head = shardRouter.release(symbol, target, orderPartition, cancelPartition);
+        if(head == null){
+            throw new IllegalStateException(symbol + " is not owned by this node");
+        }
+        try {
+            // 已路由的指令先处理完，取出的盘口与分界位置一致
+            List<ShardHandoff> parts = sequencer.snapshot(trader -> ShardHandoff.split(head, trader)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            for(ShardHandoff part : parts){
+                kafkaTemplate.send(ShardHandoff.TOPIC, symbol, JSON.toJSONString(part)).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } catch (Exception e) {
+            log.error("hand off failed,symbol={},target={}", symbol, target, e);
+            // 本节点重新接收，分界之后被跳过的消息回退重读
+            resume(head);
+            throw e;
+        }
+        traderFactory.removeTrader(symbol);
+        log.info("symbol handed off,symbol={},target={},orderOffset={},cancelOffset={}",
+                symbol, target, head.getOrderOffset(), head.getCancelOffset());
+    }
+
+    @KafkaListener(id = "exchange-shard-handoff",topics = ShardHandoff.TOPIC,containerFactory = "kafkaListenerContainerFactory")
+    public void onHandoff(List<ConsumerRecord<String,String>> records){
+        for (int i = 0; i < records.size(); i++) {
+            ShardHandoff part = JSON.parseObject(records.get(i).value(), ShardHandoff.class);
+            if(part == null || !shardRouter.isEnabled() || !shardRouter.getNodeId().equals(part.getTarget())){
+                continue;
+            }
+            List<ShardHandoff> parts = part.getPart() == 0 ? new ArrayList<>() : receiving.get(part.getSymbol());
+            if(parts == null || parts.size() != part.getPart()){
+                log.warn("handoff part out of order,symbol={},part={}", part.getSymbol(), part.getPart());
+                receiving.remove(part.getSymbol());
+                continue;
+            }
+            parts.add(part);
+            if(parts.size() < part.getParts()){
+                receiving.put(part.getSymbol(), parts);
+                continue;
+            }
+            receiving.remove(part.getSymbol());
+            accept(parts);
+        }
+    }
+
+    private void accept(List<ShardHandoff> parts) {
+        ShardHandoff head = parts.get(0);
+        String symbol = head.getSymbol();
+        ExchangeCoin coin = exchangeCoinService.findBySymbol(symbol);
+        if(coin == null || coin.getCoinScale() != head.getCoinScale() || coin.getBaseCoinScale() != head.getBaseCoinScale()){
+            log.error("handoff rejected,symbol={},source={}, orders must be recovered manually", symbol, head.getSource());
+            return;
+        }
+        CoinTrader trader = new CoinTrader(symbol);
+        trader.setPublisher(traderFactory.getPublisher());
+        trader.setBaseCoinScale(coin.getBaseCoinScale());
+        trader.setCoinScale(coin.getCoinScale());
+        trader.setPublishType(coin.getPublishType());
+        trader.setClearTime(coin.getClearTime());
+        int count = 0;
+        for(ShardHandoff part : parts){
+            for(ExchangeOrder order : part.getOrders()){
+                trader.restoreOrder(order);
+                count++;
+            }
+        }
+        trader.restoreEventSequences(head.getEventSequences());
+        if(head.isTradingHalt()){
+            trader.haltTrading();
+        }
+        trader.setReady(true);
+        traderFactory.resetTrader(symbol, trader);
+        traderFactory.startHandedOverSequencer(symbol);
+        resume(head);
+        log.info("symbol handed over,symbol={},source={},orders={}", symbol, head.getSource(), count);
+    }
+
+    /**
+     * 本节点开始处理交易对分界之后的消息
+     */
+    private void resume(ShardHandoff head) {
+        shardRouter.accept(head);
+        exchangeOrderConsumer.rewind(new TopicPartition(ShardRouter.ORDER_TOPIC, head.getOrderPartition()), head.getOrderOffset() + 1);
+        exchangeOrderConsumer.rewind(new TopicPartition(ShardRouter.CANCEL_TOPIC, head.getCancelPartition()), head.getCancelOffset() + 1);
+    }
+}
@@ -4,7 +4,10 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.bizzan.bitrade.Trader.CoinTrader;
 import com.bizzan.bitrade.Trader.CoinTraderFactory;
+import com.bizzan.bitrade.Trader.CoinTraderSequencer;
+import com.bizzan.bitrade.Trader.ShardRouter;
 import com.bizzan.bitrade.config.CoinTraderEvent;
+import com.bizzan.bitrade.consumer.ShardHandoffConsumer;
 import com.bizzan.bitrade.entity.*;
 import com.bizzan.bitrade.service.ExchangeCoinService;
 import com.bizzan.bitrade.service.ExchangeOrderDetailService;
@@ -14,18 +17,22 @@ import com.bizzan.bitrade.util.MessageResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.math.BigDecimal;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("/monitor")
 public class MonitorController {
 	private Logger log = LoggerFactory.getLogger(MonitorController.class);
+	//撮合线程内查询的超时时间
+	private static final long QUERY_TIMEOUT_SECONDS = 5;
 	@Autowired
 	private CoinTraderFactory factory;
 	@Autowired
@@ -33,86 +40,81 @@ public class MonitorController {
     @Autowired
     private ExchangeOrderDetailService exchangeOrderDetailService;
     @Autowired
-    private KafkaTemplate<String,String> kafkaTemplate;
-    @Autowired
     private ExchangeCoinService exchangeCoinService;
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+    @Autowired
+    private ShardRouter shardRouter;
+    @Autowired
+    private ShardHandoffConsumer shardHandoffConsumer;
     
     @RequestMapping("overview")
     public JSONObject  traderOverview(String symbol){
-        CoinTrader trader = factory.getTrader(symbol);
-        if(trader == null ) {
-            return null;
-        }
-        JSONObject result = new JSONObject();
-        //卖盘信息
-        JSONObject ask = new JSONObject();
-        //买盘信息
-        JSONObject bid = new JSONObject();
-        ask.put("limit_price_order_count",trader.getLimitPriceOrderCount(ExchangeOrderDirection.SELL));
-        ask.put("market_price_order_count",trader.getSellMarketQueue().size());
-        ask.put("depth",trader.getTradePlate(ExchangeOrderDirection.SELL).getDepth());
-        bid.put("limit_price_order_count",trader.getLimitPriceOrderCount(ExchangeOrderDirection.BUY));
-        bid.put("market_price_order_count",trader.getBuyMarketQueue().size());
-        bid.put("depth",trader.getTradePlate(ExchangeOrderDirection.BUY).getDepth());
-        result.put("ask",ask);
-        result.put("bid",bid);
-        return result;
+        return query(symbol, trader -> {
+            JSONObject result = new JSONObject();
+            //卖盘信息
+            JSONObject ask = new JSONObject();
+            //买盘信息
+            JSONObject bid = new JSONObject();
+            ask.put("limit_price_order_count",trader.getLimitPriceOrderCount(ExchangeOrderDirection.SELL));
+            ask.put("market_price_order_count",trader.getMarketPriceOrderCount(ExchangeOrderDirection.SELL));
+            ask.put("depth",trader.getTradePlate(ExchangeOrderDirection.SELL).getDepth());
+            bid.put("limit_price_order_count",trader.getLimitPriceOrderCount(ExchangeOrderDirection.BUY));
+            bid.put("market_price_order_count",trader.getMarketPriceOrderCount(ExchangeOrderDirection.BUY));
+            bid.put("depth",trader.getTradePlate(ExchangeOrderDirection.BUY).getDepth());
+            result.put("ask",ask);
+            result.put("bid",bid);
+            return result;
+        });
     }
 
     @RequestMapping("trader-detail")
     public JSONObject  traderDetail(String symbol){
-        CoinTrader trader = factory.getTrader(symbol);
-        if(trader == null ) {
-            return null;
-        }
-        JSONObject result = new JSONObject();
-        //卖盘信息
-        JSONObject ask = new JSONObject();
-        //买盘信息
-        JSONObject bid = new JSONObject();
-        ask.put("limit_price_queue",trader.getSellLimitPriceQueue());
-        ask.put("market_price_queue",trader.getSellMarketQueue());
-        bid.put("limit_price_queue",trader.getBuyLimitPriceQueue());
-        bid.put("market_price_queue",trader.getBuyMarketQueue());
-        result.put("ask",ask);
-        result.put("bid",bid);
-        return result;
+        return query(symbol, trader -> {
+            JSONObject result = new JSONObject();
+            //卖盘信息
+            JSONObject ask = new JSONObject();
+            //买盘信息
+            JSONObject bid = new JSONObject();
+            ask.put("limit_price_queue",trader.getLimitPriceOrders(ExchangeOrderDirection.SELL));
+            ask.put("market_price_queue",trader.getMarketPriceOrders(ExchangeOrderDirection.SELL));
+            bid.put("limit_price_queue",trader.getLimitPriceOrders(ExchangeOrderDirection.BUY));
+            bid.put("market_price_queue",trader.getMarketPriceOrders(ExchangeOrderDirection.BUY));
+            result.put("ask",ask);
+            result.put("bid",bid);
+            //在撮合线程内完成序列化，返回副本
+            return JSON.parseObject(result.toJSONString());
+        });
     }
 
 	@RequestMapping("plate")
 	public Map<String, List<TradePlateItem>> traderPlate(String symbol) {
-		Map<String, List<TradePlateItem>> result = new HashMap<>();
-		CoinTrader trader = factory.getTrader(symbol);
-		if (trader == null) {
-            return null;
-        }
-		result.put("bid", trader.getTradePlate(ExchangeOrderDirection.BUY).getItems());
-		result.put("ask", trader.getTradePlate(ExchangeOrderDirection.SELL).getItems());
-		return result;
+		return query(symbol, trader -> {
+			Map<String, List<TradePlateItem>> result = new HashMap<>();
+			result.put("bid", new ArrayList<>(trader.getTradePlate(ExchangeOrderDirection.BUY).getItems()));
+			result.put("ask", new ArrayList<>(trader.getTradePlate(ExchangeOrderDirection.SELL).getItems()));
+			return result;
+		});
 	}
 
 	@RequestMapping("plate-mini")
 	public Map<String, JSONObject> traderPlateMini(String symbol) {
-		Map<String, JSONObject> result = new HashMap<>();
-		CoinTrader trader = factory.getTrader(symbol);
-		if (trader == null) {
-            return null;
-        }
-		result.put("bid", trader.getTradePlate(ExchangeOrderDirection.BUY).toJSON(24));
-		result.put("ask", trader.getTradePlate(ExchangeOrderDirection.SELL).toJSON(24));
-		return result;
+		return query(symbol, trader -> {
+			Map<String, JSONObject> result = new HashMap<>();
+			result.put("bid", JSON.parseObject(trader.getTradePlate(ExchangeOrderDirection.BUY).toJSON(24).toJSONString()));
+			result.put("ask", JSON.parseObject(trader.getTradePlate(ExchangeOrderDirection.SELL).toJSON(24).toJSONString()));
+			return result;
+		});
 	}
 
 	@RequestMapping("plate-full")
 	public Map<String, JSONObject> traderPlateFull(String symbol) {
-		Map<String, JSONObject> result = new HashMap<>();
-		CoinTrader trader = factory.getTrader(symbol);
-		if (trader == null) {
-            return null;
-        }
-		result.put("bid", trader.getTradePlate(ExchangeOrderDirection.BUY).toJSON(100));
-		result.put("ask", trader.getTradePlate(ExchangeOrderDirection.SELL).toJSON(100));
-		return result;
+		return query(symbol, trader -> {
+			Map<String, JSONObject> result = new HashMap<>();
+			result.put("bid", JSON.parseObject(trader.getTradePlate(ExchangeOrderDirection.BUY).toJSON(100).toJSONString()));
+			result.put("ask", JSON.parseObject(trader.getTradePlate(ExchangeOrderDirection.SELL).toJSON(100).toJSONString()));
+			return result;
+		});
 	}
 
 	@RequestMapping("symbols")
@@ -150,8 +152,30 @@ public class MonitorController {
 	@RequestMapping("order")
 	public ExchangeOrder findOrder(String symbol, String orderId, ExchangeOrderDirection direction,
 			ExchangeOrderType type) {
-		CoinTrader trader = factory.getTrader(symbol);
-		return trader.findOrder(orderId, type, direction);
+		return query(symbol, trader -> {
+			ExchangeOrder order = trader.findOrder(orderId, type, direction);
+			return order == null ? null : JSON.parseObject(JSON.toJSONString(order), ExchangeOrder.class);
+		});
+	}
+
+	/**
+	 * 在撮合线程内读取交易器状态，保证读到的盘口与订单队列一致；序列器未启动时直接读取
+	 * @param symbol
+	 * @param query
+	 * @return
+	 */
+	private <T> T query(String symbol, Function<CoinTrader, T> query) {
+		CoinTraderSequencer sequencer = factory.getSequencer(symbol);
+		if (sequencer == null) {
+			CoinTrader trader = factory.getTrader(symbol);
+			return trader == null ? null : query.apply(trader);
+		}
+		try {
+			return sequencer.snapshot(query).get(QUERY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			log.info("query trader failed,symbol={}", symbol, e);
+			return null;
+		}
 	}
 	
 	/**
@@ -162,6 +186,9 @@ public class MonitorController {
 	@RequestMapping("reset-trader")
 	public MessageResult resetTrader(String symbol) {
 		log.info("======[Start]Reset CoinTrader: " + symbol + "======");
+		if(factory.isFollower()) {
+			return MessageResult.error(500, "备用引擎不接受操作，请先切换为主引擎");
+		}
 		if(factory.containsTrader(symbol)) {
 			// 交易对引擎不存在，则创建
 			// 检查该币种在数据库定义中是否存在
@@ -179,7 +206,7 @@ public class MonitorController {
 				return MessageResult.error(500, "请先停止当前引擎再重置！");
 			}
 			CoinTrader newTrader = new CoinTrader(symbol);
-			newTrader.setKafkaTemplate(kafkaTemplate);
+			newTrader.setPublisher(factory.getPublisher());
 			newTrader.setBaseCoinScale(coin.getBaseCoinScale());
 			newTrader.setCoinScale(coin.getCoinScale());
 			newTrader.setPublishType(coin.getPublishType());
@@ -217,10 +244,11 @@ public class MonitorController {
 			}
             //判断已完成的订单发送消息通知
             if(completedOrders.size() > 0){
-                kafkaTemplate.send("exchange-order-completed", JSON.toJSONString(completedOrders));
+                newTrader.getPublisher().sendCompletedOrders(symbol, completedOrders);
             }
             newTrader.setReady(true);
-            factory.addTrader(symbol, newTrader);
+            factory.resetTrader(symbol, newTrader);
+            factory.startSequencer(symbol);
             log.info("======[END]Reset CoinTrader: " + symbol + " successful======");
 			return MessageResult.success(symbol+" 撮合交易引擎创建成功");
 		}else {
@@ -231,6 +259,12 @@ public class MonitorController {
 	@RequestMapping("start-trader")
 	public MessageResult startTrader(String symbol) {
 		log.info("======Start CoinTrader: " + symbol + "======");
+		if(factory.isFollower()) {
+			return MessageResult.error(500, "备用引擎不接受操作，请先切换为主引擎");
+		}
+		if(!shardRouter.owns(symbol)) {
+			return MessageResult.error(500, symbol + "分配在节点" + shardRouter.ownerOf(symbol) + "上");
+		}
 		if(!factory.containsTrader(symbol)) {
 			// 交易对引擎不存在，则创建
 			// 检查该币种在数据库定义中是否存在
@@ -242,7 +276,7 @@ public class MonitorController {
 				return MessageResult.error(500, "币币交易对处于禁用状态，无法启动");
 			}
 			CoinTrader newTrader = new CoinTrader(symbol);
-			newTrader.setKafkaTemplate(kafkaTemplate);
+			newTrader.setPublisher(factory.getPublisher());
 			newTrader.setBaseCoinScale(coin.getBaseCoinScale());
 			newTrader.setCoinScale(coin.getCoinScale());
 			newTrader.setPublishType(coin.getPublishType());
@@ -280,16 +314,22 @@ public class MonitorController {
 			}
             //判断已完成的订单发送消息通知
             if(completedOrders.size() > 0){
-                kafkaTemplate.send("exchange-order-completed", JSON.toJSONString(completedOrders));
+                newTrader.getPublisher().sendCompletedOrders(symbol, completedOrders);
             }
             newTrader.setReady(true);
             factory.addTrader(symbol, newTrader);
+            factory.startSequencer(symbol);
             
 			return MessageResult.success("币币交易对创建成功");
 		}else {
 			CoinTrader trader= factory.getTrader(symbol);
 			if(trader.isTradingHalt()) {
-				trader.resumeTrading();
+				CoinTraderSequencer sequencer = factory.getSequencer(symbol);
+				if(sequencer != null) {
+					sequencer.resume();
+				} else {
+					trader.resumeTrading();
+				}
 				return MessageResult.success("撮合引擎处于暂停状态，已恢复运行");
 			}else {
 				return MessageResult.error(500, "撮合引擎处于正常运行状态，请不要重复启动");
@@ -301,15 +341,88 @@ public class MonitorController {
 	public MessageResult stopTrader(String symbol) {
 		CoinTrader trader = factory.getTrader(symbol);
 		log.info("======Stop CoinTrader: " + symbol + "======");
+		if(factory.isFollower()) {
+			return MessageResult.error(500, "备用引擎不接受操作，请先切换为主引擎");
+		}
 		if(trader == null) {
 			return MessageResult.error(500, symbol + "交易对撮合引擎不存在");
 		}else {
 			if(trader.isTradingHalt()) {
 				return MessageResult.error(500, symbol + "撮合引擎已暂停，请不要重复停止");
 			}else {
-				trader.haltTrading();
+				CoinTraderSequencer sequencer = factory.getSequencer(symbol);
+				if(sequencer != null) {
+					sequencer.halt();
+				} else {
+					trader.haltTrading();
+				}
 				return MessageResult.success("撮合引擎暂停成功！");
 			}
 		}
 	}
+
+	/**
+	 * 备用引擎切换为主引擎：停止接收同步日志，发出主引擎未发出的撮合结果后开始接收订单
+	 * 切换前须确认原主引擎已停止，否则两边会同时撮合
+	 * @return
+	 */
+	@RequestMapping("promote")
+	public MessageResult promote() {
+		log.info("======Promote exchange engine======");
+		if(!factory.isFollower()) {
+			return MessageResult.error(500, "当前已是主引擎");
+		}
+		List<String> unsynced = factory.promote();
+		if(!unsynced.isEmpty()) {
+			return MessageResult.error(500, "以下交易对尚未与主引擎同步，无法切换：" + unsynced);
+		}
+		kafkaListenerEndpointRegistry.getListenerContainer("exchange-journal").stop();
+		kafkaListenerEndpointRegistry.getListenerContainer("exchange-order").start();
+		kafkaListenerEndpointRegistry.getListenerContainer("exchange-order-cancel").start();
+		return MessageResult.success("已切换为主引擎");
+	}
+
+	/**
+	 * 各交易对所在的撮合节点
+	 * @return
+	 */
+	@RequestMapping("shards")
+	public Map<String, String> shards() {
+		Map<String, String> shards = new TreeMap<>();
+		for(ExchangeCoin coin : exchangeCoinService.findAllEnabled()) {
+			shards.put(coin.getSymbol(), shardRouter.isEnabled() ? shardRouter.ownerOf(coin.getSymbol()) : "local");
+		}
+		return shards;
+	}
+
+	/**
+	 * 把本节点的交易对迁移到其他节点，目标节点收到盘口后接着处理之后的订单
+	 * 迁移只在两个节点的内存中生效，重启前需要把新的分配写入 exchange.shard.assignments
+	 * @param symbol
+	 * @param target 目标节点
+	 * @return
+	 */
+	@RequestMapping("shard-move")
+	public MessageResult moveShard(String symbol, String target) {
+		log.info("======Move CoinTrader: " + symbol + " to " + target + "======");
+		if(!shardRouter.isEnabled()) {
+			return MessageResult.error(500, "未开启分片部署");
+		}
+		if(factory.isFollower()) {
+			return MessageResult.error(500, "备用引擎不接受操作，请先切换为主引擎");
+		}
+		if(target == null || target.isEmpty() || target.equals(shardRouter.getNodeId())) {
+			return MessageResult.error(500, "目标节点无效");
+		}
+		if(!shardRouter.owns(symbol) || !factory.containsTrader(symbol)) {
+			return MessageResult.error(500, symbol + "不在当前节点");
+		}
+		try {
+			shardHandoffConsumer.handOff(symbol, target);
+		} catch (Exception e) {
+			log.info("move trader failed,symbol={}", symbol, e);
+			return MessageResult.error(500, symbol + "迁移失败：" + e.getMessage());
+		}
+		return MessageResult.success(symbol + "已交给" + target);
+	}
 }
@@ -4,61 +4,175 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.bizzan.bitrade.Trader.CoinTrader;
+import com.bizzan.bitrade.Trader.ExchangeEventPublisher;
 import com.bizzan.bitrade.entity.*;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
 
 public class CoinTraderTest {
+    private static final String SYMBOL = "BTC/USDT";
+
     private CoinTrader trader;
+    private RecordingPublisher publisher;
+    private int orderSequence = 0;
 
     @Before
     public void setup(){
-        trader = new CoinTrader("BTCUSDT");
+        trader = new CoinTrader(SYMBOL);
+        publisher = new RecordingPublisher();
+        trader.setPublisher(publisher);
+    }
+
+    @Test
+    public void testLimitCrossAtMakerPrice() throws Exception {
+        ExchangeOrder sell = createSellOrder("10000", "1", ExchangeOrderType.LIMIT_PRICE);
+        trade(sell);
+        ExchangeOrder buy = createBuyOrder("10100", "1", ExchangeOrderType.LIMIT_PRICE);
+        trade(buy);
+
+        assertEquals(1, publisher.trades.size());
+        ExchangeTrade trade = publisher.trades.get(0);
+        //以挂单价格成交
+        assertDecimal("10000", trade.getPrice());
+        assertDecimal("1", trade.getAmount());
+        assertDecimal("10000", trade.getBuyTurnover());
+        assertEquals(buy.getOrderId(), trade.getBuyOrderId());
+        assertEquals(sell.getOrderId(), trade.getSellOrderId());
+        assertEquals(ExchangeOrderDirection.BUY, trade.getDirection());
+        assertEquals(2, publisher.completed.size());
+        assertTrue(trader.getLimitPriceOrders(ExchangeOrderDirection.BUY).isEmpty());
+        assertTrue(trader.getLimitPriceOrders(ExchangeOrderDirection.SELL).isEmpty());
+    }
+
+    @Test
+    public void testPartialFillLeavesRemainder() throws Exception {
+        ExchangeOrder sell = createSellOrder("10000", "1", ExchangeOrderType.LIMIT_PRICE);
+        trade(sell);
+        ExchangeOrder buy = createBuyOrder("10000", "3", ExchangeOrderType.LIMIT_PRICE);
+        trade(buy);
+
+        assertEquals(1, publisher.trades.size());
+        assertDecimal("1", publisher.trades.get(0).getAmount());
+        assertEquals(1, publisher.completed.size());
+        assertEquals(sell.getOrderId(), publisher.completed.get(0).getOrderId());
+
+        //未成交部分进入买盘
+        List<ExchangeOrder> bids = trader.getLimitPriceOrders(ExchangeOrderDirection.BUY);
+        assertEquals(1, bids.size());
+        assertEquals(buy.getOrderId(), bids.get(0).getOrderId());
+        assertDecimal("1", bids.get(0).getTradedAmount());
+        assertDecimal("2", trader.getTradePlate(ExchangeOrderDirection.BUY).findAmount(buy.getPrice()));
+        assertTrue(trader.getLimitPriceOrders(ExchangeOrderDirection.SELL).isEmpty());
+    }
+
+    @Test
+    public void testMarketBuyByTurnover() throws Exception {
+        ExchangeOrder cheap = createSellOrder("10000", "1", ExchangeOrderType.LIMIT_PRICE);
+        ExchangeOrder dear = createSellOrder("20000", "1", ExchangeOrderType.LIMIT_PRICE);
+        trade(cheap);
+        trade(dear);
+        //市价买单的委托量是成交额
+        ExchangeOrder buy = createBuyOrder("0", "15000", ExchangeOrderType.MARKET_PRICE);
+        trade(buy);
+
+        assertEquals(2, publisher.trades.size());
+        assertDecimal("10000", publisher.trades.get(0).getPrice());
+        assertDecimal("1", publisher.trades.get(0).getAmount());
+        assertDecimal("20000", publisher.trades.get(1).getPrice());
+        assertDecimal("0.25", publisher.trades.get(1).getAmount());
+        assertDecimal("15000", buy.getTurnover());
+        assertDecimal("1.25", buy.getTradedAmount());
+        assertTrue(buy.isCompleted());
+        assertEquals(0, trader.getMarketPriceOrderCount(ExchangeOrderDirection.BUY));
+
+        List<ExchangeOrder> asks = trader.getLimitPriceOrders(ExchangeOrderDirection.SELL);
+        assertEquals(1, asks.size());
+        assertEquals(dear.getOrderId(), asks.get(0).getOrderId());
+        assertDecimal("0.75", trader.getTradePlate(ExchangeOrderDirection.SELL).findAmount(dear.getPrice()));
+    }
+
+    @Test
+    public void testCancelRestingOrder() throws Exception {
+        ExchangeOrder buy = createBuyOrder("10000", "1", ExchangeOrderType.LIMIT_PRICE);
+        trade(buy);
+        assertNotNull(trader.findOrder(buy.getOrderId(), ExchangeOrderType.LIMIT_PRICE, ExchangeOrderDirection.BUY));
+
+        ExchangeOrder canceled = trader.cancelOrder(buy);
+        assertNotNull(canceled);
+        assertEquals(buy.getOrderId(), canceled.getOrderId());
+        assertNull(trader.findOrder(buy.getOrderId(), ExchangeOrderType.LIMIT_PRICE, ExchangeOrderDirection.BUY));
+        assertEquals(0, trader.getLimitPriceOrderCount(ExchangeOrderDirection.BUY));
+        assertDecimal("0", trader.getTradePlate(ExchangeOrderDirection.BUY).findAmount(buy.getPrice()));
+        //重复撤单无效
+        assertNull(trader.cancelOrder(buy));
+
+        //已撤销的订单不再成交
+        trade(createSellOrder("10000", "1", ExchangeOrderType.LIMIT_PRICE));
+        assertTrue(publisher.trades.isEmpty());
+        assertEquals(1, trader.getLimitPriceOrderCount(ExchangeOrderDirection.SELL));
+    }
+
+    @Test
+    public void testFifoWithinPriceLevel() throws Exception {
+        ExchangeOrder first = createSellOrder("10000", "1", ExchangeOrderType.LIMIT_PRICE);
+        ExchangeOrder second = createSellOrder("10000", "1", ExchangeOrderType.LIMIT_PRICE);
+        trade(first);
+        trade(second);
+        trade(createBuyOrder("10000", "1.5", ExchangeOrderType.LIMIT_PRICE));
+
+        assertEquals(2, publisher.trades.size());
+        assertEquals(first.getOrderId(), publisher.trades.get(0).getSellOrderId());
+        assertDecimal("1", publisher.trades.get(0).getAmount());
+        assertEquals(second.getOrderId(), publisher.trades.get(1).getSellOrderId());
+        assertDecimal("0.5", publisher.trades.get(1).getAmount());
+
+        List<ExchangeOrder> asks = trader.getLimitPriceOrders(ExchangeOrderDirection.SELL);
+        assertEquals(1, asks.size());
+        assertEquals(second.getOrderId(), asks.get(0).getOrderId());
+        assertDecimal("0.5", trader.getTradePlate(ExchangeOrderDirection.SELL).findAmount(second.getPrice()));
+    }
+
+    private void trade(ExchangeOrder order) throws Exception {
+        trader.trade(order);
+        trader.flush();
+    }
+
+    private static void assertDecimal(String expected, BigDecimal actual){
+        assertNotNull(actual);
+        assertEquals("expected " + expected + " but was " + actual, 0, new BigDecimal(expected).compareTo(actual));
     }
 
     public void genSellOrder(){
         BigDecimal basePrice = new BigDecimal(10000);
         for(int i=0;i<10;i ++) {
-            ExchangeOrder exchangeOrder = new ExchangeOrder();
-            exchangeOrder.setAmount(new BigDecimal("10"));
-            exchangeOrder.setBaseSymbol("USDT");
-            exchangeOrder.setCoinSymbol("BTC");
-            exchangeOrder.setDirection(ExchangeOrderDirection.BUY);
-            double rand = Math.random()*100;
-            exchangeOrder.setPrice(basePrice.add(new BigDecimal(rand).setScale(4,BigDecimal.ROUND_HALF_UP)));
-            long millis = Calendar.getInstance().getTimeInMillis();
-            exchangeOrder.setOrderId("T"+millis+""+i);
-            exchangeOrder.setTime(millis);
-            exchangeOrder.setStatus(ExchangeOrderStatus.TRADING);
-            exchangeOrder.setType(ExchangeOrderType.LIMIT_PRICE);
+            ExchangeOrder exchangeOrder = createSellOrder(basePrice.add(new BigDecimal(Math.random()*100).setScale(4,BigDecimal.ROUND_HALF_UP)).toPlainString(),
+                    "10", ExchangeOrderType.LIMIT_PRICE);
             trader.addLimitPriceOrder(exchangeOrder);
         }
     }
 
     public ExchangeOrder createSellOrder(String price, String amount, ExchangeOrderType type){
-        ExchangeOrder exchangeOrder = new ExchangeOrder();
-        exchangeOrder.setAmount(new BigDecimal(amount));
-        exchangeOrder.setBaseSymbol("USDT");
-        exchangeOrder.setCoinSymbol("BTC");
-        exchangeOrder.setDirection(ExchangeOrderDirection.SELL);
-        long millis = Calendar.getInstance().getTimeInMillis();
-        exchangeOrder.setOrderId("T"+millis);
-        exchangeOrder.setTime(millis);
-        exchangeOrder.setStatus(ExchangeOrderStatus.TRADING);
-        exchangeOrder.setPrice(new BigDecimal(price));
-        exchangeOrder.setType(type);
-        return exchangeOrder;
+        return createOrder(price, amount, type, ExchangeOrderDirection.SELL);
     }
 
     public ExchangeOrder createBuyOrder(String price, String amount, ExchangeOrderType type){
+        return createOrder(price, amount, type, ExchangeOrderDirection.BUY);
+    }
+
+    private ExchangeOrder createOrder(String price, String amount, ExchangeOrderType type, ExchangeOrderDirection direction){
         ExchangeOrder exchangeOrder = new ExchangeOrder();
         exchangeOrder.setAmount(new BigDecimal(amount));
+        exchangeOrder.setSymbol(SYMBOL);
         exchangeOrder.setBaseSymbol("USDT");
         exchangeOrder.setCoinSymbol("BTC");
-        exchangeOrder.setDirection(ExchangeOrderDirection.BUY);
+        exchangeOrder.setDirection(direction);
         long millis = Calendar.getInstance().getTimeInMillis();
-        exchangeOrder.setOrderId("T"+millis);
+        exchangeOrder.setOrderId("T" + millis + "-" + (++orderSequence));
         exchangeOrder.setTime(millis);
         exchangeOrder.setStatus(ExchangeOrderStatus.TRADING);
         exchangeOrder.setPrice(new BigDecimal(price));
@@ -66,4 +180,33 @@ public class CoinTraderTest {
         return exchangeOrder;
     }
 
+    /**
+     * 记录撮合结果，不连接 Kafka
+     */
+    private static class RecordingPublisher extends ExchangeEventPublisher {
+        private final List<ExchangeTrade> trades = new ArrayList<>();
+        private final List<ExchangeOrder> completed = new ArrayList<>();
+
+        private RecordingPublisher() {
+            super(null);
+        }
+
+        @Override
+        public void sendTrades(String symbol, List<ExchangeTrade> trades) {
+            this.trades.addAll(trades);
+        }
+
+        @Override
+        public void sendCompletedOrders(String symbol, List<ExchangeOrder> orders) {
+            completed.addAll(orders);
+        }
+
+        @Override
+        public void sendCanceledOrder(ExchangeOrder order) {
+        }
+
+        @Override
+        public void sendPlateDelta(TradePlateDelta delta) {
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package com.bizzan.bitrade;
+
+import org.junit.Test;
+
+import com.bizzan.bitrade.Trader.BookOrder;
+import com.bizzan.bitrade.Trader.OrderQueue;
+import com.bizzan.bitrade.entity.ExchangeOrder;
+
+import static org.junit.Assert.*;
+
+public class OrderQueueTest {
+
+    private BookOrder createOrder(String orderId){
+        ExchangeOrder exchangeOrder = new ExchangeOrder();
+        exchangeOrder.setOrderId(orderId);
+        return new BookOrder(exchangeOrder, 100, 10, 0);
+    }
+
+    @Test
+    public void testRemove(){
+        OrderQueue queue = new OrderQueue();
+        BookOrder first = createOrder("T1");
+        BookOrder second = createOrder("T2");
+        BookOrder third = createOrder("T3");
+        queue.add(first);
+        queue.add(second);
+        queue.add(third);
+        assertEquals(3, queue.size());
+
+        assertTrue(queue.remove(second));
+        assertSame(third, first.next());
+        assertFalse(queue.remove(second));
+
+        assertTrue(queue.remove(first));
+        assertSame(third, queue.head());
+        assertTrue(queue.remove(third));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.head());
+
+        //删除后可以重新入队
+        queue.add(second);
+        assertSame(second, queue.head());
+        assertNull(second.next());
+    }
+}
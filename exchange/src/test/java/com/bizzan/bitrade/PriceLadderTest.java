@@ -0,0 +1,54 @@
+package com.bizzan.bitrade;
+
+import org.junit.Test;
+
+import com.bizzan.bitrade.Trader.PriceLadder;
+import com.bizzan.bitrade.Trader.PriceLevel;
+import com.bizzan.bitrade.entity.ExchangeOrderDirection;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+public class PriceLadderTest {
+
+    private PriceLevel level(long price){
+        return new PriceLevel(price, BigDecimal.valueOf(price, 2));
+    }
+
+    @Test
+    public void testBuyOrder(){
+        PriceLadder ladder = new PriceLadder(ExchangeOrderDirection.BUY);
+        long[] prices = {100, 300, 200, 50, 250};
+        for(long price : prices){
+            ladder.add(level(price));
+        }
+        ladder.add(level(200));
+        assertEquals(5, ladder.size());
+        assertEquals(300, ladder.best().getPrice());
+        long[] expected = {300, 250, 200, 100, 50};
+        for(int rank = 0; rank < expected.length; rank++){
+            assertEquals(expected[rank], ladder.level(rank).getPrice());
+        }
+        assertEquals(300, ladder.removeBest().getPrice());
+        assertEquals(250, ladder.best().getPrice());
+    }
+
+    @Test
+    public void testSellOrder(){
+        PriceLadder ladder = new PriceLadder(ExchangeOrderDirection.SELL);
+        for(long price = 200; price > 0; price--){
+            ladder.add(level(price));
+        }
+        assertEquals(200, ladder.size());
+        assertEquals(1, ladder.best().getPrice());
+        assertEquals(200, ladder.level(199).getPrice());
+        assertNotNull(ladder.get(150L));
+        assertEquals(150, ladder.remove(150L).getPrice());
+        assertNull(ladder.get(150L));
+        assertEquals(4, ladder.removeAt(3).getPrice());
+        assertEquals(3, ladder.level(2).getPrice());
+        assertEquals(5, ladder.level(3).getPrice());
+        assertEquals(198, ladder.size());
+    }
+}
@@ -0,0 +1,74 @@
+package com.bizzan.bitrade;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import com.bizzan.bitrade.Trader.ShardHandoff;
+import com.bizzan.bitrade.Trader.ShardRouter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardRouterTest {
+
+    @Test
+    public void testAssignment() {
+        Map<String, String> assignments = new HashMap<>();
+        assignments.put("BTC/USDT", "node-3");
+        ShardRouter router = new ShardRouter("node-1", Arrays.asList("node-1", "node-2", "node-3"), assignments, 160);
+        ShardRouter other = new ShardRouter("node-2", Arrays.asList("node-1", "node-2", "node-3"), assignments, 160);
+        assertEquals("node-3", router.ownerOf("BTC/USDT"));
+        assertFalse(router.owns("BTC/USDT"));
+        //各节点对同一交易对的判断一致，且每个节点都分到交易对
+        Map<String, Integer> counts = new HashMap<>();
+        for(int i = 0; i < 300; i++){
+            String symbol = "C" + i + "/USDT";
+            assertEquals(router.ownerOf(symbol), other.ownerOf(symbol));
+            counts.merge(router.ownerOf(symbol), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        //去掉一个节点后，其余节点上的交易对不移动
+        ShardRouter shrunk = new ShardRouter("node-1", Arrays.asList("node-1", "node-2"), Collections.<String, String>emptyMap(), 160);
+        for(int i = 0; i < 300; i++){
+            String symbol = "C" + i + "/USDT";
+            if(!"node-3".equals(router.ownerOf(symbol))){
+                assertEquals(router.ownerOf(symbol), shrunk.ownerOf(symbol));
+            }
+        }
+        assertTrue(new ShardRouter().owns("BTC/USDT"));
+    }
+
+    @Test
+    public void testHandoff() {
+        ShardRouter source = new ShardRouter("node-1", Arrays.asList("node-1"), Collections.<String, String>emptyMap(), 10);
+        ShardRouter target = new ShardRouter("node-2", Arrays.asList("node-1"), Collections.<String, String>emptyMap(), 10);
+        TopicPartition orders = new TopicPartition(ShardRouter.ORDER_TOPIC, 0);
+        assertTrue(source.route("BTC/USDT", orders, 0));
+        assertFalse(target.route("BTC/USDT", orders, 0));
+        assertTrue(source.route("ETH/USDT", orders, 1));
+        assertFalse(target.route("BTC/USDT", orders, 1));
+        //重复投递不再路由
+        assertFalse(source.route("BTC/USDT", orders, 0));
+
+        ShardHandoff handoff = source.release("BTC/USDT", "node-2", 0, 0);
+        assertEquals(1, handoff.getOrderOffset());
+        assertEquals(-1, handoff.getCancelOffset());
+        assertNull(source.release("BTC/USDT", "node-2", 0, 0));
+        assertFalse(source.route("BTC/USDT", orders, 2));
+        //目标节点已读过分界，跳过的消息在回退重读时处理，其他交易对不重复处理
+        assertFalse(target.route("BTC/USDT", orders, 2));
+        assertFalse(target.route("ETH/USDT", orders, 3));
+        target.accept(handoff);
+        assertEquals("node-2", target.ownerOf("BTC/USDT"));
+        assertEquals(3, target.highWater(orders));
+        assertFalse(target.route("BTC/USDT", orders, 1));
+        assertTrue(target.route("BTC/USDT", orders, 2));
+        assertFalse(target.route("ETH/USDT", orders, 3));
+        assertTrue(target.route("BTC/USDT", orders, 4));
+        assertFalse(target.route("BTC/USDT", orders, 2));
+    }
+}
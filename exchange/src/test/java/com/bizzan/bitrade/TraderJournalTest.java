@@ -0,0 +1,100 @@
+package com.bizzan.bitrade;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.bizzan.bitrade.Trader.CoinTrader;
+import com.bizzan.bitrade.Trader.TraderCommandType;
+import com.bizzan.bitrade.Trader.TraderJournal;
+import com.bizzan.bitrade.entity.*;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TraderJournalTest {
+    private File dir;
+
+    @Before
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("journal").toFile();
+    }
+
+    private ExchangeOrder createOrder(String orderId, ExchangeOrderDirection direction, String price, String amount){
+        ExchangeOrder exchangeOrder = new ExchangeOrder();
+        exchangeOrder.setOrderId(orderId);
+        exchangeOrder.setMemberId(1L);
+        exchangeOrder.setSymbol("BTC/USDT");
+        exchangeOrder.setBaseSymbol("USDT");
+        exchangeOrder.setCoinSymbol("BTC");
+        exchangeOrder.setDirection(direction);
+        exchangeOrder.setType(ExchangeOrderType.LIMIT_PRICE);
+        exchangeOrder.setStatus(ExchangeOrderStatus.TRADING);
+        exchangeOrder.setPrice(new BigDecimal(price));
+        exchangeOrder.setAmount(new BigDecimal(amount));
+        exchangeOrder.setTime(System.currentTimeMillis());
+        return exchangeOrder;
+    }
+
+    @Test
+    public void testAppendAndRead() throws Exception {
+        TraderJournal journal = new TraderJournal(dir, 256);
+        for(int i = 0; i < 10; i++){
+            journal.append(TraderCommandType.PLACE, createOrder("E" + i, ExchangeOrderDirection.BUY, "100.5", "0.0001"));
+        }
+        journal.appendOutputMarker();
+        journal.append(TraderCommandType.HALT, null);
+        journal.close();
+
+        //重新打开后从已有记录之后继续编号，跨多个日志段读取
+        journal = new TraderJournal(dir, 256);
+        assertEquals(12, journal.getLastSequence());
+        List<TraderJournal.Entry> entries = journal.read(3);
+        assertEquals(9, entries.size());
+        assertEquals(4, entries.get(0).getSequence());
+        assertEquals("E3", entries.get(0).getOrder().getOrderId());
+        assertEquals(0, new BigDecimal("100.5").compareTo(entries.get(0).getOrder().getPrice()));
+        assertEquals(ExchangeOrderDirection.BUY, entries.get(0).getOrder().getDirection());
+        assertTrue(entries.get(7).isOutputMarker());
+        assertEquals(TraderCommandType.HALT, entries.get(8).getType());
+        assertNull(entries.get(8).getOrder());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        CoinTrader trader = new CoinTrader("BTC/USDT");
+        trader.trade(createOrder("B1", ExchangeOrderDirection.BUY, "99", "1"));
+        trader.trade(createOrder("B2", ExchangeOrderDirection.BUY, "100", "1"));
+        trader.trade(createOrder("B3", ExchangeOrderDirection.BUY, "100", "2"));
+        trader.trade(createOrder("S1", ExchangeOrderDirection.SELL, "101", "3"));
+        trader.haltTrading();
+        trader.restoreEventSequences(new long[]{5, 3, 2});
+
+        TraderJournal journal = new TraderJournal(dir, 1024 * 1024);
+        journal.append(TraderCommandType.PLACE, createOrder("B1", ExchangeOrderDirection.BUY, "99", "1"));
+        journal.writeSnapshot(trader);
+        journal.close();
+
+        TraderJournal.Snapshot snapshot = new TraderJournal(dir, 1024 * 1024).readSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(1, snapshot.getSequence());
+        assertTrue(snapshot.isTradingHalt());
+        assertArrayEquals(new long[]{5, 3, 2}, snapshot.getEventSequences());
+
+        CoinTrader restored = new CoinTrader("BTC/USDT");
+        for(ExchangeOrder order : snapshot.getOrders()){
+            restored.restoreOrder(order);
+        }
+        //价位与同价位内的时间顺序保持不变
+        List<ExchangeOrder> buys = restored.getLimitPriceOrders(ExchangeOrderDirection.BUY);
+        assertEquals(3, buys.size());
+        assertEquals("B2", buys.get(0).getOrderId());
+        assertEquals("B3", buys.get(1).getOrderId());
+        assertEquals("B1", buys.get(2).getOrderId());
+        assertEquals(1, restored.getLimitPriceOrders(ExchangeOrderDirection.SELL).size());
+        assertEquals(0, new BigDecimal("3").compareTo(restored.getTradePlate(ExchangeOrderDirection.BUY).getMaxAmount()));
+    }
+}
@@ -28,6 +28,7 @@ public class ApplicationEvent implements ApplicationListener<ContextRefreshedEve
         coins.forEach(coin->{
             CoinProcessor processor = coinProcessorFactory.getProcessor(coin.getSymbol());
             processor.initializeThumb();
+            processor.initializeKLine();
             processor.initializeUsdRate();
             processor.setIsHalt(false);
         });
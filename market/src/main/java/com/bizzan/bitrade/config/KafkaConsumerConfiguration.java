@@ -3,6 +3,7 @@ package com.bizzan.bitrade.config; // 当前配置类所在包
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.kafka.clients.consumer.ConsumerConfig; // Kafka 消费者配置键常量
+import org.apache.kafka.common.serialization.ByteArrayDeserializer; // 字节数组反序列化器
 import org.apache.kafka.common.serialization.StringDeserializer; // 字符串反序列化器
 import org.springframework.beans.factory.annotation.Value; // 读取 application.yml 中的值
 import org.springframework.context.annotation.Bean; // 声明这是一个 Spring Bean 生成方法
@@ -12,6 +13,7 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.KafkaListenerContainerFactory; // 监听器容器工厂父接口
 import org.springframework.kafka.core.ConsumerFactory; // 消费者工厂接口
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory; // 默认消费者工厂实现
+import org.springframework.kafka.listener.AbstractMessageListenerContainer; // 提交 offset 的方式 AckMode
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer; // 并发消息监听器容器
 
 @Configuration // 告诉 Spring 这是一个配置类，启动时加载
@@ -43,6 +45,9 @@ public class KafkaConsumerConfiguration {
     @Value("${spring.kafka.consumer.maxPollRecordsConfig}")
     private int maxPollRecordsConfig; // 每次 poll() 最多拉取多少条记录，批处理关键参数
 
+    @Value("${spring.kafka.consumer.pause-after:10000}")
+    private long pauseAfter; // 监听方法处理超过多少毫秒时暂停拉取分区
+
     /**
      * 组装 Kafka 消费者的所有配置项
      */
@@ -94,6 +99,33 @@ public class KafkaConsumerConfiguration {
         factory.getContainerProperties().setPollTimeout(1500);
         // 开启批处理：一次把 max.poll.records 条记录当成 List 传入业务方法
         factory.setBatchListener(true);
+        // 业务方法返回（本批处理完成）后才提交 offset
+        factory.getContainerProperties().setAckMode(AbstractMessageListenerContainer.AckMode.BATCH);
+        // 业务方法阻塞超过该时间时暂停拉取、继续 poll 维持会话，处理完成后恢复（结算通道满时的背压）
+        factory.getContainerProperties().setPauseEnabled(true);
+        factory.getContainerProperties().setPauseAfter(pauseAfter);
+        return factory;
+    }
+
+    /**
+     * 撮合引擎发出的消息（成交、完成订单、撤单、盘口），value 为字节数组，
+     * 由 ExchangeWireCodec 解码，二进制与 JSON 两种格式都能处理；其余配置与上面相同
+     */
+    @Bean
+    public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, byte[]>> binaryListenerContainerFactory() {
+        Map<String, Object> props = consumerConfigs();
+        // value 反序列化器：字节数组
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        ConcurrentKafkaListenerContainerFactory<String, byte[]> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<String, byte[]>(props));
+        factory.setConcurrency(concurrency);
+        factory.getContainerProperties().setPollTimeout(1500);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(AbstractMessageListenerContainer.AckMode.BATCH);
+        // 监听方法抛出异常时不提交本批 offset，由监听方法回退分区重新消费（成交结算失败时）
+        factory.getContainerProperties().setAckOnError(false);
+        factory.getContainerProperties().setPauseEnabled(true);
+        factory.getContainerProperties().setPauseAfter(pauseAfter);
         return factory;
     }
 }
\ No newline at end of file
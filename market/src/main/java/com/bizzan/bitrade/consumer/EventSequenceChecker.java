@@ -0,0 +1,45 @@
+package com.bizzan.bitrade.consumer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 校验撮合消息的序号
+ *
+ * 撮合引擎以交易对为key发送成交、完成订单、撤单消息，同一交易对在每个主题内的序号连续递增。
+ * 这里按 主题+交易对 记录最后的序号，发现缺号、重复或乱序时记录日志；不带序号的消息（如启动时补发的完成订单）不参与校验
+ */
+@Component
+public class EventSequenceChecker {
+	private Logger logger = LoggerFactory.getLogger(EventSequenceChecker.class);
+
+	private final ConcurrentHashMap<String, Long> lastSequences = new ConcurrentHashMap<>();
+
+	/**
+	 * @param topic
+	 * @param symbol
+	 * @param first 消息中第一条记录的序号
+	 * @param last 消息中最后一条记录的序号
+	 */
+	public void check(String topic, String symbol, Long first, Long last) {
+		if (first == null || last == null) {
+			return;
+		}
+		lastSequences.compute(topic + "/" + symbol, (key, previous) -> {
+			if (previous == null || first == previous + 1) {
+				return last;
+			}
+			if (first == 1) {
+				logger.info("消息序号重新开始,topic={},symbol={},previous={}", topic, symbol, previous);
+			} else if (first <= previous) {
+				logger.warn("消息重复或乱序,topic={},symbol={},expected={},actual={}", topic, symbol, previous + 1, first);
+			} else {
+				logger.warn("消息缺号,topic={},symbol={},expected={},actual={}", topic, symbol, previous + 1, first);
+			}
+			return Math.max(previous, last);
+		});
+	}
+}
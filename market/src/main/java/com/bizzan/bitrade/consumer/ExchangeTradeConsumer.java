@@ -1,37 +1,43 @@
 package com.bizzan.bitrade.consumer;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
 import com.alibaba.fastjson.JSON;
+import com.bizzan.bitrade.codec.ExchangeWireCodec;
 import com.bizzan.bitrade.constant.NettyCommand;
 import com.bizzan.bitrade.entity.ExchangeOrder;
 import com.bizzan.bitrade.entity.ExchangeTrade;
-import com.bizzan.bitrade.entity.TradePlate;
+import com.bizzan.bitrade.entity.TradePlateDelta;
 import com.bizzan.bitrade.handler.NettyHandler;
 import com.bizzan.bitrade.job.ExchangePushJob;
 import com.bizzan.bitrade.processor.CoinProcessor;
 import com.bizzan.bitrade.processor.CoinProcessorFactory;
 import com.bizzan.bitrade.service.ExchangeOrderService;
+import com.bizzan.bitrade.service.MarketSnapshotService;
+import com.bizzan.bitrade.util.MessageResult;
 
 import lombok.extern.slf4j.Slf4j;
 
 @Component
 @Slf4j
-public class ExchangeTradeConsumer {
+public class ExchangeTradeConsumer implements ConsumerSeekAware {
 	private Logger logger = LoggerFactory.getLogger(ExchangeTradeConsumer.class);
 	@Autowired
 	private CoinProcessorFactory coinProcessorFactory;
@@ -43,42 +49,108 @@ public class ExchangeTradeConsumer {
 	private NettyHandler nettyHandler;
 	@Value("${second.referrer.award}")
 	private boolean secondReferrerAward;
-	private ExecutorService executor = new ThreadPoolExecutor(30, 100, 0L, TimeUnit.MILLISECONDS,
-			new LinkedBlockingQueue<Runnable>(1024), new ThreadPoolExecutor.AbortPolicy());
+	// 一条成交消息中的全部成交合并结算
+	@Value("${exchange.settlement.batch:true}")
+	private boolean settlementBatch;
+	@Autowired
+	private SettlementExecutor settlementExecutor;
+	@Autowired
+	private OrderStatusWriter orderStatusWriter;
+	@Autowired
+	private EventSequenceChecker sequenceChecker;
 	@Autowired
 	private ExchangePushJob pushJob;
+	@Autowired
+	private MarketSnapshotService marketSnapshotService;
+	// 各分区所在消费线程的回调，结算失败时回退分区
+	private final Map<TopicPartition, ConsumerSeekCallback> seekCallbacks = new ConcurrentHashMap<>();
 
 	/**
 	 * 处理成交明细
+	 * 同一交易对的成交在同一结算通道内按顺序处理，本批全部结算完成后才返回，由容器提交位置；
+	 * 结算后、提交位置前进程退出时消息会重复投递，已结算的成交由 exchange_trade_settlement 去重；
+	 * 结算失败时把本批涉及的分区回退到本批起点并抛出异常，不提交位置，整批重新消费
 	 *
 	 * @param records
 	 */
-	@KafkaListener(topics = "exchange-trade", containerFactory = "kafkaListenerContainerFactory")
-	public void handleTrade(List<ConsumerRecord<String, String>> records) {
+	@KafkaListener(topics = "exchange-trade", containerFactory = "binaryListenerContainerFactory")
+	public void handleTrade(List<ConsumerRecord<String, byte[]>> records) throws InterruptedException {
+		List<Future<?>> futures = new ArrayList<>(records.size());
+		// 分区 -> 本批最小 offset
+		Map<TopicPartition, Long> starts = new HashMap<>();
 		for (int i = 0; i < records.size(); i++) {
-			ConsumerRecord<String, String> record = records.get(i);
-			executor.submit(new HandleTradeThread(record));
+			ConsumerRecord<String, byte[]> record = records.get(i);
+			starts.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+			List<ExchangeTrade> trades = ExchangeWireCodec.decodeTrades(record.value());
+			if (trades == null || trades.isEmpty()) {
+				continue;
+			}
+			sequenceChecker.check(record.topic(), trades.get(0).getSymbol(), trades.get(0).getSequence(),
+					trades.get(trades.size() - 1).getSequence());
+			futures.add(settlementExecutor.submit(trades.get(0).getSymbol(), new HandleTradeThread(trades)));
+		}
+		Throwable failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				logger.error("成交结算出错", e.getCause());
+				failure = e.getCause();
+			}
+		}
+		if (failure != null) {
+			starts.forEach(this::rewind);
+			throw new IllegalStateException("settle exchange trades failed, batch will be redelivered", failure);
 		}
 	}
 
-	@KafkaListener(topics = "exchange-order-completed", containerFactory = "kafkaListenerContainerFactory")
-	public void handleOrderCompleted(List<ConsumerRecord<String, String>> records) {
+	private void rewind(TopicPartition partition, long offset) {
+		ConsumerSeekCallback callback = seekCallbacks.get(partition);
+		if (callback == null) {
+			logger.warn("no consumer for partition {}, rewind skipped", partition);
+			return;
+		}
+		logger.info("rewind {} to {}", partition, offset);
+		callback.seek(partition.topic(), partition.partition(), offset);
+	}
+
+	@Override
+	public void registerSeekCallback(ConsumerSeekCallback callback) {
+	}
+
+	@Override
+	public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+		assignments.keySet().forEach(partition -> seekCallbacks.put(partition, callback));
+	}
+
+	@Override
+	public void onIdleContainer(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+	}
+
+	@KafkaListener(topics = "exchange-order-completed", containerFactory = "binaryListenerContainerFactory")
+	public void handleOrderCompleted(List<ConsumerRecord<String, byte[]>> records) {
 		logger.info("接收到exchange-order-completed消息");
 		try {
+			List<ExchangeOrder> completed = new ArrayList<>();
 			for (int i = 0; i < records.size(); i++) {
-				ConsumerRecord<String, String> record = records.get(i);
-				//logger.info("订单交易处理完成消息topic={},value={}", record.topic(), record.value());
-				List<ExchangeOrder> orders = JSON.parseArray(record.value(), ExchangeOrder.class);
-				for (ExchangeOrder order : orders) {
-					String symbol = order.getSymbol();
-					// 委托成交完成处理
-					exchangeOrderService.tradeCompleted(order.getOrderId(), order.getTradedAmount(),
-							order.getTurnover());
-					// 推送订单成交
-					messagingTemplate.convertAndSend(
-							"/topic/market/order-completed/" + symbol + "/" + order.getMemberId(), order);
-					nettyHandler.handleOrder(NettyCommand.PUSH_EXCHANGE_ORDER_COMPLETED, order);
+				ConsumerRecord<String, byte[]> record = records.get(i);
+				List<ExchangeOrder> orders = ExchangeWireCodec.decodeOrders(record.value());
+				if (!orders.isEmpty()) {
+					sequenceChecker.check(record.topic(), orders.get(0).getSymbol(), orders.get(0).getSequence(),
+							orders.get(orders.size() - 1).getSequence());
 				}
+				completed.addAll(orders);
+			}
+			if (completed.isEmpty()) {
+				return;
+			}
+			// 委托成交完成处理，与其他批次合并写入
+			orderStatusWriter.completed(completed).get();
+			for (ExchangeOrder order : completed) {
+				// 推送订单成交
+				messagingTemplate.convertAndSend(
+						"/topic/market/order-completed/" + order.getSymbol() + "/" + order.getMemberId(), order);
+				nettyHandler.handleOrder(NettyCommand.PUSH_EXCHANGE_ORDER_COMPLETED, order);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -103,6 +175,7 @@ public class ExchangeTradeConsumer {
 				if (coinProcessor != null) {
 					coinProcessor.process(trades);
 				}
+				marketSnapshotService.changed();
 				pushJob.addTrades(symbol, trades);
 			}
 		} catch (Exception e) {
@@ -111,19 +184,17 @@ public class ExchangeTradeConsumer {
 	}
 
 	/**
-	 * 消费交易盘口信息
+	 * 消费盘口增量及快照，同一交易对的消息在同一分区内有序
 	 *
 	 * @param records
 	 */
-	@KafkaListener(topics = "exchange-trade-plate", containerFactory = "kafkaListenerContainerFactory")
-	public void handleTradePlate(List<ConsumerRecord<String, String>> records) {
+	@KafkaListener(topics = "exchange-trade-plate-delta", containerFactory = "binaryListenerContainerFactory")
+	public void handleTradePlate(List<ConsumerRecord<String, byte[]>> records) {
 		try {
 			for (int i = 0; i < records.size(); i++) {
-				ConsumerRecord<String, String> record = records.get(i);
-				//logger.info("推送盘口信息topic={},value={},size={}", record.topic(), record.value(), records.size());
-				TradePlate plate = JSON.parseObject(record.value(), TradePlate.class);
-				String symbol = plate.getSymbol();
-				pushJob.addPlates(symbol, plate);
+				ConsumerRecord<String, byte[]> record = records.get(i);
+				TradePlateDelta delta = ExchangeWireCodec.decodePlateDelta(record.value());
+				pushJob.addPlateDelta(delta.getSymbol(), delta);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -135,19 +206,25 @@ public class ExchangeTradeConsumer {
 	 *
 	 * @param records
 	 */
-	@KafkaListener(topics = "exchange-order-cancel-success", containerFactory = "kafkaListenerContainerFactory")
-	public void handleOrderCanceled(List<ConsumerRecord<String, String>> records) {
+	@KafkaListener(topics = "exchange-order-cancel-success", containerFactory = "binaryListenerContainerFactory")
+	public void handleOrderCanceled(List<ConsumerRecord<String, byte[]>> records) {
 		try {
+			List<ExchangeOrder> canceled = new ArrayList<>(records.size());
 			for (int i = 0; i < records.size(); i++) {
-				ConsumerRecord<String, String> record = records.get(i);
-				//logger.info("取消订单消息topic={},value={},size={}", record.topic(), record.value(), records.size());
-				ExchangeOrder order = JSON.parseObject(record.value(), ExchangeOrder.class);
-				String symbol = order.getSymbol();
-				// 调用服务处理
-				exchangeOrderService.cancelOrder(order.getOrderId(), order.getTradedAmount(), order.getTurnover());
+				ConsumerRecord<String, byte[]> record = records.get(i);
+				ExchangeOrder order = ExchangeWireCodec.decodeOrder(record.value());
+				sequenceChecker.check(record.topic(), order.getSymbol(), order.getSequence(), order.getSequence());
+				canceled.add(order);
+			}
+			if (canceled.isEmpty()) {
+				return;
+			}
+			// 调用服务处理，批量撤单合并写入
+			orderStatusWriter.canceled(canceled).get();
+			for (ExchangeOrder order : canceled) {
 				// 推送实时成交
-				messagingTemplate.convertAndSend("/topic/market/order-canceled/" + symbol + "/" + order.getMemberId(),
-						order);
+				messagingTemplate.convertAndSend(
+						"/topic/market/order-canceled/" + order.getSymbol() + "/" + order.getMemberId(), order);
 				nettyHandler.handleOrder(NettyCommand.PUSH_EXCHANGE_ORDER_CANCELED, order);
 			}
 		} catch (Exception e) {
@@ -156,40 +233,86 @@ public class ExchangeTradeConsumer {
 	}
 
 	public class HandleTradeThread implements Runnable {
-		private ConsumerRecord<String, String> record;
+		private List<ExchangeTrade> trades;
 
-		private HandleTradeThread(ConsumerRecord<String, String> record) {
-			this.record = record;
+		private HandleTradeThread(List<ExchangeTrade> trades) {
+			this.trades = trades;
 		}
 
+		/**
+		 * 结算失败时抛出异常，由监听方法回退分区重新消费；结算成功后推送和K线出错只记录日志，
+		 * 重新消费时这些成交已去重，不会再推送
+		 */
 		@Override
 		public void run() {
-			//logger.info("topic={},value={}", record.topic(), record.value());
+			String symbol = trades.get(0).getSymbol();
+			// 成交明细处理，重复投递的成交已跳过，不再推送和计入K线
+			List<ExchangeTrade> settled;
+			try {
+				settled = settle(trades);
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException("settle trades failed,symbol=" + symbol, e);
+			}
+			if (settled.isEmpty()) {
+				return;
+			}
 			try {
-				List<ExchangeTrade> trades = JSON.parseArray(record.value(), ExchangeTrade.class);
-				String symbol = trades.get(0).getSymbol();
 				CoinProcessor coinProcessor = coinProcessorFactory.getProcessor(symbol);
-				for (ExchangeTrade trade : trades) {
-					// 成交明细处理
-					exchangeOrderService.processExchangeTrade(trade, secondReferrerAward);
+				for (ExchangeTrade trade : settled) {
 					// 推送订单成交订阅
 					ExchangeOrder buyOrder = exchangeOrderService.findOne(trade.getBuyOrderId());
 					ExchangeOrder sellOrder = exchangeOrderService.findOne(trade.getSellOrderId());
-					messagingTemplate.convertAndSend(
-							"/topic/market/order-trade/" + symbol + "/" + buyOrder.getMemberId(), buyOrder);
-					messagingTemplate.convertAndSend(
-							"/topic/market/order-trade/" + symbol + "/" + sellOrder.getMemberId(), sellOrder);
-					nettyHandler.handleOrder(NettyCommand.PUSH_EXCHANGE_ORDER_TRADE, buyOrder);
-					nettyHandler.handleOrder(NettyCommand.PUSH_EXCHANGE_ORDER_TRADE, sellOrder);
+					pushOrderTrade(symbol, buyOrder);
+					pushOrderTrade(symbol, sellOrder);
 				}
 				// 处理K线行情
 				if (coinProcessor != null) {
-					coinProcessor.process(trades);
+					coinProcessor.process(settled);
 				}
-				pushJob.addTrades(symbol, trades);
+				// 行情已更新，公共行情接口重新生成快照
+				marketSnapshotService.changed();
+				pushJob.addTrades(symbol, settled);
 			} catch (Exception e) {
-				e.printStackTrace();
+				logger.error("推送成交出错,symbol=" + symbol, e);
+			}
+		}
+
+		private void pushOrderTrade(String symbol, ExchangeOrder order) {
+			if (order == null) {
+				return;
+			}
+			messagingTemplate.convertAndSend("/topic/market/order-trade/" + symbol + "/" + order.getMemberId(), order);
+			nettyHandler.handleOrder(NettyCommand.PUSH_EXCHANGE_ORDER_TRADE, order);
+		}
+
+		/**
+		 * 结算成交，返回本次新结算的成交；重复的成交和订单不存在等未结算的成交不返回
+		 */
+		@SuppressWarnings("unchecked")
+		private List<ExchangeTrade> settle(List<ExchangeTrade> trades) throws Exception {
+			if (settlementBatch) {
+				try {
+					MessageResult result = exchangeOrderService.processExchangeTrades(trades, secondReferrerAward);
+					if (result.getCode() != 0 || result.getData() == null) {
+						logger.error("批量结算未处理,size={},message={}", trades.size(), result.getMessage());
+						return new ArrayList<>();
+					}
+					return (List<ExchangeTrade>) result.getData();
+				} catch (Exception e) {
+					// 整批已回滚，逐笔处理
+					logger.error("批量结算失败,改为逐笔处理,size=" + trades.size(), e);
+				}
+			}
+			List<ExchangeTrade> settled = new ArrayList<>(trades.size());
+			for (ExchangeTrade trade : trades) {
+				MessageResult result = exchangeOrderService.processExchangeTrade(trade, secondReferrerAward);
+				if (result.getCode() == 0) {
+					settled.add(trade);
+				}
 			}
+			return settled;
 		}
 	}
 }
@@ -0,0 +1,160 @@
+package com.bizzan.bitrade.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bizzan.bitrade.entity.ExchangeOrder;
+import com.bizzan.bitrade.service.ExchangeOrderService;
+
+/**
+ * 订单结束状态的合并写入
+ *
+ * 成交完成、取消成功的订单先进入队列，写入线程收集 linger 毫秒内（最多 max-batch 个）的订单，
+ * 在一个事务中批量更新订单状态并解冻；提交方等待写入完成后才返回，由监听容器提交位置。
+ * 批量写入失败时逐笔处理，避免一个异常订单阻塞整批
+ */
+@Component
+public class OrderStatusWriter {
+	private Logger logger = LoggerFactory.getLogger(OrderStatusWriter.class);
+	@Autowired
+	private ExchangeOrderService exchangeOrderService;
+	// 收集订单的最长等待时间，毫秒
+	@Value("${exchange.order.group-commit.linger:5}")
+	private long linger;
+	// 一次写入的最大订单数
+	@Value("${exchange.order.group-commit.max-batch:1000}")
+	private int maxBatch;
+
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	private volatile boolean running;
+	private Thread writer;
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		writer = new Thread(this::run, "order-status-writer");
+		writer.start();
+	}
+
+	/**
+	 * 提交成交完成的订单
+	 *
+	 * @param orders 撮合引擎发出的订单，成交量、成交额为最终值
+	 * @return 写入完成后结束
+	 */
+	public Future<Void> completed(List<ExchangeOrder> orders) {
+		return submit(new Request(orders, true));
+	}
+
+	/**
+	 * 提交取消成功的订单
+	 *
+	 * @param orders
+	 * @return 写入完成后结束
+	 */
+	public Future<Void> canceled(List<ExchangeOrder> orders) {
+		return submit(new Request(orders, false));
+	}
+
+	private Future<Void> submit(Request request) {
+		if (!running) {
+			throw new IllegalStateException("order status writer is shut down");
+		}
+		queue.add(request);
+		return request.future;
+	}
+
+	private void run() {
+		List<Request> group = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				group.add(first);
+				int size = first.orders.size();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(linger);
+				while (size < maxBatch) {
+					long wait = deadline - System.nanoTime();
+					Request next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					group.add(next);
+					size += next.orders.size();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				running = false;
+			}
+			if (!group.isEmpty()) {
+				write(group);
+				group.clear();
+			}
+		}
+	}
+
+	private void write(List<Request> group) {
+		List<ExchangeOrder> completed = new ArrayList<>();
+		List<ExchangeOrder> canceled = new ArrayList<>();
+		for (Request request : group) {
+			(request.completed ? completed : canceled).addAll(request.orders);
+		}
+		try {
+			exchangeOrderService.finishOrders(completed, canceled);
+		} catch (Exception e) {
+			// 整批已回滚，逐笔处理
+			logger.error("批量更新订单状态失败,改为逐笔处理,completed=" + completed.size() + ",canceled=" + canceled.size(), e);
+			for (ExchangeOrder order : completed) {
+				try {
+					exchangeOrderService.tradeCompleted(order.getOrderId(), order.getTradedAmount(), order.getTurnover());
+				} catch (Exception ex) {
+					logger.error("订单成交完成处理出错,orderId=" + order.getOrderId(), ex);
+				}
+			}
+			for (ExchangeOrder order : canceled) {
+				try {
+					exchangeOrderService.cancelOrder(order.getOrderId(), order.getTradedAmount(), order.getTurnover());
+				} catch (Exception ex) {
+					logger.error("订单取消处理出错,orderId=" + order.getOrderId(), ex);
+				}
+			}
+		}
+		for (Request request : group) {
+			request.future.complete(null);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		running = false;
+		if (writer != null) {
+			writer.join(TimeUnit.SECONDS.toMillis(30));
+		}
+	}
+
+	private static class Request {
+		final List<ExchangeOrder> orders;
+		final boolean completed;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		Request(List<ExchangeOrder> orders, boolean completed) {
+			this.orders = orders;
+			this.completed = completed;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.bizzan.bitrade.consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 成交结算执行器
+ *
+ * 按 key 把任务分配到固定数量的通道，每个通道一个线程、一个有界队列，同一 key 的任务按提交顺序依次执行；
+ * 通道队列满时提交方阻塞等待，不丢弃任务，Kafka 监听线程因此放慢拉取，由监听容器暂停分区
+ */
+@Component
+public class SettlementExecutor {
+	private final List<ThreadPoolExecutor> lanes = new ArrayList<>();
+
+	public SettlementExecutor(@Value("${exchange.settlement.lanes:0}") int lanes,
+			@Value("${exchange.settlement.lane-capacity:256}") int capacity) {
+		int count = lanes > 0 ? lanes : Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(capacity),
+					runnable -> new Thread(runnable, "settlement-" + index),
+					(runnable, executor) -> {
+						if (executor.isShutdown()) {
+							throw new RejectedExecutionException("settlement executor is shut down");
+						}
+						try {
+							executor.getQueue().put(runnable);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RejectedExecutionException(e);
+						}
+					});
+			this.lanes.add(lane);
+		}
+	}
+
+	/**
+	 * 提交任务，通道队列已满时阻塞
+	 *
+	 * @param key 同一 key 的任务在同一通道内按顺序执行
+	 * @param task
+	 * @return
+	 */
+	public Future<?> submit(String key, Runnable task) {
+		int lane = (key == null ? 0 : key.hashCode() & Integer.MAX_VALUE) % lanes.size();
+		return lanes.get(lane).submit(task);
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		for (ThreadPoolExecutor lane : lanes) {
+			lane.shutdown();
+		}
+		for (ThreadPoolExecutor lane : lanes) {
+			lane.awaitTermination(30, TimeUnit.SECONDS);
+		}
+	}
+}
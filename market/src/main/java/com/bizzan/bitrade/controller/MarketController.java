@@ -23,6 +23,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestTemplate;
 
+import javax.servlet.http.HttpServletRequest;
+
 import java.math.BigDecimal;
 import java.util.*;
 
@@ -46,6 +48,8 @@ public class MarketController {
     
     @Autowired
     private CoinExchangeRate coinExchangeRate;
+    @Autowired
+    private MarketSnapshotService marketSnapshotService;
 
     /**
      * 获取支持的交易币种
@@ -58,6 +62,10 @@ public class MarketController {
     }
 
     @RequestMapping("overview")
+    public ResponseEntity<byte[]> overview(HttpServletRequest request){
+        return marketSnapshotService.response("overview",request,this::overview);
+    }
+
     public Map<String,List<CoinThumb>> overview(){
         log.info("/market/overview");
         Map<String,List<CoinThumb>> result = new HashMap<>();
@@ -138,6 +146,10 @@ public class MarketController {
      * @return
      */
     @RequestMapping("symbol-thumb")
+    public ResponseEntity<byte[]> findSymbolThumb(HttpServletRequest request){
+        return marketSnapshotService.response("symbol-thumb",request,this::findSymbolThumb);
+    }
+
     public List<CoinThumb> findSymbolThumb(){
         List<ExchangeCoin> coins = coinService.findAllVisible();
         List<CoinThumb> thumbs = new ArrayList<>();
@@ -151,6 +163,10 @@ public class MarketController {
     }
 
     @RequestMapping("symbol-thumb-trend")
+    public ResponseEntity<byte[]> findSymbolThumbWithTrend(HttpServletRequest request){
+        return marketSnapshotService.response("symbol-thumb-trend",request,this::findSymbolThumbWithTrend);
+    }
+
     public JSONArray findSymbolThumbWithTrend(){
         List<ExchangeCoin> coins = coinService.findAllVisible();
         //List<CoinThumb> thumbs = new ArrayList<>();
@@ -168,7 +184,7 @@ public class MarketController {
             CoinThumb thumb = processor.getThumb();
             JSONObject json = (JSONObject) JSON.toJSON(thumb);
             json.put("zone",coin.getZone());
-            List<KLine> lines = marketService.findAllKLine(thumb.getSymbol(),firstTimeOfToday,nowTime,"1hour");
+            List<KLine> lines = marketService.findKLine(thumb.getSymbol(),firstTimeOfToday,nowTime,"1hour");
             JSONArray trend = new JSONArray();
             for(KLine line:lines){
                 trend.add(line.getClosePrice());
@@ -211,7 +227,13 @@ public class MarketController {
                 period = (val/60) + "hour";
             }
         }
-        List<KLine> list = marketService.findAllKLine(symbol,from,to,period);
+        List<KLine> list;
+        if(coinProcessorFactory.getProcessor(symbol) != null) {
+            list = marketService.findKLine(symbol,from,to,period);
+        }
+        else {
+            list = marketService.findAllKLine(symbol,from,to,period);
+        }
 
         JSONArray array = new JSONArray();
         boolean startFlag = false;
@@ -251,8 +273,13 @@ public class MarketController {
      * @return
      */
     @RequestMapping("latest-trade")
-    public List<ExchangeTrade> latestTrade(String symbol, int size){
-        return exchangeTradeService.findLatest(symbol,size);
+    public ResponseEntity<?> latestTrade(String symbol, int size, HttpServletRequest request){
+        //只缓存已有交易对的常用条数
+        if(coinProcessorFactory.getProcessor(symbol) == null || size <= 0 || size > 100){
+            return ResponseEntity.ok(exchangeTradeService.findLatest(symbol,size));
+        }
+        return marketSnapshotService.response("latest-trade:"+symbol+":"+size,request,
+                ()->exchangeTradeService.findLatest(symbol,size));
     }
 
     @RequestMapping("exchange-plate")
@@ -2,25 +2,28 @@ package com.bizzan.bitrade.handler;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
 
 import com.bizzan.bitrade.entity.CoinThumb;
 import com.bizzan.bitrade.entity.ExchangeTrade;
 import com.bizzan.bitrade.entity.KLine;
+import com.bizzan.bitrade.service.MarketService;
+import com.bizzan.bitrade.service.MongoBulkWriter;
 
 @Component
 public class MongoMarketHandler implements MarketHandler {
     @Autowired
-    private MongoTemplate mongoTemplate;
+    private MongoBulkWriter mongoBulkWriter;
+    @Autowired
+    private MarketService marketService;
 
     @Override
     public void handleTrade(String symbol, ExchangeTrade exchangeTrade, CoinThumb thumb) {
-        mongoTemplate.insert(exchangeTrade, "exchange_trade_" + symbol);
+        mongoBulkWriter.insert(exchangeTrade, "exchange_trade_" + symbol);
     }
 
     @Override
     public void handleKLine(String symbol, KLine kLine) {
-        mongoTemplate.insert(kLine,"exchange_kline_"+symbol+"_"+kLine.getPeriod());
+        marketService.saveKLine(symbol, kLine);
     }
 }
@@ -5,9 +5,9 @@ import com.alibaba.fastjson.JSONObject;
 import com.aqmd.netty.annotation.HawkBean;
 import com.aqmd.netty.annotation.HawkMethod;
 import com.aqmd.netty.common.NettyCacheUtils;
-import com.aqmd.netty.push.HawkPushServiceApi;
 import com.bizzan.bitrade.constant.NettyCommand;
 import com.bizzan.bitrade.entity.*;
+import com.bizzan.bitrade.netty.NettyPushEngine;
 import com.bizzan.bitrade.netty.QuoteMessage;
 
 import io.netty.channel.Channel;
@@ -26,7 +26,7 @@ import java.util.Set;
 @Slf4j
 public class NettyHandler implements MarketHandler {
     @Autowired
-    private HawkPushServiceApi hawkPushService;
+    private NettyPushEngine pushEngine;
     private String topicOfSymbol = "SYMBOL_THUMB";
 
     public void subscribeTopic(Channel channel, String topic){
@@ -100,30 +100,49 @@ public class NettyHandler implements MarketHandler {
 
     @Override
     public void handleTrade(String symbol, ExchangeTrade exchangeTrade, CoinThumb thumb) {
-        byte[] body = JSON.toJSONString(thumb).getBytes();
-        hawkPushService.pushMsg(NettyCacheUtils.getChannel(topicOfSymbol),NettyCommand.PUSH_SYMBOL_THUMB, body);
-        log.info("推送Trade:"+JSON.toJSONString(exchangeTrade));
-        hawkPushService.pushMsg(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_TRADE,JSONObject.toJSONString(exchangeTrade).getBytes());
+        //缩略行情只需最新值，客户端积压时合并
+        pushEngine.push(NettyCacheUtils.getChannel(topicOfSymbol),NettyCommand.PUSH_SYMBOL_THUMB,
+                JSON.toJSONString(thumb).getBytes(),"thumb:"+symbol);
+        String trade = JSONObject.toJSONString(exchangeTrade);
+        log.debug("推送Trade:{}",trade);
+        pushEngine.push(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_TRADE,trade.getBytes());
     }
 
     @Override
     public void handleKLine(String symbol, KLine kLine) {
-        hawkPushService.pushMsg(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_KLINE, JSONObject.toJSONString(kLine).getBytes());
+        pushEngine.push(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_KLINE, JSONObject.toJSONString(kLine).getBytes());
     }
 
     public void handlePlate(String symbol,TradePlate plate){
-        //log.info("推送盘口>>>>>:"+JSON.toJSONString(plate));
+        handlePlate(symbol,plate.getDirection(),plate.toJSON(24).toJSONString().getBytes(),
+                plate.toJSON(50).toJSONString().getBytes());
+    }
+
+    /**
+     * 推送已序列化的盘口和深度
+     * @param symbol
+     * @param direction
+     * @param plate 24档盘口
+     * @param depth 50档深度
+     */
+    public void handlePlate(String symbol,ExchangeOrderDirection direction,byte[] plate,byte[] depth){
         //推送盘口
-        hawkPushService.pushMsg(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_PLATE, plate.toJSON(24).toJSONString().getBytes());
+        pushEngine.push(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_PLATE,plate,"plate:"+symbol+":"+direction);
         //推送深度
-        hawkPushService.pushMsg(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_DEPTH, plate.toJSON(50).toJSONString().getBytes());
+        pushEngine.push(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_DEPTH,depth,"depth:"+symbol+":"+direction);
+    }
+
+    public void handlePlateDelta(String symbol, TradePlateDelta delta){
+        //推送盘口增量，客户端按序号校验是否缺失，不能合并
+        pushEngine.push(NettyCacheUtils.getChannel(symbol),NettyCommand.PUSH_EXCHANGE_PLATE_DELTA, JSON.toJSONString(delta).getBytes());
     }
 
     public void handleOrder(short command, ExchangeOrder order){
         try {
             String topic = order.getSymbol() + "-" + order.getMemberId();
-            log.info("推送订单:" + JSON.toJSONString(order));
-            hawkPushService.pushMsg(NettyCacheUtils.getChannel(topic), command, JSON.toJSONString(order).getBytes());
+            String body = JSON.toJSONString(order);
+            log.info("推送订单:" + body);
+            pushEngine.push(NettyCacheUtils.getChannel(topic), command, body.getBytes());
         }
         catch (Exception e){
             e.printStackTrace();
@@ -21,6 +21,7 @@ import com.bizzan.bitrade.processor.CoinProcessorFactory;
 import com.bizzan.bitrade.processor.DefaultCoinProcessor;
 import com.bizzan.bitrade.service.ExchangeCoinService;
 import com.bizzan.bitrade.service.MarketService;
+import com.bizzan.bitrade.service.MarketSnapshotService;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -54,6 +55,9 @@ public class CoinProcessorJob {
     @Autowired
     CoinExchangeRate exchangeRate;
     
+    @Autowired
+    MarketSnapshotService marketSnapshotService;
+    
     
     /**
      * 1分钟定时器，每隔1分钟进行一次
@@ -114,6 +118,7 @@ public class CoinProcessorJob {
             processor.setMarketService(marketService);
             processor.setExchangeRate(exchangeRate);
             processor.initializeThumb();
+            processor.initializeKLine();
             processor.initializeUsdRate();
 
 
@@ -138,6 +143,7 @@ public class CoinProcessorJob {
             	processor.setIsStopKLine(true);
             }
             processorFactory.addProcessor(symbol, processor);
+            marketSnapshotService.changed();
             
             log.info("============[End]initialized  New CoinProcessor(" + symbol + ") end=====================");
         }
@@ -1,18 +1,27 @@
 package com.bizzan.bitrade.job;                   // 定时任务所在包
 
+import lombok.extern.slf4j.Slf4j; // 日志
 import org.springframework.beans.factory.annotation.Autowired; // 自动注入
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor; // 手工构造 STOMP 消息头
 import org.springframework.messaging.simp.SimpMessagingTemplate; // WebSocket 推送模板
+import org.springframework.messaging.support.MessageBuilder; // 用已序列化的字节构造消息
 import org.springframework.scheduling.annotation.Scheduled; // 定时器注解
 import org.springframework.stereotype.Component; // 声明为 Spring 组件，可被扫描
+import org.springframework.util.MimeTypeUtils; // application/json
 
+import com.alibaba.fastjson.JSON; // 盘口只序列化一次
 import com.bizzan.bitrade.entity.CoinThumb; // 币种简况（24h 涨跌、最新价等）
 import com.bizzan.bitrade.entity.ExchangeOrderDirection; // BUY/SELL 枚举
 import com.bizzan.bitrade.entity.ExchangeTrade; // 成交明细
 import com.bizzan.bitrade.entity.TradePlate; // 盘口深度对象
+import com.bizzan.bitrade.entity.TradePlateDelta; // 盘口增量/快照消息
+import com.bizzan.bitrade.entity.TradePlateItem; // 盘口价位
 import com.bizzan.bitrade.handler.NettyHandler; // Netty 推送网关
 
 import java.util.*; // 集合工具
+import java.util.concurrent.ConcurrentHashMap; // 多个 Kafka 监听线程并发写入
 
+@Slf4j
 @Component // 被 Spring 扫描 → 实例化 → 注册到容器
 public class ExchangePushJob {
 
@@ -24,7 +33,7 @@ public class ExchangePushJob {
 
     // ===== 以下三个 Map 是“内存队列”：生产者线程往里扔，定时任务每 X 毫秒批量推 =====
     private Map<String, List<ExchangeTrade>> tradesQueue = new HashMap<>(); // 成交明细队列
-    private Map<String, List<TradePlate>> plateQueue = new HashMap<>();     // 盘口队列
+    private Map<String, PlateBook> plateBooks = new ConcurrentHashMap<>();  // 按增量维护的盘口及待转发增量
     private Map<String, List<CoinThumb>> thumbQueue = new HashMap<>();      // 币种简况队列
 
     /* ------------------------------------------------------------------
@@ -43,15 +52,11 @@ public class ExchangePushJob {
         }
     }
 
-    // 盘口深度入队
-    public void addPlates(String symbol, TradePlate plate) {
-        List<TradePlate> list = plateQueue.get(symbol);
-        if (list == null) {
-            list = new ArrayList<>();
-            plateQueue.put(symbol, list);
-        }
-        synchronized (list) {
-            list.add(plate);
+    // 盘口增量入队：校验序号后应用到本地盘口，并排队等待转发
+    public void addPlateDelta(String symbol, TradePlateDelta delta) {
+        PlateBook book = plateBooks.computeIfAbsent(symbol, PlateBook::new);
+        synchronized (book) {
+            book.apply(delta);
         }
     }
 
@@ -93,37 +98,53 @@ public class ExchangePushJob {
     }
 
     /**
-     * 每 2 秒把累计的盘口深度推一次
+     * 每 500 毫秒转发累计的盘口增量，客户端按序号应用，发现缺号时等待下一个快照
+     */
+    @Scheduled(fixedRate = 500)
+    public void pushPlateDelta() {
+        for (Map.Entry<String, PlateBook> entry : plateBooks.entrySet()) {
+            String symbol = entry.getKey();
+            PlateBook book = entry.getValue();
+            List<TradePlateDelta> deltas;
+            synchronized (book) {
+                if (book.pending.isEmpty()) {
+                    continue;
+                }
+                deltas = new ArrayList<>(book.pending);
+                book.pending.clear();
+            }
+            // WebSocket 主题：/topic/market/trade-plate-delta/BTC_USDT
+            messagingTemplate.convertAndSend("/topic/market/trade-plate-delta/" + symbol, deltas);
+            for (TradePlateDelta delta : deltas) {
+                nettyHandler.handlePlateDelta(symbol, delta);
+            }
+        }
+    }
+
+    /**
+     * 每 2 秒把有变化的完整盘口推一次（兼容只订阅完整盘口的客户端）
      * fixedDelay = 2000 表示“上一次跑完后再等 2 秒”，不会重叠
      */
     @Scheduled(fixedDelay = 2000)
     public void pushPlate() {
-        Iterator<Map.Entry<String, List<TradePlate>>> it = plateQueue.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, List<TradePlate>> entry = it.next();
+        for (Map.Entry<String, PlateBook> entry : plateBooks.entrySet()) {
             String symbol = entry.getKey();
-            List<TradePlate> plates = entry.getValue();
-            if (plates.size() > 0) {
-                boolean hasPushAskPlate = false;
-                boolean hasPushBidPlate = false;
-                synchronized (plates) {
-                    for (TradePlate plate : plates) {
-                        // 只推一次买盘和卖盘，避免重复
-                        if (plate.getDirection() == ExchangeOrderDirection.BUY && !hasPushBidPlate) {
-                            hasPushBidPlate = true;
-                        } else if (plate.getDirection() == ExchangeOrderDirection.SELL && !hasPushAskPlate) {
-                            hasPushAskPlate = true;
-                        } else {
-                            continue;
-                        }
-                        // 1. WebSocket 推盘口（24 档）
-                        messagingTemplate.convertAndSend("/topic/market/trade-plate/" + symbol, plate.toJSON(24));
-                        // 2. WebSocket 推深度（50 档）
-                        messagingTemplate.convertAndSend("/topic/market/trade-depth/" + symbol, plate.toJSON(50));
-                        // 3. Netty 推送给 APP/终端
-                        nettyHandler.handlePlate(symbol, plate);
-                    }
-                    plates.clear(); // 清空已推送
+            PlateBook book = entry.getValue();
+            synchronized (book) {
+                if (!book.changed) {
+                    continue;
+                }
+                book.changed = false;
+                for (TradePlate plate : new TradePlate[]{book.bid, book.ask}) {
+                    // 盘口、深度各序列化一次，WebSocket 和 Netty 共用同一份字节
+                    byte[] plateJson = JSON.toJSONBytes(plate.toJSON(24));
+                    byte[] depthJson = JSON.toJSONBytes(plate.toJSON(50));
+                    // 1. WebSocket 推盘口（24 档）
+                    sendJson("/topic/market/trade-plate/" + symbol, plateJson);
+                    // 2. WebSocket 推深度（50 档）
+                    sendJson("/topic/market/trade-depth/" + symbol, depthJson);
+                    // 3. Netty 推送给 APP/终端
+                    nettyHandler.handlePlate(symbol, plate.getDirection(), plateJson, depthJson);
                 }
             }
         }
@@ -148,4 +169,64 @@ public class ExchangePushJob {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 发送已序列化的 JSON，不再经过消息转换器
+     */
+    private void sendJson(String destination, byte[] body) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(destination, MessageBuilder.createMessage(body, accessor.getMessageHeaders()));
+    }
+
+    /**
+     * 单个交易对的本地盘口，由撮合引擎的快照初始化，之后按序号连续应用增量
+     */
+    private static class PlateBook {
+        private final TradePlate bid;
+        private final TradePlate ask;
+        private long sequence = 0;        // 已应用的最后序号
+        private boolean synced = false;   // 收到快照后才能应用增量
+        private boolean changed = false;  // 上次推送完整盘口后是否有变化
+        private final List<TradePlateDelta> pending = new ArrayList<>(); // 待转发的增量
+
+        PlateBook(String symbol) {
+            this.bid = new TradePlate(symbol, ExchangeOrderDirection.BUY);
+            this.ask = new TradePlate(symbol, ExchangeOrderDirection.SELL);
+        }
+
+        void apply(TradePlateDelta delta) {
+            // 同一交易对的消息有序，快照总是最新状态（撮合重启后序号会从头开始）
+            if (delta.isSnapshot()) {
+                bid.setItems(delta.getBids());
+                ask.setItems(delta.getAsks());
+                accept(delta);
+                return;
+            }
+            if (!synced || delta.getSequence() <= sequence) {
+                return;
+            }
+            if (delta.getSequence() != sequence + 1) {
+                log.warn("盘口增量缺号，等待快照重新同步,symbol={},expected={},actual={}",
+                        bid.getSymbol(), sequence + 1, delta.getSequence());
+                synced = false;
+                return;
+            }
+            for (TradePlateItem item : delta.getBids()) {
+                bid.update(item.getPrice(), item.getAmount());
+            }
+            for (TradePlateItem item : delta.getAsks()) {
+                ask.update(item.getPrice(), item.getAmount());
+            }
+            accept(delta);
+        }
+
+        private void accept(TradePlateDelta delta) {
+            sequence = delta.getSequence();
+            synced = true;
+            changed = true;
+            pending.add(delta);
+        }
+    }
+}
@@ -8,13 +8,14 @@ import org.springframework.stereotype.Component;
 import com.bizzan.bitrade.processor.CoinProcessor;
 import com.bizzan.bitrade.processor.CoinProcessorFactory;
 import com.bizzan.bitrade.service.ExchangeCoinService;
+import com.bizzan.bitrade.service.MarketSnapshotService;
 
 import java.util.Calendar;
 import java.util.HashMap;
 
 /**
  * 生成各时间段的K线信息
- *
+ * 各周期K线由 CoinProcessor 随成交增量聚合，这里只在周期结束时收盘并存储
  */
 @Component
 @Slf4j
@@ -23,6 +24,8 @@ public class KLineGeneratorJob {
     private CoinProcessorFactory processorFactory;
     @Autowired
     private ExchangeCoinService coinService;
+    @Autowired
+    private MarketSnapshotService marketSnapshotService;
     
     /**
      * 每分钟定时器，处理分钟K线
@@ -61,6 +64,8 @@ public class KLineGeneratorJob {
 	            }
         	}
         });
+        //24H成交量、日行情已更新
+        marketSnapshotService.changed();
     }
 
     /**
@@ -81,6 +86,8 @@ public class KLineGeneratorJob {
 	            processor.generateKLine(1, Calendar.HOUR_OF_DAY, time);
         	}
         });
+        //小时K线已收盘，行情趋势需要更新
+        marketSnapshotService.changed();
     }
 
     /**
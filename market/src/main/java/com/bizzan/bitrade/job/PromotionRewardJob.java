@@ -0,0 +1,63 @@
+package com.bizzan.bitrade.job;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bizzan.bitrade.service.PromotionRewardService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 定时合并发放成交结算记录的推广佣金
+ *
+ * 与 WalletLedgerJob 一样使用独立线程，不占用 @Scheduled 的单线程调度器
+ */
+@Component
+@Slf4j
+public class PromotionRewardJob {
+	@Autowired
+	private PromotionRewardService promotionRewardService;
+
+	//两次发放之间的间隔，毫秒
+	@Value("${exchange.reward.accrue-interval:1000}")
+	private long accrueInterval;
+
+	private ScheduledExecutorService executor;
+
+	@PostConstruct
+	public void start() {
+		if (!promotionRewardService.isEnabled()) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "promotion-reward"));
+		executor.scheduleWithFixedDelay(this::accrue, accrueInterval, accrueInterval, TimeUnit.MILLISECONDS);
+	}
+
+	private void accrue() {
+		try {
+			int accrued;
+			do {
+				accrued = promotionRewardService.accrue();
+			} while (accrued >= promotionRewardService.getAccrueBatch());
+		} catch (Exception e) {
+			log.error("accrue promotion reward failed", e);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,86 @@
+package com.bizzan.bitrade.job;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.bizzan.bitrade.service.WalletLedgerService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 把成交结算延迟写入的钱包变动合并写入 member_wallet
+ *
+ * 使用独立线程，不占用 @Scheduled 的单线程调度器，避免影响行情推送；
+ * 有写入失败、等待重试的变动时定时输出告警日志，这些钱包的到账在写入成功前用户不可见
+ */
+@Component
+@Slf4j
+public class WalletLedgerJob {
+	@Autowired
+	private WalletLedgerService walletLedgerService;
+
+	//两次写入之间的间隔，毫秒
+	@Value("${exchange.wallet.flush-interval:200}")
+	private long flushInterval;
+
+	//检查写入失败变动并告警的间隔，毫秒
+	@Value("${exchange.wallet.alert-interval:60000}")
+	private long alertInterval;
+
+	private ScheduledExecutorService executor;
+
+	@PostConstruct
+	public void start() {
+		if (!walletLedgerService.isEnabled()) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "wallet-ledger"));
+		executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(this::alert, alertInterval, alertInterval, TimeUnit.MILLISECONDS);
+	}
+
+	private void alert() {
+		try {
+			Map<String, Object> summary = walletLedgerService.failedSummary();
+			Number wallets = (Number) summary.get("wallets");
+			if (wallets != null && wallets.longValue() > 0) {
+				log.error("[ALERT] wallet delta flush failing,wallets={},deltas={},oldest={}",
+						wallets, summary.get("deltas"), summary.get("oldest"));
+			}
+		} catch (Exception e) {
+			log.error("check failed wallet delta failed", e);
+		}
+	}
+
+	private void flush() {
+		try {
+			// 积压时连续写入，直到取不满一批
+			int flushed;
+			do {
+				flushed = walletLedgerService.flush();
+			} while (flushed >= walletLedgerService.getFlushBatch());
+		} catch (Exception e) {
+			log.error("flush wallet delta failed", e);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+		// 未写入的变动留在表中，重启后继续处理；这里尽量在退出前写完
+		flush();
+	}
+}
@@ -0,0 +1,212 @@
+package com.bizzan.bitrade.netty;
+
+import com.aqmd.netty.push.HawkPushServiceApi;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Netty 推送
+ *
+ * 每条消息只编码一次：按 HawkServerEncoder 的报文格式（长度、序号、命令、状态码、请求号、消息体）写入池化的 ByteBuf，
+ * 各订阅连接写入共享同一内存的引用计数副本，编码器直接透传 ByteBuf，websocket 连接仍由 WebSocketFramePrepender 封帧。
+ * 缩略行情、盘口等只需最新值的消息带合并键：连接不可写（客户端跟不上）时只保留每个合并键的最新一条，
+ * 连接恢复可写后补发；成交、订单等消息不合并，照常写入。
+ * 报文不经过 Codec 加密，只适用于默认不加密的编解码；未开启时仍逐个连接调用 HawkPushServiceApi
+ */
+@Slf4j
+@Component
+public class NettyPushEngine {
+    //与 HawkPushServiceImpl 相同的起始序号
+    private static final int MIN_SEQ_ID = 536870911;
+    private static final int HEADER_LENGTH = 22;
+    private static final int SUCCESS = 200;
+
+    @Autowired
+    private HawkPushServiceApi hawkPushService;
+
+    @Value("${market.netty.push-engine:false}")
+    private boolean enabled;
+
+    //检查积压连接并补发合并消息的间隔，毫秒
+    @Value("${market.netty.conflate-interval:100}")
+    private long conflateInterval;
+
+    private final AtomicInteger sequence = new AtomicInteger(MIN_SEQ_ID);
+    //连接 -> 合并键 -> 等待补发的最新消息
+    private final Map<Channel, Map<String, ByteBuf>> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "netty-push-conflate"));
+        executor.scheduleWithFixedDelay(this::drain, conflateInterval, conflateInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 推送不合并的消息
+     *
+     * @param channels
+     * @param command
+     * @param body
+     */
+    public void push(Set<Channel> channels, short command, byte[] body) {
+        push(channels, command, body, null);
+    }
+
+    /**
+     * 推送消息
+     *
+     * @param channels 订阅的连接，为空时不推送
+     * @param command
+     * @param body
+     * @param conflateKey 合并键，相同合并键的消息积压时只保留最新一条；为 null 时不合并
+     */
+    public void push(Set<Channel> channels, short command, byte[] body, String conflateKey) {
+        if (channels == null || channels.isEmpty()) {
+            return;
+        }
+        if (!enabled) {
+            hawkPushService.pushMsg(channels, command, body);
+            return;
+        }
+        ByteBuf frame = encode(command, body);
+        try {
+            Iterator<Channel> iterator = channels.iterator();
+            while (iterator.hasNext()) {
+                Channel channel = iterator.next();
+                if (channel == null || !channel.isActive()) {
+                    iterator.remove();
+                    continue;
+                }
+                if (conflateKey == null) {
+                    channel.writeAndFlush(frame.retainedDuplicate(), channel.voidPromise());
+                } else if (channel.isWritable()) {
+                    // 已有更新的消息，积压的旧消息不再补发
+                    release(channel, conflateKey);
+                    channel.writeAndFlush(frame.retainedDuplicate(), channel.voidPromise());
+                } else {
+                    hold(channel, conflateKey, frame.retainedDuplicate());
+                }
+            }
+        } catch (Exception e) {
+            log.error("netty push failed,command=" + command, e);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private ByteBuf encode(short command, byte[] body) {
+        int seq = sequence.getAndIncrement();
+        while (seq < MIN_SEQ_ID) {
+            seq = sequence.addAndGet(MIN_SEQ_ID);
+        }
+        ByteBuf frame = PooledByteBufAllocator.DEFAULT.directBuffer(HEADER_LENGTH + body.length);
+        frame.writeInt(HEADER_LENGTH + body.length);
+        frame.writeLong(seq);
+        frame.writeShort(command);
+        frame.writeInt(SUCCESS);
+        frame.writeInt(0);
+        frame.writeBytes(body);
+        return frame;
+    }
+
+    private void hold(Channel channel, String conflateKey, ByteBuf frame) {
+        Map<String, ByteBuf> frames = pending.computeIfAbsent(channel, key -> new HashMap<>());
+        ByteBuf old;
+        synchronized (frames) {
+            // 连接已断开时 drain 可能已经移除了这个 map
+            if (!channel.isActive()) {
+                frame.release();
+                return;
+            }
+            old = frames.put(conflateKey, frame);
+        }
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    private void release(Channel channel, String conflateKey) {
+        Map<String, ByteBuf> frames = pending.get(channel);
+        if (frames == null) {
+            return;
+        }
+        ByteBuf old;
+        synchronized (frames) {
+            old = frames.remove(conflateKey);
+        }
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    /**
+     * 补发已恢复可写的连接积压的消息，释放已断开连接的消息
+     */
+    private void drain() {
+        for (Map.Entry<Channel, Map<String, ByteBuf>> entry : pending.entrySet()) {
+            Channel channel = entry.getKey();
+            if (channel.isActive() && !channel.isWritable()) {
+                continue;
+            }
+            Map<String, ByteBuf> frames = entry.getValue();
+            synchronized (frames) {
+                if (frames.isEmpty() && channel.isActive()) {
+                    continue;
+                }
+                boolean active = channel.isActive();
+                for (ByteBuf frame : frames.values()) {
+                    if (active) {
+                        channel.write(frame, channel.voidPromise());
+                    } else {
+                        frame.release();
+                    }
+                }
+                frames.clear();
+                if (active) {
+                    channel.flush();
+                } else {
+                    pending.remove(channel, frames);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        for (Map<String, ByteBuf> frames : pending.values()) {
+            synchronized (frames) {
+                frames.values().forEach(ByteBuf::release);
+                frames.clear();
+            }
+        }
+        pending.clear();
+    }
+}
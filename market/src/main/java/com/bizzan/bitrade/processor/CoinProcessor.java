@@ -39,6 +39,11 @@ public interface CoinProcessor {
 
     void initializeThumb();
 
+    /**
+     * 恢复各周期未收盘的K线
+     */
+    void initializeKLine();
+
     void autoGenerate();
 
     void resetThumb();
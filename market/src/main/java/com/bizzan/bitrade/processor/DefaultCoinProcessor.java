@@ -20,10 +20,12 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * 默认交易处理器，产生1mK线信息
+ * 默认交易处理器，产生1mK线信息，并增量聚合5分钟到1个月的各周期K线
  */
 @ToString
 public class DefaultCoinProcessor implements CoinProcessor {
@@ -39,9 +41,18 @@ public class DefaultCoinProcessor implements CoinProcessor {
     private Boolean isHalt = true;  // Halt:  "Halt" (停) 的意思是停止、中止
     //是否停止K线生成
     private Boolean stopKLine = false;
+    //增量聚合的K线周期，与 KLineGeneratorJob 生成的周期一致，按从小到大排列
+    private static final String[] PERIODS = {"5min", "10min", "15min", "30min", "1hour", "1day", "1week", "1month"};
+    //最近24小时的成交量、成交额
+    private volatile TradeWindow tradeWindow = new TradeWindow(24 * 60);
+    //周期 -> 未收盘的K线，每笔成交计入，周期结束时由 generateKLine 收盘存储
+    private final Map<String, KLine> periodKLines = new LinkedHashMap<>();
 
     public DefaultCoinProcessor(String symbol, String baseCoin) {
         handlers = new ArrayList<>();
+        for (String period : PERIODS) {
+            periodKLines.put(period, new KLine(period));
+        }
         createNewKLine();
         this.baseCoin = baseCoin;
         this.symbol = symbol;
@@ -83,9 +94,17 @@ public class DefaultCoinProcessor implements CoinProcessor {
                 if (kline.getClosePrice().compareTo(BigDecimal.ZERO) > 0) {
                     coinThumb.setClose(kline.getClosePrice());
                 }
-                coinThumb.setVolume(coinThumb.getVolume().add(kline.getVolume()));
-                coinThumb.setTurnover(coinThumb.getTurnover().add(kline.getTurnover()));
             }
+            //最近24小时的成交量、成交额由1分钟K线恢复，之后随成交滚动更新
+            TradeWindow window = new TradeWindow(24 * 60);
+            for (KLine kline : service.findAllKLine(this.symbol, nowTime - 24 * 60 * 60 * 1000L + 1, nowTime, period)) {
+                //1分钟K线的时间是结束时间
+                window.add(kline.getTime() - 1, kline.getVolume(), kline.getTurnover());
+            }
+            window.advance(nowTime);
+            tradeWindow = window;
+            coinThumb.setVolume(window.getVolume().setScale(4, RoundingMode.DOWN));
+            coinThumb.setTurnover(window.getTurnover().setScale(4, RoundingMode.DOWN));
             coinThumb.setChange(coinThumb.getClose().subtract(coinThumb.getOpen()));
             // 此处计算涨幅并没有以开盘价为标准，而是以最低价
             if (coinThumb.getLow().compareTo(BigDecimal.ZERO) > 0) {
@@ -135,12 +154,10 @@ public class DefaultCoinProcessor implements CoinProcessor {
     public void update24HVolume(long time) {
         if(coinThumb!=null) {
             synchronized (coinThumb) {
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTimeInMillis(time);
-                calendar.add(Calendar.HOUR_OF_DAY, -24);
-                long timeStart = calendar.getTimeInMillis();
-                BigDecimal volume = service.findTradeVolume(this.symbol, timeStart, time);
-                coinThumb.setVolume(volume.setScale(4, RoundingMode.DOWN));
+                //没有成交时也要淘汰移出24小时窗口的成交
+                tradeWindow.advance(time);
+                coinThumb.setVolume(tradeWindow.getVolume().setScale(4, RoundingMode.DOWN));
+                coinThumb.setTurnover(tradeWindow.getTurnover().setScale(4, RoundingMode.DOWN));
             }
         }
     }
@@ -202,6 +219,14 @@ public class DefaultCoinProcessor implements CoinProcessor {
                     handleTradeStorage(exchangeTrade);
                 }
             }
+            //计入各周期未收盘的K线
+            synchronized (periodKLines) {
+                for (ExchangeTrade exchangeTrade : trades) {
+                    for (KLine kLine : periodKLines.values()) {
+                        processTrade(kLine, exchangeTrade);
+                    }
+                }
+            }
         }
     }
 
@@ -249,9 +274,10 @@ public class DefaultCoinProcessor implements CoinProcessor {
                 coinThumb.setLow(exchangeTrade.getPrice().min(coinThumb.getLow()));
             }
             coinThumb.setClose(exchangeTrade.getPrice());
-            coinThumb.setVolume(coinThumb.getVolume().add(exchangeTrade.getAmount()).setScale(4, RoundingMode.UP));
-            BigDecimal turnover = exchangeTrade.getPrice().multiply(exchangeTrade.getAmount()).setScale(4, RoundingMode.UP);
-            coinThumb.setTurnover(coinThumb.getTurnover().add(turnover));
+            long time = exchangeTrade.getTime() == null ? System.currentTimeMillis() : exchangeTrade.getTime();
+            tradeWindow.add(time, exchangeTrade.getAmount(), exchangeTrade.getPrice().multiply(exchangeTrade.getAmount()));
+            coinThumb.setVolume(tradeWindow.getVolume().setScale(4, RoundingMode.DOWN));
+            coinThumb.setTurnover(tradeWindow.getTurnover().setScale(4, RoundingMode.DOWN));
             BigDecimal change = coinThumb.getClose().subtract(coinThumb.getOpen());
             coinThumb.setChange(change);
             if (coinThumb.getLow().compareTo(BigDecimal.ZERO) > 0) {
@@ -288,20 +314,72 @@ public class DefaultCoinProcessor implements CoinProcessor {
 
     @Override
     public void generateKLine(int range, int field, long time) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTimeInMillis(time);
+        String period = getPeriod(range, field);
+        KLine kLine;
+        synchronized (periodKLines) {
+            kLine = periodKLines.get(period);
+            if (kLine == null) {
+                logger.warn("unsupported kline period {}", period);
+                return;
+            }
+            periodKLines.put(period, new KLine(period));
+        }
+        kLine.setTime(time);
+        // 如果开盘价为0，则设置为前一个价格
+        if(kLine.getOpenPrice().compareTo(BigDecimal.ZERO) == 0) {
+        	kLine.setOpenPrice(coinThumb.getClose());
+        	kLine.setClosePrice(coinThumb.getClose());
+        	kLine.setLowestPrice(coinThumb.getClose());
+        	kLine.setHighestPrice(coinThumb.getClose());
+        }
         DateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        long endTick = calendar.getTimeInMillis();
-        String endTime = df.format(calendar.getTime());
-        //往前推range个时间单位
-        calendar.add(field, -range);
-        String fromTime = df.format(calendar.getTime());
-        long startTick = calendar.getTimeInMillis();
-        System.out.println("time range from " + fromTime + " to " + endTime);
-        List<ExchangeTrade> exchangeTrades = service.findTradeByTimeRange(this.symbol, startTick, endTick);
-
-        KLine kLine = new KLine();
-        kLine.setTime(endTick);
+        logger.info("generate " + period + " kline in {},data={}", df.format(new Date(kLine.getTime())), JSON.toJSONString(kLine));
+        service.saveKLine(symbol, kLine);
+    }
+
+    /**
+     * 从已存储的K线恢复各周期未收盘的K线，小周期由1分钟K线合并，日K线由小时K线合并，周、月K线由日K线合并
+     */
+    @Override
+    public void initializeKLine() {
+        long now = System.currentTimeMillis();
+        synchronized (periodKLines) {
+            for (String period : PERIODS) {
+                String source = "1week".equals(period) || "1month".equals(period) ? "1day" : "1day".equals(period) ? "1hour" : "1min";
+                KLine kLine = new KLine(period);
+                for (KLine closed : service.findAllKLine(symbol, getPeriodStart(period, now) + 1, now, source)) {
+                    mergeKLine(kLine, closed);
+                }
+                // 来源周期未收盘的部分，已在前面恢复
+                KLine partial = periodKLines.get(source);
+                if (partial != null) {
+                    mergeKLine(kLine, partial);
+                }
+                periodKLines.put(period, kLine);
+            }
+        }
+    }
+
+    private void mergeKLine(KLine kLine, KLine part) {
+        // 没有成交的K线由上一笔成交价填充，不参与合并
+        if (part.getCount() == 0) {
+            return;
+        }
+        if (kLine.getClosePrice().compareTo(BigDecimal.ZERO) == 0) {
+            kLine.setOpenPrice(part.getOpenPrice());
+            kLine.setHighestPrice(part.getHighestPrice());
+            kLine.setLowestPrice(part.getLowestPrice());
+        } else {
+            kLine.setHighestPrice(part.getHighestPrice().max(kLine.getHighestPrice()));
+            kLine.setLowestPrice(part.getLowestPrice().min(kLine.getLowestPrice()));
+        }
+        kLine.setClosePrice(part.getClosePrice());
+        kLine.setCount(kLine.getCount() + part.getCount());
+        kLine.setVolume(kLine.getVolume().add(part.getVolume()));
+        kLine.setTurnover(kLine.getTurnover().add(part.getTurnover()));
+    }
+
+    private static String getPeriod(int range, int field) {
         String rangeUnit = "";
         if (field == Calendar.MINUTE) {
             rangeUnit = "min";
@@ -311,24 +389,37 @@ public class DefaultCoinProcessor implements CoinProcessor {
             rangeUnit = "week";
         } else if (field == Calendar.DAY_OF_YEAR) {
             rangeUnit = "day";
-        } else if (field == Calendar.MONTH) {
+        } else if (field == Calendar.MONTH || field == Calendar.DAY_OF_MONTH) {
             rangeUnit = "month";
         }
-        kLine.setPeriod(range + rangeUnit);
+        return range + rangeUnit;
+    }
 
-        // 处理K线信息
-        for (ExchangeTrade exchangeTrade : exchangeTrades) {
-            processTrade(kLine, exchangeTrade);
+    /**
+     * 周期的开始时间，与 KLineGeneratorJob 收盘的时间点一致：周K线在周日0点、月K线在1日0点收盘
+     */
+    private static long getPeriodStart(String period, long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (period.endsWith("min")) {
+            int range = Integer.parseInt(period.substring(0, period.length() - 3));
+            calendar.set(Calendar.MINUTE, calendar.get(Calendar.MINUTE) / range * range);
+            return calendar.getTimeInMillis();
         }
-        // 如果开盘价为0，则设置为前一个价格
-        if(kLine.getOpenPrice().compareTo(BigDecimal.ZERO) == 0) {
-        	kLine.setOpenPrice(coinThumb.getClose());
-        	kLine.setClosePrice(coinThumb.getClose());
-        	kLine.setLowestPrice(coinThumb.getClose());
-        	kLine.setHighestPrice(coinThumb.getClose());
+        calendar.set(Calendar.MINUTE, 0);
+        if (!"1hour".equals(period)) {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
         }
-        logger.info("generate " + range + rangeUnit + " kline in {},data={}", df.format(new Date(kLine.getTime())), JSON.toJSONString(kLine));
-        service.saveKLine(symbol, kLine);
+        if ("1week".equals(period)) {
+            while (calendar.get(Calendar.DAY_OF_WEEK) != Calendar.SUNDAY) {
+                calendar.add(Calendar.DAY_OF_YEAR, -1);
+            }
+        } else if ("1month".equals(period)) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return calendar.getTimeInMillis();
     }
 
     @Override
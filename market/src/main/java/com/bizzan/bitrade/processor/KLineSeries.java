@@ -0,0 +1,189 @@
+package com.bizzan.bitrade.processor;
+
+import com.bizzan.bitrade.entity.KLine;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 单个交易对单个周期最近若干根已收盘K线的内存缓存
+ *
+ * 按列存放在基本类型数组组成的环形缓冲中，时间递增，区间查询二分查找；超过容量时淘汰最早的K线。
+ * coveredFrom 之后的K线保证完整，更早的需要查询 mongodb。价格、成交量以 double 保存，只用于行情图展示
+ */
+public class KLineSeries {
+    private final String period;
+    private final int capacity;
+    private final long[] times;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final double[] volumes;
+    //最早一根K线所在的下标
+    private int head;
+    private int size;
+    //未加载历史前为 Long.MAX_VALUE，即任何查询都不走缓存
+    private long coveredFrom = Long.MAX_VALUE;
+    private volatile boolean loaded;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public KLineSeries(String period, int capacity) {
+        this.period = period;
+        this.capacity = capacity;
+        this.times = new long[capacity];
+        this.opens = new double[capacity];
+        this.highs = new double[capacity];
+        this.lows = new double[capacity];
+        this.closes = new double[capacity];
+        this.volumes = new double[capacity];
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 追加新收盘的K线，与最后一根时间相同时覆盖，更早的忽略
+     *
+     * @param kLine
+     */
+    public void append(KLine kLine) {
+        lock.writeLock().lock();
+        try {
+            appendLocked(kLine);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 合并从 mongodb 加载的历史K线，加载期间追加的K线保留
+     *
+     * @param history  按时间升序的最近K线
+     * @param complete 是否已包含全部历史
+     */
+    public void load(List<KLine> history, boolean complete) {
+        lock.writeLock().lock();
+        try {
+            List<KLine> appended = toList(0, size);
+            head = 0;
+            size = 0;
+            coveredFrom = complete || history.isEmpty() ? Long.MIN_VALUE : history.get(0).getTime();
+            long first = appended.isEmpty() ? Long.MAX_VALUE : appended.get(0).getTime();
+            for (KLine kLine : history) {
+                if (kLine.getTime() < first) {
+                    appendLocked(kLine);
+                }
+            }
+            for (KLine kLine : appended) {
+                appendLocked(kLine);
+            }
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return 该时间及之后的K线都在缓存中
+     */
+    public long getCoveredFrom() {
+        lock.readLock().lock();
+        try {
+            return coveredFrom;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 查询 [from, to] 之间的K线
+     *
+     * @param from
+     * @param to
+     * @return 区间起点早于 coveredFrom 时返回 null，由调用方查询 mongodb
+     */
+    public List<KLine> find(long from, long to) {
+        lock.readLock().lock();
+        try {
+            if (from < coveredFrom) {
+                return null;
+            }
+            int start = search(from);
+            int end = to == Long.MAX_VALUE ? size : search(to + 1);
+            return toList(start, end);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void appendLocked(KLine kLine) {
+        if (size > 0) {
+            int last = index(size - 1);
+            if (kLine.getTime() < times[last]) {
+                return;
+            }
+            if (kLine.getTime() == times[last]) {
+                set(last, kLine);
+                return;
+            }
+        }
+        if (size == capacity) {
+            head = (head + 1) % capacity;
+            size--;
+            coveredFrom = Math.max(coveredFrom, times[head]);
+        }
+        set(index(size), kLine);
+        size++;
+    }
+
+    private void set(int index, KLine kLine) {
+        times[index] = kLine.getTime();
+        opens[index] = kLine.getOpenPrice().doubleValue();
+        highs[index] = kLine.getHighestPrice().doubleValue();
+        lows[index] = kLine.getLowestPrice().doubleValue();
+        closes[index] = kLine.getClosePrice().doubleValue();
+        volumes[index] = kLine.getVolume().doubleValue();
+    }
+
+    /**
+     * @return 第一根时间不早于 time 的K线的序号，都早于 time 时返回 size
+     */
+    private int search(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[index(mid)] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int index(int i) {
+        return (head + i) % capacity;
+    }
+
+    private List<KLine> toList(int start, int end) {
+        List<KLine> list = new ArrayList<>(Math.max(end - start, 0));
+        for (int i = start; i < end; i++) {
+            int index = index(i);
+            KLine kLine = new KLine(period);
+            kLine.setTime(times[index]);
+            kLine.setOpenPrice(BigDecimal.valueOf(opens[index]));
+            kLine.setHighestPrice(BigDecimal.valueOf(highs[index]));
+            kLine.setLowestPrice(BigDecimal.valueOf(lows[index]));
+            kLine.setClosePrice(BigDecimal.valueOf(closes[index]));
+            kLine.setVolume(BigDecimal.valueOf(volumes[index]));
+            list.add(kLine);
+        }
+        return list;
+    }
+}
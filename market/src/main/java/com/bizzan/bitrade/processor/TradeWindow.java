@@ -0,0 +1,98 @@
+package com.bizzan.bitrade.processor;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * 最近一段时间成交量、成交额的滚动统计
+ *
+ * 按分钟分桶，成交计入所在分钟的桶并累加到合计；时间前进时淘汰移出窗口的桶并从合计中减去，
+ * 每次更新的开销与交易对的成交历史无关
+ */
+public class TradeWindow {
+    private static final long MINUTE = 60 * 1000L;
+    private final int size;
+    //桶对应的分钟（时间戳/60000），-1 表示空桶
+    private final long[] minutes;
+    private final BigDecimal[] volumes;
+    private final BigDecimal[] turnovers;
+    private BigDecimal volume = BigDecimal.ZERO;
+    private BigDecimal turnover = BigDecimal.ZERO;
+    //窗口内最新的分钟
+    private long latest = Long.MIN_VALUE;
+
+    /**
+     * @param size 窗口包含的分钟数
+     */
+    public TradeWindow(int size) {
+        this.size = size;
+        this.minutes = new long[size];
+        this.volumes = new BigDecimal[size];
+        this.turnovers = new BigDecimal[size];
+        Arrays.fill(minutes, -1L);
+    }
+
+    /**
+     * 计入成交，早于窗口的成交忽略
+     *
+     * @param time     成交时间
+     * @param amount   成交量
+     * @param turnover 成交额
+     */
+    public synchronized void add(long time, BigDecimal amount, BigDecimal turnover) {
+        long minute = time / MINUTE;
+        advanceTo(minute);
+        if (minute <= latest - size) {
+            return;
+        }
+        int index = (int) (minute % size);
+        if (minutes[index] != minute) {
+            minutes[index] = minute;
+            volumes[index] = BigDecimal.ZERO;
+            turnovers[index] = BigDecimal.ZERO;
+        }
+        volumes[index] = volumes[index].add(amount);
+        turnovers[index] = turnovers[index].add(turnover);
+        this.volume = this.volume.add(amount);
+        this.turnover = this.turnover.add(turnover);
+    }
+
+    /**
+     * 把窗口推进到指定时间，没有成交时也需要定时调用
+     *
+     * @param time
+     */
+    public synchronized void advance(long time) {
+        advanceTo(time / MINUTE);
+    }
+
+    private void advanceTo(long minute) {
+        if (minute <= latest) {
+            return;
+        }
+        if (latest == Long.MIN_VALUE || minute - latest >= size) {
+            Arrays.fill(minutes, -1L);
+            volume = BigDecimal.ZERO;
+            turnover = BigDecimal.ZERO;
+        } else {
+            //淘汰 (latest - size, minute - size] 之间的桶
+            for (long expired = latest - size + 1; expired <= minute - size; expired++) {
+                int index = (int) (expired % size);
+                if (minutes[index] == expired) {
+                    volume = volume.subtract(volumes[index]);
+                    turnover = turnover.subtract(turnovers[index]);
+                    minutes[index] = -1L;
+                }
+            }
+        }
+        latest = minute;
+    }
+
+    public synchronized BigDecimal getVolume() {
+        return volume;
+    }
+
+    public synchronized BigDecimal getTurnover() {
+        return turnover;
+    }
+}
@@ -2,6 +2,7 @@ package com.bizzan.bitrade.service;
 
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -10,19 +11,44 @@ import org.springframework.stereotype.Service;
 
 import com.bizzan.bitrade.entity.ExchangeTrade;
 import com.bizzan.bitrade.entity.KLine;
+import com.bizzan.bitrade.processor.KLineSeries;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class MarketService {
+    //行情生成的K线周期，其他周期不缓存
+    private static final Set<String> KLINE_PERIODS = new HashSet<>(Arrays.asList(
+            "1min", "5min", "10min", "15min", "30min", "1hour", "1day", "1week", "1month"));
+
     @Autowired
     private MongoTemplate mongoTemplate;
+    @Autowired
+    private MongoBulkWriter mongoBulkWriter;
+
+    //每个交易对每个周期缓存的K线根数
+    @Value("${market.kline-cache.size:2000}")
+    private int klineCacheSize;
+
+    //交易对_周期 -> 最近的K线
+    private final Map<String, KLineSeries> klineCache = new ConcurrentHashMap<>();
 
     public List<KLine> findAllKLine(String symbol,String peroid){
+        return findAllKLine(symbol,peroid,1000);
+    }
+
+    public List<KLine> findAllKLine(String symbol,String peroid,int limit){
         Sort sort = new Sort(new Sort.Order(Sort.Direction.DESC,"time"));
-        Query query = new Query().with(sort).limit(1000);
+        Query query = new Query().with(sort).limit(limit);
 
         return mongoTemplate.find(query,KLine.class,"exchange_kline_"+symbol+"_"+peroid);
     }
@@ -35,6 +61,56 @@ public class MarketService {
         return kLines;
     }
 
+    /**
+     * 查询K线，优先从内存缓存读取，早于缓存范围的部分查询 mongodb
+     * 只返回时间、开高低收和成交量，用于行情图展示；symbol 须是已有的交易对
+     * @param symbol
+     * @param fromTime
+     * @param toTime
+     * @param period
+     * @return
+     */
+    public List<KLine> findKLine(String symbol,long fromTime,long toTime,String period){
+        if(!KLINE_PERIODS.contains(period)){
+            return findAllKLine(symbol,fromTime,toTime,period);
+        }
+        KLineSeries series = getKLineSeries(symbol,period);
+        if(!series.isLoaded()){
+            loadKLineSeries(symbol,period,series);
+        }
+        long coveredFrom = series.getCoveredFrom();
+        if(fromTime >= coveredFrom){
+            List<KLine> kLines = series.find(fromTime,toTime);
+            if(kLines != null){
+                return kLines;
+            }
+        }
+        else if(toTime >= coveredFrom){
+            List<KLine> cached = series.find(coveredFrom,toTime);
+            if(cached != null){
+                List<KLine> kLines = findAllKLine(symbol,fromTime,coveredFrom - 1,period);
+                kLines.addAll(cached);
+                return kLines;
+            }
+        }
+        return findAllKLine(symbol,fromTime,toTime,period);
+    }
+
+    private KLineSeries getKLineSeries(String symbol,String period){
+        return klineCache.computeIfAbsent(symbol+"_"+period,key->new KLineSeries(period,klineCacheSize));
+    }
+
+    private void loadKLineSeries(String symbol,String period,KLineSeries series){
+        synchronized (series){
+            if(series.isLoaded()){
+                return;
+            }
+            List<KLine> history = new ArrayList<>(findAllKLine(symbol,period,klineCacheSize));
+            Collections.reverse(history);
+            series.load(history,history.size() < klineCacheSize);
+        }
+    }
+
     public ExchangeTrade findFirstTrade(String symbol,long fromTime,long toTime){
         Criteria criteria = Criteria.where("time").gte(fromTime).andOperator(Criteria.where("time").lte(toTime));
         Sort sort = new Sort(new Sort.Order(Sort.Direction.ASC,"time"));
@@ -65,7 +141,8 @@ public class MarketService {
     }
 
     public void saveKLine(String symbol,KLine kLine){
-        mongoTemplate.insert(kLine,"exchange_kline_"+symbol+"_"+kLine.getPeriod());
+        mongoBulkWriter.insert(kLine,"exchange_kline_"+symbol+"_"+kLine.getPeriod());
+        getKLineSeries(symbol,kLine.getPeriod()).append(kLine);
     }
 
     /**
@@ -0,0 +1,133 @@
+package com.bizzan.bitrade.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.servlet.http.HttpServletRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 公共行情接口的响应快照
+ *
+ * 行情变化（成交、K线收盘、交易对变更）时递增版本号，每个接口在同一版本内只生成一次响应：
+ * 序列化后的字节、gzip 压缩后的字节和 ETag 一起缓存，请求直接返回字节，If-None-Match 一致时返回 304。
+ * 交易对配置、mongodb 中尚未写入的成交等不会通知版本变化的数据，由 max-age 兜底刷新
+ */
+@Service
+public class MarketSnapshotService {
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    //快照最长使用时间，毫秒
+    @Value("${market.snapshot.max-age:1000}")
+    private long maxAge;
+
+    private final AtomicLong epoch = new AtomicLong();
+    //接口 -> 快照
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * 行情已变化，之后的请求重新生成快照
+     */
+    public void changed() {
+        epoch.incrementAndGet();
+    }
+
+    /**
+     * 返回快照，按请求头处理 gzip 和条件请求
+     *
+     * @param key     快照名，同一个 key 的响应内容须相同
+     * @param request
+     * @param builder 生成响应对象
+     * @return
+     */
+    public ResponseEntity<byte[]> response(String key, HttpServletRequest request, Supplier<Object> builder) {
+        Snapshot snapshot = get(key, builder);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(snapshot.etag);
+        headers.setCacheControl("no-cache");
+        headers.set(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && (ifNoneMatch.contains(snapshot.etag) || ifNoneMatch.trim().equals("*"))) {
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+        headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            return new ResponseEntity<>(snapshot.gzip, headers, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(snapshot.body, headers, HttpStatus.OK);
+    }
+
+    private Snapshot get(String key, Supplier<Object> builder) {
+        Snapshot snapshot = snapshots.get(key);
+        if (isValid(snapshot)) {
+            return snapshot;
+        }
+        // 同一个快照只由一个请求生成，其余请求等待后直接使用
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            snapshot = snapshots.get(key);
+            if (isValid(snapshot)) {
+                return snapshot;
+            }
+            // 先取版本号再生成，生成期间的变化会让下一次请求重新生成
+            long version = epoch.get();
+            long time = System.currentTimeMillis();
+            snapshot = build(version, time, builder.get());
+            snapshots.put(key, snapshot);
+            return snapshot;
+        }
+    }
+
+    private boolean isValid(Snapshot snapshot) {
+        return snapshot != null && snapshot.epoch == epoch.get()
+                && System.currentTimeMillis() - snapshot.time < maxAge;
+    }
+
+    private Snapshot build(long version, long time, Object value) {
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(value);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(body);
+            }
+            String etag = "\"0" + DigestUtils.md5DigestAsHex(body) + "\"";
+            return new Snapshot(version, time, body, out.toByteArray(), etag);
+        } catch (IOException e) {
+            throw new IllegalStateException("serialize market snapshot failed", e);
+        }
+    }
+
+    private static class Snapshot {
+        private final long epoch;
+        private final long time;
+        private final byte[] body;
+        private final byte[] gzip;
+        private final String etag;
+
+        private Snapshot(long epoch, long time, byte[] body, byte[] gzip, String etag) {
+            this.epoch = epoch;
+            this.time = time;
+            this.body = body;
+            this.gzip = gzip;
+            this.etag = etag;
+        }
+    }
+}
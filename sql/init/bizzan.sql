@@ -1144,6 +1144,25 @@ LOCK TABLES `exchange_order` WRITE;
 /*!40000 ALTER TABLE `exchange_order` ENABLE KEYS */;
 UNLOCK TABLES;
 
+--
+-- Table structure for table `exchange_trade_settlement`
+--
+
+DROP TABLE IF EXISTS `exchange_trade_settlement`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `exchange_trade_settlement` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `buy_order_id` varchar(255) DEFAULT NULL COMMENT '买单ID',
+  `sell_order_id` varchar(255) DEFAULT NULL COMMENT '卖单ID',
+  `symbol` varchar(255) DEFAULT NULL COMMENT '交易对如BTC/USDT',
+  `sequence` bigint(20) DEFAULT NULL COMMENT '交易对内的成交序号',
+  `create_time` datetime DEFAULT NULL COMMENT '结算时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE KEY `UK_exchange_trade_settlement_order` (`buy_order_id`,`sell_order_id`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='已结算的成交，防止重复结算';
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `feedback`
 --
@@ -1994,6 +2013,30 @@ DELIMITER ;
 /*!50003 SET character_set_results = @saved_cs_results */ ;
 /*!50003 SET collation_connection  = @saved_col_connection */ ;
 
+--
+-- Table structure for table `member_wallet_delta`
+--
+
+DROP TABLE IF EXISTS `member_wallet_delta`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `member_wallet_delta` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `wallet_id` bigint(20) DEFAULT NULL COMMENT '钱包ID',
+  `member_id` bigint(20) DEFAULT NULL COMMENT '用户ID',
+  `coin_id` varchar(255) DEFAULT NULL COMMENT '币种FK coin.name',
+  `balance` decimal(26,16) DEFAULT NULL COMMENT '增加的可用余额',
+  `frozen_balance` decimal(26,16) DEFAULT NULL COMMENT '减少的冻结余额',
+  `create_time` datetime DEFAULT NULL COMMENT '创建时间',
+  `status` int(11) DEFAULT '0' COMMENT '0待写入，1写入失败等待重试',
+  `retry_count` int(11) DEFAULT '0' COMMENT '已失败次数',
+  `next_retry_time` datetime DEFAULT NULL COMMENT '下次重试时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  KEY `IDX_member_wallet_delta_wallet_id` (`wallet_id`) USING BTREE,
+  KEY `IDX_member_wallet_delta_status` (`status`,`next_retry_time`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='成交结算待写入钱包的资金变动';
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `member_wallet_history`
 --
@@ -2253,6 +2296,24 @@ INSERT INTO `promotion_card_order` VALUES (1,0.00100000,'2020-10-13 18:46:03',1,
 /*!40000 ALTER TABLE `promotion_card_order` ENABLE KEYS */;
 UNLOCK TABLES;
 
+--
+-- Table structure for table `promotion_reward_event`
+--
+
+DROP TABLE IF EXISTS `promotion_reward_event`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `promotion_reward_event` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `member_id` bigint(20) DEFAULT NULL COMMENT '支付手续费的用户ID',
+  `symbol` varchar(255) DEFAULT NULL COMMENT '手续费币种单位',
+  `fee` decimal(26,16) DEFAULT NULL COMMENT '手续费',
+  `second_referrer_award` bit(1) DEFAULT NULL COMMENT '二级推荐人是否返佣',
+  `create_time` datetime DEFAULT NULL COMMENT '成交时间',
+  PRIMARY KEY (`id`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='待发放的币币交易推广佣金';
+/*!40101 SET character_set_client = @saved_cs_client */;
+
 --
 -- Table structure for table `quick_exchange`
 --